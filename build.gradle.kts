@@ -56,7 +56,8 @@ dependencies {
   implementation("io.grpc:grpc-protobuf:$grpcVersion")
   testImplementation("org.assertj:assertj-core:3.18.1")
   testImplementation("org.mockito:mockito-all:1.10.19")
-  runtimeOnly("io.grpc:grpc-netty-shaded:$grpcVersion")
+  testImplementation("io.grpc:grpc-inprocess:$grpcVersion")
+  implementation("io.grpc:grpc-netty-shaded:$grpcVersion")
 
   // IntelliJ Platform Gradle Plugin Dependencies Extension
   intellijPlatform {
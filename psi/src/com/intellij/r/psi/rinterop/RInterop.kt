@@ -52,13 +52,18 @@ interface RInterop : Disposable, UserDataHolder {
 
   fun replExecute(code: String, setLastValue: Boolean = false, debug: Boolean = false): CancellablePromise<RIExecutionResult>
 
-  fun executeTask(f: () -> Unit): Promise<Unit>
+  fun executeTask(priority: RInteropPriority = RInteropPriority.INTERACTIVE, f: () -> Unit): Promise<Unit>
+  /** Requests issued by [f] on the calling thread are scheduled with [priority] */
+  fun <T> withPriority(priority: RInteropPriority, f: () -> T): T
+  /** Priority of requests issued on the calling thread */
+  val currentPriority: RInteropPriority
   fun copyToPersistentRef(proto: RRef): CancellablePromise<CopyToPersistentRefResponse>
   fun loaderGetValueInfo(proto: RRef): CancellablePromise<ValueInfo>
   fun evaluateAsText(proto: RRef): CancellablePromise<StringOrError>
   fun getDistinctStrings(proto: RRef): CancellablePromise<StringList>
   fun loadObjectNames(proto: RRef): CancellablePromise<StringList>
   fun getObjectSizes(refs: List<RReference>): List<Long>
+  fun getObjectSizesAsync(refs: List<RReference>): CancellablePromise<List<Long>>
   fun getEqualityObject(proto: RRef): CancellablePromise<Int64Value>
   fun setValue(request: SetValueRequest): CancellablePromise<ValueInfo>
   fun disposePersistentRefs(list: PersistentRefList): CancellablePromise<Empty>
@@ -87,21 +92,25 @@ interface RInterop : Disposable, UserDataHolder {
   fun rInteropGrpcLoggerAsJson(withPending: Boolean = false): String
 
   fun invalidateCaches()
+  fun invalidateCaches(scopes: Set<RInteropCacheScope>)
 
   fun setRStudioApiEnabled(enabled: Boolean)
 
   var saveOnExit: Boolean
 
-  fun <T : Any> cached(defaultValue: T? = null, f: () -> T): Cached<T>
+  fun <T : Any> cached(defaultValue: T? = null, scopes: Set<RInteropCacheScope> = RInteropCacheScope.ALL, f: () -> T): Cached<T>
   interface Cached<T> {
     operator fun getValue(thisRef: Any?, property: KProperty<*>): T
   }
 
-  fun<T> asyncCached(defaultValue: T, f: () -> CancellablePromise<T>): AsyncCached<T>
+  fun<T> asyncCached(defaultValue: T, scopes: Set<RInteropCacheScope> = RInteropCacheScope.ALL,
+                     f: () -> CancellablePromise<T>): AsyncCached<T>
   interface AsyncCached<T> {
     val value: T
     fun safeGet(): T
     fun getAsync(): Promise<T>
+    /** The last loaded value, possibly outdated, or null if nothing was loaded yet. Never starts loading */
+    fun getIfLoaded(): T?
   }
 }
 
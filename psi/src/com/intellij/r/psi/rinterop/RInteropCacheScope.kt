@@ -0,0 +1,24 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package com.intellij.r.psi.rinterop
+
+import java.util.EnumSet
+
+/**
+ * Parts of the R session state which runtime caches depend on.
+ * Every scope is versioned separately, so invalidating one scope keeps caches of the others.
+ */
+enum class RInteropCacheScope {
+  /** Bindings of the global environment, debugger frames and any other environment */
+  ENVIRONMENTS,
+  /** Set and order of loaded namespaces */
+  NAMESPACES,
+  /** Working directory of the session */
+  WORKING_DIR;
+
+  companion object {
+    val ALL: Set<RInteropCacheScope> = EnumSet.allOf(RInteropCacheScope::class.java)
+  }
+}
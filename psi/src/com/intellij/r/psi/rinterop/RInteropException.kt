@@ -20,3 +20,5 @@ sealed class RInteropException(val rInterop: RInterop, message: String, cause: T
 class RInteropTerminated(rInterop: RInterop) : RInteropException(rInterop, "RWrapper was terminated")
 class RInteropRequestFailed(rInterop: RInterop, methodName: String, cause: Throwable? = null) :
   RInteropException(rInterop, "Request $methodName failed", cause)
+class RInteropTimedOut(rInterop: RInterop, timeoutMs: Long) :
+  RInteropException(rInterop, "R did not answer within $timeoutMs ms")
@@ -0,0 +1,17 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package com.intellij.r.psi.rinterop
+
+/**
+ * Scheduling class of work sent to the R session, in the order of decreasing priority.
+ */
+enum class RInteropPriority {
+  /** Something the user is waiting for right now: console commands, completion, documentation, debugger actions */
+  INTERACTIVE,
+  /** Refresh of visible UI such as the variables view */
+  UI_REFRESH,
+  /** Work nobody is waiting for: interpreter state refresh, bulk loading of class infos */
+  BACKGROUND
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package com.intellij.r.psi.rinterop
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.util.Disposer
+import com.intellij.r.psi.debugger.exception.RDebuggerException
+import com.intellij.r.psi.util.thenAsyncCancellable
+import com.intellij.r.psi.util.thenCancellable
+import com.intellij.r.psi.util.tryRegisterDisposable
+import org.jetbrains.concurrency.CancellablePromise
+import org.jetbrains.concurrency.isPending
+import org.jetbrains.concurrency.resolvedCancellablePromise
+
+/**
+ * Printed representation of a value which is transferred by pages of lines instead of one message.
+ *
+ * The printed lines stay in a private R environment until the text is disposed,
+ * so a huge value costs only the loaded pages on the IDE side.
+ * [lineCount] and [byteSize] are known up front, [firstPage] arrives together with them.
+ */
+class RPagedText private constructor(
+  private val env: RPersistentRef,
+  val lineCount: Int,
+  val byteSize: Long,
+  val firstPage: List<String>,
+) : Disposable {
+  init {
+    Disposer.register(this, env)
+  }
+
+  val isComplete: Boolean
+    get() = firstPage.size == lineCount
+
+  /** Lines `from until from + count`, clamped to [lineCount] */
+  fun getLines(from: Int, count: Int): CancellablePromise<List<String>> {
+    val to = minOf(lineCount, from + count)
+    if (from >= to) return resolvedCancellablePromise(emptyList())
+    return fetchString(env, "paste(lines[${from + 1}:$to], collapse = '\\n')").thenCancellable { it.split('\n') }
+  }
+
+  override fun dispose() {
+  }
+
+  companion object {
+    /**
+     * Prints [ref] in R and fetches the header lines which fit into [firstPageBytes].
+     * The text is disposed with [disposableParent].
+     */
+    fun create(ref: RReference, firstPageBytes: Int, disposableParent: Disposable): CancellablePromise<RPagedText> {
+      return RReference.expressionRef("new.env()", ref.rInterop).copyToPersistentRef()
+        .thenAsyncCancellable { env ->
+          env.getMemberRef("value").setValue(ref)
+            .thenAsyncCancellable {
+              fetchString(env, """
+                {
+                  lines <- capture.output(print(value))
+                  rm(value)
+                  bytes <- nchar(lines, type = 'bytes') + 1
+                  first <- max(1, sum(cumsum(bytes) <= $firstPageBytes))
+                  paste(c(format(c(length(lines), sum(bytes)), scientific = FALSE), head(lines, first)), collapse = '\n')
+                }
+              """.trimIndent())
+            }
+            .thenCancellable { text ->
+              val parts = text.split('\n')
+              RPagedText(env, parts[0].trim().toInt(), parts[1].trim().toLong(), parts.drop(2))
+            }
+            .also { it.onError { Disposer.dispose(env) } }
+        }
+        .also { promise ->
+          promise.onSuccess { disposableParent.tryRegisterDisposable(it) }
+          disposableParent.tryRegisterDisposable(Disposable { if (promise.isPending) promise.cancel() })
+        }
+    }
+
+    /** A character vector of length one is transferred as is, without the escaping of `print` */
+    private fun fetchString(env: RReference, code: String): CancellablePromise<String> {
+      return env.rInterop.getDistinctStrings(RReference.expressionRef(code, env).proto).thenCancellable {
+        if (it.listCount > 1) throw RDebuggerException("Unexpected paged text response")
+        it.listList.firstOrNull().orEmpty()
+      }
+    }
+  }
+}
@@ -4,10 +4,14 @@
 
 package com.intellij.r.psi.rinterop
 
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.r.psi.util.thenAsyncCancellable
 import com.intellij.r.psi.util.thenCancellable
+import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.CancellablePromise
+import org.jetbrains.concurrency.Promise
 import org.jetbrains.concurrency.resolvedCancellablePromise
+import kotlin.math.min
 
 class RVariableLoader internal constructor(val obj: RReference) {
   val rInterop = obj.rInterop
@@ -20,30 +24,108 @@ class RVariableLoader internal constructor(val obj: RReference) {
     }
   }
 
-  private val variablesAsync: RInterop.AsyncCached<List<RVar>> = rInterop.asyncCached(emptyList()) {
-    loadVariablesPartially(0, BLOCK_SIZE).thenAsyncCancellable {
-      if (it.totalCount <= BLOCK_SIZE) {
-        return@thenAsyncCancellable resolvedCancellablePromise(it.vars)
+  private val variablesAsync: RInterop.AsyncCached<List<RVar>> = rInterop.asyncCached(emptyList()) { loadAllVariables() }
+  val variables get() = variablesAsync.safeGet()
+
+  /** Starts loading like [variables] does, but does not wait for the result */
+  fun getVariablesAsync(): Promise<List<RVar>> = variablesAsync.getAsync()
+
+  /** Variables of the last load, null if they were not loaded yet. Does not request them from R */
+  val loadedVariables: List<RVar>? get() = variablesAsync.getIfLoaded()
+
+  data class VariablesPart(val vars: List<RVar>, val totalCount: Long)
+
+  /**
+   * Loads all variables by blocks of [blockSize], keeping up to [maxInFlight] block requests in flight.
+   * [onProgress] is called with the ordered prefix loaded so far every time it grows.
+   */
+  fun loadAllVariables(
+    blockSize: Long = BLOCK_SIZE, maxInFlight: Int = MAX_BLOCKS_IN_FLIGHT,
+    onProgress: (List<RVar>) -> Unit = {}): CancellablePromise<List<RVar>> {
+    return loadVariablesPipelined(0, Long.MAX_VALUE, blockSize, maxInFlight) { vars, _ -> onProgress(vars) }.thenCancellable { it.vars }
+  }
+
+  /**
+   * Loads variables from [start] to [end] (exclusive, capped by the total count) like [loadVariablesPartially] does,
+   * but by blocks of [blockSize] with up to [maxInFlight] block requests in flight.
+   * [onProgress] is called with the ordered prefix loaded so far and the total count every time the prefix grows.
+   * The calls are serialized and made in order under the lock of the pipeline, so [onProgress] must be fast.
+   */
+  fun loadVariablesPipelined(
+    start: Long, end: Long, blockSize: Long = BLOCK_SIZE, maxInFlight: Int = MAX_BLOCKS_IN_FLIGHT,
+    withHidden: Boolean = true, noFunctions: Boolean = false, onlyFunctions: Boolean = false,
+    onProgress: (List<RVar>, Long) -> Unit = { _, _ -> }): CancellablePromise<VariablesPart> {
+    // Later blocks are requested from callbacks, so they are sent with the priority of the caller rather than of the callback thread
+    val priority = rInterop.currentPriority
+    val loadBlock = { from: Long, to: Long ->
+      rInterop.withPriority(priority) { loadVariablesPartially(from, to, withHidden, noFunctions, onlyFunctions) }
+    }
+    return loadBlock(start, min(end, start + blockSize)).thenAsyncCancellable { first ->
+      onProgress(first.vars, first.totalCount)
+      val last = min(end, first.totalCount)
+      if (last <= start + blockSize) {
+        return@thenAsyncCancellable resolvedCancellablePromise(first)
       }
-      val result = it.vars.toMutableList()
-      var promise = resolvedCancellablePromise(Unit)
-      var offset = BLOCK_SIZE
-      while (offset < it.totalCount) {
-        val currentOffset = offset
-        offset += BLOCK_SIZE
-        promise = promise.thenAsyncCancellable {
-          loadVariablesPartially(currentOffset, currentOffset + BLOCK_SIZE).thenCancellable { part ->
-            result.addAll(part.vars)
-            Unit
-          }
+      val blockCount = ((last - start + blockSize - 1) / blockSize).toInt()
+      BlockPipeline(start, last, blockSize, blockCount, maxInFlight.coerceAtLeast(1), first, loadBlock, onProgress).start()
+    }
+  }
+
+  private class BlockPipeline(
+    private val start: Long, private val end: Long, private val blockSize: Long,
+    private val blockCount: Int, private val maxInFlight: Int, firstBlock: VariablesPart,
+    private val loadBlock: (Long, Long) -> CancellablePromise<VariablesPart>,
+    private val onProgress: (List<RVar>, Long) -> Unit) {
+    private val result = AsyncPromise<VariablesPart>()
+    private val totalCount = firstBlock.totalCount
+    private val blocks = arrayOfNulls<List<RVar>>(blockCount).also { it[0] = firstBlock.vars }
+    private val inFlight = HashMap<Int, CancellablePromise<VariablesPart>>()
+    private val assembled = firstBlock.vars.toMutableList()
+    private var nextToRequest = 1
+    private var nextToAssemble = 1
+
+    fun start(): CancellablePromise<VariablesPart> {
+      result.onError { cancelInFlight() }
+      synchronized(this) { requestMore() }
+      return result
+    }
+
+    private fun requestMore() {
+      while (inFlight.size < maxInFlight && nextToRequest < blockCount && !result.isDone) {
+        val index = nextToRequest++
+        val blockStart = start + index * blockSize
+        val promise = loadBlock(blockStart, min(blockStart + blockSize, end))
+        inFlight[index] = promise
+        promise
+          .onSuccess { onBlockLoaded(index, it.vars) }
+          .onError { result.setError(it) }
+      }
+    }
+
+    /** Progress is reported under the lock, so a longer prefix is never reported before a shorter one */
+    private fun onBlockLoaded(index: Int, vars: List<RVar>) {
+      synchronized(this) {
+        if (result.isDone) return
+        inFlight.remove(index)
+        blocks[index] = vars
+        val assembledBefore = nextToAssemble
+        while (nextToAssemble < blockCount) {
+          assembled.addAll(blocks[nextToAssemble] ?: break)
+          blocks[nextToAssemble++] = null
         }
+        requestMore()
+        if (nextToAssemble == assembledBefore) return
+        val prefix = assembled.toList()
+        onProgress(prefix, totalCount)
+        if (nextToAssemble == blockCount) result.setResult(VariablesPart(prefix, totalCount))
       }
-      promise.thenCancellable { result }
     }
-  }
-  val variables get() = variablesAsync.safeGet()
 
-  data class VariablesPart(val vars: List<RVar>, val totalCount: Long)
+    private fun cancelInFlight() {
+      val promises = synchronized(this) { inFlight.values.toList().also { inFlight.clear() } }
+      promises.forEach { it.cancel() }
+    }
+  }
 
   fun loadVariablesPartially(
     start: Long, end: Long, withHidden: Boolean = true,
@@ -65,6 +147,9 @@ class RVariableLoader internal constructor(val obj: RReference) {
   }
 
   companion object {
-    private const val BLOCK_SIZE = 500L
+    private val BLOCK_SIZE
+      get() = Registry.intValue("r.interop.variables.block.size", 500).toLong()
+    private val MAX_BLOCKS_IN_FLIGHT
+      get() = Registry.intValue("r.interop.variables.blocks.in.flight", 4)
   }
 }
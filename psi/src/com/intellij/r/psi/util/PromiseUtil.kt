@@ -4,12 +4,15 @@
 
 package com.intellij.r.psi.util
 
+import kotlinx.coroutines.suspendCancellableCoroutine
 import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.CancellablePromise
 import org.jetbrains.concurrency.Promise
 import org.jetbrains.concurrency.isPending
 import org.jetbrains.concurrency.resolvedPromise
 import java.util.concurrent.atomic.AtomicReference
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
 
 object PromiseUtil {
   fun runChain(tasks: List<() -> Promise<Boolean>>): Promise<Boolean> {
@@ -67,3 +70,13 @@ fun <T, R> CancellablePromise<T>.thenAsyncCancellable(f: (T) -> CancellablePromi
   }
   return result
 }
+
+/**
+ * Suspends until the promise is done. Cancellation of the calling coroutine cancels the promise,
+ * so a request awaited by a cancelled completion or resolve does not keep R busy.
+ */
+suspend fun <T> CancellablePromise<T>.awaitCancellable(): T = suspendCancellableCoroutine { continuation ->
+  onSuccess { continuation.resume(it) }
+  onError { continuation.resumeWithException(it) }
+  continuation.invokeOnCancellation { if (isPending) cancel() }
+}
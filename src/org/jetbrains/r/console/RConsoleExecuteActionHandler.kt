@@ -58,7 +58,6 @@ import org.jetbrains.r.packages.RequiredPackageInstaller
 import org.jetbrains.r.rendering.editor.ChunkExecutionState
 import org.jetbrains.r.rendering.toolwindow.RToolWindowFactory
 import org.jetbrains.r.rinterop.RExceptionInfo
-import org.jetbrains.r.rinterop.RINTEROP_THREAD_NAME
 import org.jetbrains.r.rinterop.RInteropAsyncEventsListener
 import org.jetbrains.r.rinterop.RInterrupted
 import org.jetbrains.r.rinterop.RNoSuchPackageError
@@ -317,7 +316,7 @@ class RConsoleExecuteActionHandler(
     }
 
     private fun pollExecuteLaterQueue() {
-      assert(Thread.currentThread().name == RINTEROP_THREAD_NAME)
+      assert(rInterop.isSchedulerThread)
       while (!isRunningCommand && executeLaterQueue.isNotEmpty()) executeLaterQueue.poll().invoke()
     }
   }
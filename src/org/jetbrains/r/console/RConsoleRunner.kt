@@ -50,6 +50,7 @@ import org.jetbrains.r.actions.RPromotedAction
 import org.jetbrains.r.actions.ToggleSoftWrapAction
 import org.jetbrains.r.help.RWebHelpProvider
 import org.jetbrains.r.rinterop.RInteropImpl
+import org.jetbrains.r.rinterop.RInteropStartupTimeline
 import org.jetbrains.r.rinterop.RInteropUtil
 import org.jetbrains.r.run.graphics.RGraphicsDevice
 import org.jetbrains.r.run.graphics.RGraphicsRepository
@@ -75,6 +76,11 @@ class RConsoleRunner(private val interpreter: RInterpreter,
           val placeholder = RConsoleToolWindowFactory.addConsolePlaceholder(project, contentIndex)
           RInteropUtil.runRWrapperAndInterop(interpreter, workingDir).onSuccess { rInterop ->
             initByInterop(rInterop, promise)
+            // State and namespaces are loaded while the console UI is being created
+            rInterop.startupTimeline?.let { timeline ->
+              timeline.phaseAsync("state", rInterop.state.updateState())
+              timeline.phaseAsync("namespaces", rInterop.loadedPackages.getAsync())
+            }
             rInterop.state.scheduleSkeletonUpdate()
           }.onError {
             showErrorMessage(project, it.message ?: "Cannot find suitable rwrapper", "Cannot run console")
@@ -109,18 +115,21 @@ class RConsoleRunner(private val interpreter: RInterpreter,
         }
       })
 
+      val timeline = rInterop.startupTimeline ?: RInteropStartupTimeline()
       runAsync {
-        rInterop.setWorkingDir(workingDir)
+        timeline.phase("workingDir") { rInterop.setWorkingDir(workingDir) }
         // Setup console listener for graphics device
         val graphicsDevice = if (ApplicationManager.getApplication().isUnitTestMode) {
           null
         } else {
-          val screenParameters = RGraphicsSettings.getScreenParameters(project)
-          RGraphicsUtils.createGraphicsDevice(rInterop, screenParameters.dimension, screenParameters.resolution).apply {
-            configuration = configuration.copy(screenParameters = screenParameters)
-            addListener(RGraphicsToolWindowListener(project))
-          }.also {
-            consoleView.addOnSelectListener { RGraphicsRepository.getInstance(project).setActiveDevice(it) }
+          timeline.phase("graphics") {
+            val screenParameters = RGraphicsSettings.getScreenParameters(project)
+            RGraphicsUtils.createGraphicsDevice(rInterop, screenParameters.dimension, screenParameters.resolution).apply {
+              configuration = configuration.copy(screenParameters = screenParameters)
+              addListener(RGraphicsToolWindowListener(project))
+            }.also {
+              consoleView.addOnSelectListener { RGraphicsRepository.getInstance(project).setActiveDevice(it) }
+            }
           }
         }
 
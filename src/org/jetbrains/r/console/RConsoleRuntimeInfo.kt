@@ -4,28 +4,48 @@
 
 package org.jetbrains.r.console
 
+import com.google.common.annotations.VisibleForTesting
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.util.Key
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.psi.PsiFile
 import com.intellij.r.psi.classes.r6.R6ClassInfo
 import com.intellij.r.psi.classes.s4.classInfo.RS4ClassInfo
 import com.intellij.r.psi.console.RConsoleRuntimeInfo
 import com.intellij.r.psi.hints.parameterInfo.RExtraNamedArgumentsInfo
 import com.intellij.r.psi.psi.TableInfo
+import com.intellij.r.psi.psi.TableType
 import com.intellij.r.psi.psi.api.RFunctionExpression
+import com.intellij.r.psi.rinterop.RInteropTimedOut
 import com.intellij.r.psi.rinterop.RReference
+import com.intellij.r.psi.rinterop.RValue
 import com.intellij.r.psi.rinterop.getWithCheckCanceled
+import com.intellij.util.concurrency.AppExecutorUtil
 import org.jetbrains.annotations.TestOnly
+import org.jetbrains.r.rinterop.RInteropAsyncEventsListener
 import org.jetbrains.r.rinterop.RInteropImpl
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Future
 import java.util.concurrent.atomic.AtomicReference
 
-class RConsoleRuntimeInfoImpl(override val rInterop: RInteropImpl) : RConsoleRuntimeInfo {
+/**
+ * @param snapshotPath where the snapshot of the runtime state is kept between sessions, null disables the snapshot
+ */
+class RConsoleRuntimeInfoImpl internal constructor(
+  override val rInterop: RInteropImpl,
+  private val snapshotPath: Path?,
+) : RConsoleRuntimeInfo {
+  constructor(rInterop: RInteropImpl) : this(rInterop, defaultSnapshotPath(rInterop))
+
   private val objectNamesCache by rInterop.Cached { mutableMapOf<String, List<String>>() }
   private val distinctStringsCache by rInterop.Cached { mutableMapOf<String, List<String>>() }
   private val inheritorNamedArgumentsCache by rInterop.Cached { mutableMapOf<String, List<String>>() }
   private val extraNamedArgumentsCache by rInterop.Cached { mutableMapOf<String, RExtraNamedArgumentsInfo>() }
   private val extraNamedArgumentsStampCache by rInterop.Cached { mutableMapOf<String, Long>() }
   private val formalArgumentsCache by rInterop.Cached { mutableMapOf<String, List<String>>() }
-  private val tableColumnsCache by rInterop.Cached { mutableMapOf<String, TableInfo>() }
+  private val tableColumnsCache by rInterop.Cached { ConcurrentHashMap<String, TableInfo>() }
   private val s4ClassInfosByObjectNameCache by rInterop.Cached { mutableMapOf<String, RS4ClassInfo?>() }
   private val s4ClassInfosByClassNameCache by rInterop.Cached { mutableMapOf<String, RS4ClassInfo?>() }
   private val r6ClassInfosByObjectNameCache by rInterop.Cached { mutableMapOf<String, R6ClassInfo?>() }
@@ -33,12 +53,36 @@ class RConsoleRuntimeInfoImpl(override val rInterop: RInteropImpl) : RConsoleRun
   private val loadedShortS4ClassInfosCache by rInterop.Cached { AtomicReference<List<RS4ClassInfo>?>(null) }
   private val loadedShortR6ClassInfosCache by rInterop.Cached { AtomicReference<List<R6ClassInfo>?>(null) }
 
+  private val provisionalSnapshot by lazy { snapshotPath?.let { RRuntimeSnapshot.read(it) } }
+  @Volatile
+  private var isLive = false
+  @Volatile
+  private var lastSnapshotSaveTime = System.currentTimeMillis()
+
+  init {
+    rInterop.addAsyncEventsListener(object : RInteropAsyncEventsListener {
+      override fun onPrompt(isDebug: Boolean) {
+        if (!isDebug && System.currentTimeMillis() - lastSnapshotSaveTime >= SNAPSHOT_SAVE_INTERVAL_MS) saveSnapshot()
+      }
+
+      override fun onTermination() {
+        saveSnapshot()
+      }
+    })
+  }
+
   override val rMarkdownChunkOptions by lazy { rInterop.rMarkdownChunkOptions }
 
-  override val variables
-    get() = rInterop.currentEnvLoader.variables.map { it.name to it.value }.toMap()
-  override val loadedPackages
-    get() = rInterop.loadedPackages.safeGet().also { require(it != null) /* see DS-6402 */ }
+  override val variables: Map<String, RValue>
+    get() {
+      getProvisionalSnapshot()?.let { return it.variables }
+      return rInterop.currentEnvLoader.variables.map { it.name to it.value }.toMap()
+    }
+  override val loadedPackages: Map<String, Int>
+    get() {
+      getProvisionalSnapshot()?.let { return it.loadedPackages }
+      return rInterop.loadedPackages.safeGet().also { require(it != null) /* see DS-6402 */ }
+    }
   override val workingDir
     get() = rInterop.workingDir
 
@@ -55,14 +99,14 @@ class RConsoleRuntimeInfoImpl(override val rInterop: RInteropImpl) : RConsoleRun
   }
 
   override fun loadInheritorNamedArguments(baseFunctionName: String): List<String> {
-    return inheritorNamedArgumentsCache.getOrPut(baseFunctionName) {
-      rInterop.findInheritorNamedArguments(RReference.expressionRef("'$baseFunctionName'", rInterop))
+    return inheritorNamedArgumentsCache.getOrAwait(baseFunctionName, emptyList()) {
+      rInterop.awaitInheritorNamedArguments(RReference.expressionRef("'$baseFunctionName'", rInterop))
     }
   }
 
   override fun loadExtraNamedArguments(functionName: String): RExtraNamedArgumentsInfo {
-    return extraNamedArgumentsCache.getOrPut(functionName) {
-      rInterop.findExtraNamedArguments(RReference.expressionRef("'$functionName'", rInterop))
+    return extraNamedArgumentsCache.getOrAwait(functionName, NO_EXTRA_NAMED_ARGUMENTS) {
+      rInterop.awaitExtraNamedArguments(RReference.expressionRef("'$functionName'", rInterop))
     }
   }
 
@@ -71,8 +115,9 @@ class RConsoleRuntimeInfoImpl(override val rInterop: RInteropImpl) : RConsoleRun
     val stamp = functionExpression.containingFile.modificationStamp
     val oldStamp = extraNamedArgumentsStampCache[functionName]
     if (oldStamp == null || stamp < 0 || stamp != oldStamp) {
-      extraNamedArgumentsStampCache[functionName] = stamp
-      return rInterop.findExtraNamedArguments(RReference.expressionRef("'${functionExpression.text}'", rInterop)).also {
+      val action = suspend { rInterop.awaitExtraNamedArguments(RReference.expressionRef("'${functionExpression.text}'", rInterop)) }
+      return awaitAnswer(NO_EXTRA_NAMED_ARGUMENTS, action) {
+        extraNamedArgumentsStampCache[functionName] = stamp
         extraNamedArgumentsCache[functionName] = it
       }
     }
@@ -92,30 +137,98 @@ class RConsoleRuntimeInfoImpl(override val rInterop: RInteropImpl) : RConsoleRun
   }
 
   override fun loadS4ClassInfoByObjectName(objectName: String): RS4ClassInfo? {
-    return s4ClassInfosByObjectNameCache.getOrPut(objectName) {
-      rInterop.getS4ClassInfoByObjectName(RReference.expressionRef(objectName, rInterop))
+    return s4ClassInfosByObjectNameCache.getOrAwait(objectName, null) {
+      rInterop.awaitS4ClassInfoByObjectName(RReference.expressionRef(objectName, rInterop))
     }
   }
 
   override fun loadS4ClassInfoByClassName(className: String): RS4ClassInfo? {
-    return s4ClassInfosByClassNameCache.getOrPut(className) {
-      rInterop.getS4ClassInfoByClassName(className)
+    return s4ClassInfosByClassNameCache.getOrAwait(className, null) {
+      rInterop.awaitS4ClassInfoByClassName(className)
     }
   }
 
   override fun loadR6ClassInfoByObjectName(objectName: String): R6ClassInfo? {
-    return r6ClassInfosByObjectNameCache.getOrPut(objectName) {
-      rInterop.getR6ClassInfoByObjectName(RReference.expressionRef(objectName, rInterop))
+    return r6ClassInfosByObjectNameCache.getOrAwait(objectName, null) {
+      rInterop.awaitR6ClassInfoByObjectName(RReference.expressionRef(objectName, rInterop))
     }
   }
 
   override fun getFormalArguments(expression: String): List<String> {
-    return formalArgumentsCache.getOrPut(expression) { rInterop.getFormalArguments(RReference.expressionRef(expression, rInterop)) }
+    return formalArgumentsCache.getOrAwait(expression, emptyList()) {
+      rInterop.awaitFormalArguments(RReference.expressionRef(expression, rInterop))
+    }
   }
 
   override fun loadTableColumns(expression: String): TableInfo {
-    return tableColumnsCache.getOrPut(expression) {
-      rInterop.getTableColumnsInfo(RReference.expressionRef(expression, rInterop))
+    getProvisionalSnapshot()?.tableInfo(expression)?.let { return it }
+    return tableColumnsCache.getOrAwait(expression, TableInfo(emptyList(), TableType.UNKNOWN)) {
+      rInterop.awaitTableColumnsInfo(RReference.expressionRef(expression, rInterop))
+    }
+  }
+
+  /**
+   * Like [getOrPut], but the value is requested with [awaitAnswer] and [default] is returned without caching it
+   * if R does not answer, so the next call asks again.
+   */
+  private fun <K, V> MutableMap<K, V>.getOrAwait(key: K, default: V, action: suspend () -> V): V {
+    if (containsKey(key)) {
+      @Suppress("UNCHECKED_CAST")
+      return get(key) as V
+    }
+    return awaitAnswer(default, action) { put(key, it) }
+  }
+
+  /**
+   * Waits for [action] of a PSI caller, cancellable by its job or progress indicator, and passes the answer to [onAnswer].
+   * PSI callers (completion, resolve, table analysis) are synchronous, so they wait like they did on the EDT before.
+   * Returns [default] if R does not answer in time, e.g. because it runs a long user command.
+   */
+  private fun <T> awaitAnswer(default: T, action: suspend () -> T, onAnswer: (T) -> Unit): T {
+    return try {
+      rInterop.blockingAwait { action() }.also(onAnswer)
+    }
+    catch (e: RInteropTimedOut) {
+      LOG.debug(e.message)
+      default
+    }
+  }
+
+  /**
+   * Snapshot of the previous session which is used until the first namespaces and global variables arrive from R.
+   * Nothing is requested here, the snapshot is dropped once the console and the variables view have loaded them.
+   */
+  private fun getProvisionalSnapshot(): RRuntimeSnapshot? {
+    if (isLive || snapshotPath == null) return null
+    if (rInterop.loadedPackages.getIfLoaded() != null && rInterop.globalEnvLoader.loadedVariables != null) {
+      isLive = true
+      return null
+    }
+    return provisionalSnapshot
+  }
+
+  /**
+   * Writes namespaces and global variables which were already loaded for code insight, nothing is requested from R.
+   * Returns null if there is nothing to save yet.
+   */
+  @VisibleForTesting
+  internal fun saveSnapshot(): Future<*>? {
+    if (snapshotPath == null || rInterop.isAuxiliary) return null
+    lastSnapshotSaveTime = System.currentTimeMillis()
+    val packages = rInterop.loadedPackages.getIfLoaded() ?: return null
+    val variables = rInterop.globalEnvLoader.loadedVariables ?: return null
+    val snapshot = RRuntimeSnapshot.create(packages, variables, tableColumnsCache.toMap())
+    return AppExecutorUtil.getAppExecutorService().submit { RRuntimeSnapshot.write(snapshotPath, snapshot) }
+  }
+
+  companion object {
+    private val LOG = Logger.getInstance(RConsoleRuntimeInfoImpl::class.java)
+    private val NO_EXTRA_NAMED_ARGUMENTS = RExtraNamedArgumentsInfo(emptyList(), emptyList())
+    private const val SNAPSHOT_SAVE_INTERVAL_MS = 60_000L
+
+    private fun defaultSnapshotPath(rInterop: RInteropImpl): Path? {
+      if (!Registry.`is`("r.console.runtime.snapshot", true) || ApplicationManager.getApplication().isUnitTestMode) return null
+      return RRuntimeSnapshot.getPath(rInterop.project)
     }
   }
 }
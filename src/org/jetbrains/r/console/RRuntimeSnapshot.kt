@@ -0,0 +1,119 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.console
+
+import com.google.gson.Gson
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.project.Project
+import com.intellij.r.psi.psi.TableColumnInfo
+import com.intellij.r.psi.psi.TableInfo
+import com.intellij.r.psi.psi.TableType
+import com.intellij.r.psi.rinterop.*
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardCopyOption
+
+/**
+ * Compact copy of the console state which is needed for completion: loaded namespaces in load order,
+ * names and classes of global bindings and columns of tables.
+ *
+ * It is written to the system directory while the session runs and read when the next session of the project starts,
+ * so completion does not have to wait until R answers the first requests.
+ * Values are provisional: [RConsoleRuntimeInfoImpl] drops them as soon as live data arrives.
+ */
+internal class RRuntimeSnapshot(
+  val loadedNamespaces: List<String>,
+  val globals: List<Binding>,
+  val tables: List<Table>,
+) {
+  private val version = VERSION
+
+  class Binding(val name: String, val kind: Kind, val cls: List<String>)
+
+  class Table(val expression: String, val type: TableType, val columns: List<Column>)
+
+  class Column(val name: String, val type: String?)
+
+  enum class Kind { FUNCTION, DATA_FRAME, LIST, ENVIRONMENT, MATRIX, OTHER }
+
+  val loadedPackages: Map<String, Int>
+    get() = loadedNamespaces.withIndex().associate { it.value to it.index }
+
+  val variables: Map<String, RValue>
+    get() = globals.associate { it.name to toValue(it) }
+
+  fun tableInfo(expression: String): TableInfo? {
+    val table = tables.find { it.expression == expression } ?: return null
+    return TableInfo(table.columns.map { TableColumnInfo(it.name, it.type) }, table.type)
+  }
+
+  private fun isValid(): Boolean {
+    @Suppress("SENSELESS_COMPARISON")
+    return version == VERSION && loadedNamespaces != null && globals != null && tables != null
+  }
+
+  companion object {
+    private val LOG = Logger.getInstance(RRuntimeSnapshot::class.java)
+    private const val VERSION = 1
+    const val MAX_GLOBALS = 1000
+    const val MAX_TABLES = 100
+
+    fun create(loadedPackages: Map<String, Int>, variables: List<RVar>, tables: Map<String, TableInfo>): RRuntimeSnapshot {
+      return RRuntimeSnapshot(
+        loadedPackages.entries.sortedBy { it.value }.map { it.key },
+        variables.take(MAX_GLOBALS).map { Binding(it.name, kindOf(it.value), it.value.cls) },
+        tables.entries.take(MAX_TABLES).map { (expression, info) ->
+          Table(expression, info.type, info.columns.map { Column(it.name, it.type) })
+        }
+      )
+    }
+
+    fun getPath(project: Project): Path =
+      Paths.get(PathManager.getSystemPath(), "rplugin", "cache", "runtime-snapshot", "${project.locationHash}.json")
+
+    fun read(path: Path): RRuntimeSnapshot? {
+      if (!Files.isRegularFile(path)) return null
+      return try {
+        Gson().fromJson(Files.readString(path), RRuntimeSnapshot::class.java)?.takeIf { it.isValid() }
+      }
+      catch (e: Exception) {
+        LOG.warn("Cannot read R runtime snapshot $path", e)
+        null
+      }
+    }
+
+    fun write(path: Path, snapshot: RRuntimeSnapshot) {
+      try {
+        Files.createDirectories(path.parent)
+        val tmp = Files.createTempFile(path.parent, path.fileName.toString(), ".tmp")
+        Files.writeString(tmp, Gson().toJson(snapshot))
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+      }
+      catch (e: Exception) {
+        LOG.warn("Cannot write R runtime snapshot $path", e)
+      }
+    }
+
+    private fun kindOf(value: RValue): Kind = when (value) {
+      is RValueFunction -> Kind.FUNCTION
+      is RValueDataFrame -> Kind.DATA_FRAME
+      is RValueList -> Kind.LIST
+      is RValueEnvironment -> Kind.ENVIRONMENT
+      is RValueMatrix -> Kind.MATRIX
+      else -> Kind.OTHER
+    }
+
+    private fun toValue(binding: Binding): RValue = when (binding.kind) {
+      Kind.FUNCTION -> RValueFunction(binding.cls, "")
+      Kind.DATA_FRAME -> RValueDataFrame(binding.cls, 0, 0)
+      Kind.LIST -> RValueList(binding.cls, 0)
+      Kind.ENVIRONMENT -> RValueEnvironment(binding.cls, "")
+      Kind.MATRIX -> RValueMatrix(binding.cls, emptyList())
+      Kind.OTHER -> RValueSimple(binding.cls, "", isComplete = false)
+    }
+  }
+}
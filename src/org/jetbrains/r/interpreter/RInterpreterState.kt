@@ -25,6 +25,7 @@ import com.intellij.r.psi.interpreter.RInterpreterState
 import com.intellij.r.psi.interpreter.RInterpreterUtil
 import com.intellij.r.psi.interpreter.RLibraryWatcher
 import com.intellij.r.psi.packages.RInstalledPackage
+import com.intellij.r.psi.rinterop.RInteropPriority
 import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.containers.ContainerUtil
 import org.jetbrains.annotations.TestOnly
@@ -147,7 +148,7 @@ class RInterpreterStateImpl(override val project: Project, override val rInterop
 
     AppExecutorUtil.getAppExecutorService().execute {
       try {
-        doUpdateState()
+        rInterop.withPriority(RInteropPriority.BACKGROUND) { doUpdateState() }
       }
       catch (e: Throwable) {
         promise.setError(e)
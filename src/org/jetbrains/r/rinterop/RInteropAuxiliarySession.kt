@@ -0,0 +1,189 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.r.psi.util.awaitCancellable
+import com.intellij.r.psi.util.thenAsyncCancellable
+import com.intellij.r.psi.util.tryRegisterDisposable
+import com.intellij.util.concurrency.AppExecutorUtil
+import kotlinx.coroutines.withTimeoutOrNull
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.concurrency.CancellablePromise
+import org.jetbrains.concurrency.resolvedCancellablePromise
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Second R session which answers side-effect-free introspection requests while the console session runs user code.
+ *
+ * It is enabled by `r.interop.auxiliary.session` and started on the first request routed to it.
+ * The session uses the library paths of the console and attaches the packages which were on its search path
+ * when the console was last idle, but it does not load the workspace.
+ * So only requests keyed by a package or a class name can be routed here. A name of an object may mean an object of the user
+ * in the console, which is unknown here, so such requests wait for the console.
+ *
+ * Memory is bounded: R heap is limited to `r.interop.auxiliary.session.max.mb` where R supports it,
+ * the session is restarted when it uses more, and it is stopped after [IDLE_TIMEOUT_MS] without requests.
+ */
+internal class RInteropAuxiliarySession(private val owner: RInteropImpl) : Disposable {
+  /** Attached packages of the console in the order of `search()` */
+  @Volatile
+  private var consolePackages: List<String> = emptyList()
+  private var sessionPromise: AsyncPromise<RInteropImpl?>? = null
+  private val attachedPackages = HashSet<String>()
+  private var monitor: ScheduledFuture<*>? = null
+  private var startTimeMs = 0L
+  @Volatile
+  private var lastUsedMs = 0L
+  @Volatile
+  private var isDisposed = false
+
+  private val isEnabled: Boolean
+    get() = !owner.isAuxiliary && Registry.`is`("r.interop.auxiliary.session", false)
+
+  init {
+    owner.addAsyncEventsListener(object : RInteropAsyncEventsListener {
+      override fun onPrompt(isDebug: Boolean) {
+        if (isEnabled) owner.globalEnvLoader.parentEnvironments.getAsync().onSuccess { environments ->
+          consolePackages = environments.map { it.name }.filter { it.startsWith(PACKAGE_ENV_PREFIX) }
+            .map { it.removePrefix(PACKAGE_ENV_PREFIX) }
+        }
+      }
+
+      override fun onTermination() {
+        Disposer.dispose(this@RInteropAuxiliarySession)
+      }
+    })
+  }
+
+  /** Whether a request keyed by a package or a class name should be routed here instead of waiting for the console session */
+  fun canServe(): Boolean = owner.isBusy && isEnabled && !isDisposed
+
+  /**
+   * Session ready to serve a request, with the packages of the console attached.
+   * Resolves to null if the session cannot be started, the request should go to the console session then.
+   */
+  fun acquireAsync(): CancellablePromise<RInteropImpl?> {
+    lastUsedMs = System.currentTimeMillis()
+    val promise = synchronized(this) {
+      val current = sessionPromise
+      // A session which failed to start or died is not restarted immediately
+      val isUsable = current != null &&
+                     (!current.isDone || current.get()?.isAlive == true || lastUsedMs - startTimeMs < RESTART_DELAY_MS)
+      if (isUsable) current!! else start().also { sessionPromise = it }
+    }
+    return promise.thenAsyncCancellable { rInterop ->
+      if (rInterop == null || !rInterop.isAlive) resolvedCancellablePromise(null) else attachPackages(rInterop)
+    }
+  }
+
+  suspend fun acquire(): RInteropImpl? {
+    return withTimeoutOrNull(Registry.intValue("r.interop.await.timeout.ms", RInteropImpl.AWAIT_TIMEOUT_MS).toLong()) {
+      acquireAsync().awaitCancellable()
+    }
+  }
+
+  private fun start(): AsyncPromise<RInteropImpl?> {
+    startTimeMs = System.currentTimeMillis()
+    val result = AsyncPromise<RInteropImpl?>()
+    val workingDir = owner.interpreter.createTempDirOnHost("rplugin-auxiliary")
+    RInteropUtil.runRWrapperAndInterop(owner.interpreter, workingDir, loadWorkspace = false).onSuccess { rInterop ->
+      rInterop.isAuxiliary = true
+      tryRegisterDisposable(rInterop)
+      try {
+        val maxMb = Registry.intValue("r.interop.auxiliary.session.max.mb", MAX_MEMORY_MB)
+        val libPaths = owner.state.libraryPaths.joinToString(", ") { quote(it.path) }
+        rInterop.executeCode("""
+          .libPaths(c($libPaths))
+          if (exists("mem.maxVSize", baseenv())) invisible(mem.maxVSize($maxMb))
+        """.trimIndent())
+        synchronized(attachedPackages) { attachedPackages.clear() }
+        scheduleMonitor()
+        LOG.info("Auxiliary R session started")
+        result.setResult(rInterop)
+      }
+      catch (e: Exception) {
+        LOG.warn("Cannot set up auxiliary R session", e)
+        Disposer.dispose(rInterop)
+        result.setResult(null)
+      }
+    }.onError {
+      LOG.warn("Cannot start auxiliary R session", it)
+      result.setResult(null)
+    }
+    return result
+  }
+
+  private fun attachPackages(rInterop: RInteropImpl): CancellablePromise<RInteropImpl?> {
+    val missing = synchronized(attachedPackages) {
+      consolePackages.filter { attachedPackages.add(it) }
+    }
+    if (missing.isEmpty()) return resolvedCancellablePromise(rInterop)
+    // Each package is attached in front of the others, so the last one of the search path goes first
+    val code = "for (p in c(${missing.reversed().joinToString(", ") { quote(it) }})) " +
+               "try(suppressPackageStartupMessages(library(p, character.only = TRUE)), silent = TRUE)"
+    // Packages which cannot be attached do not prevent serving the request
+    val result = AsyncPromise<RInteropImpl?>()
+    rInterop.executeCodeAsync(code, withEcho = false).onProcessed { result.setResult(rInterop.takeIf { it.isAlive }) }
+    return result
+  }
+
+  private fun scheduleMonitor() {
+    synchronized(this) {
+      if (monitor != null) return
+      monitor = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+        { checkSession() }, MONITOR_PERIOD_SEC, MONITOR_PERIOD_SEC, TimeUnit.SECONDS)
+    }
+  }
+
+  private fun checkSession() {
+    val rInterop = synchronized(this) { sessionPromise?.takeIf { it.isDone }?.get() } ?: return
+    if (System.currentTimeMillis() - lastUsedMs > IDLE_TIMEOUT_MS) {
+      LOG.info("Auxiliary R session is stopped after being idle")
+      stop(rInterop)
+      return
+    }
+    val maxMb = Registry.intValue("r.interop.auxiliary.session.max.mb", MAX_MEMORY_MB)
+    rInterop.executeCodeAsync("cat(sum(gc()[, 2]))", withEcho = false).onSuccess {
+      val usedMb = it.stdout.trim().toDoubleOrNull() ?: return@onSuccess
+      if (usedMb > maxMb) {
+        LOG.info("Auxiliary R session is stopped, it uses $usedMb Mb. A new one is started on the next request")
+        stop(rInterop)
+      }
+    }
+  }
+
+  private fun stop(rInterop: RInteropImpl) {
+    synchronized(this) {
+      if (sessionPromise?.takeIf { it.isDone }?.get() === rInterop) sessionPromise = null
+      monitor?.cancel(false)
+      monitor = null
+    }
+    Disposer.dispose(rInterop)
+  }
+
+  override fun dispose() {
+    isDisposed = true
+    synchronized(this) {
+      monitor?.cancel(false)
+      monitor = null
+    }
+  }
+
+  companion object {
+    private val LOG = Logger.getInstance(RInteropAuxiliarySession::class.java)
+    private const val MAX_MEMORY_MB = 1024
+    private const val MONITOR_PERIOD_SEC = 30L
+    private const val IDLE_TIMEOUT_MS = 10 * 60 * 1000L
+    private const val RESTART_DELAY_MS = 60 * 1000L
+    private const val PACKAGE_ENV_PREFIX = "package:"
+
+    private fun quote(s: String) = "'" + s.replace("\\", "\\\\").replace("'", "\\'") + "'"
+  }
+}
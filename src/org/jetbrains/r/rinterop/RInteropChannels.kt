@@ -0,0 +1,117 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.intellij.libraries.grpc.netty.shaded.NettyChannelProviderRegistrationService
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.SystemInfo
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.r.psi.interpreter.RInterpreter
+import com.intellij.r.psi.interpreter.isLocal
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.util.concurrency.AppExecutorUtil
+import io.grpc.ManagedChannel
+import io.grpc.StatusRuntimeException
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollDomainSocketChannel
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel
+import io.grpc.netty.shaded.io.netty.channel.unix.DomainSocketAddress
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.attribute.PosixFilePermissions
+import java.util.concurrent.TimeUnit
+
+/**
+ * Creates the channel to RWrapper.
+ *
+ * A local RWrapper on Linux may additionally listen on a Unix domain socket passed with `--unix-socket`
+ * and announced with an `UNIX <path>` line after `PORT <port>`. The socket has lower round trip latency than loopback TCP.
+ * The socket lives in a directory of its own which only the current user can access, it is deleted with the session.
+ * The socket is used only if it answers a probe request, otherwise the channel falls back to TCP.
+ * The probe blocks, so [connect] is called on the startup thread rather than in the [RInteropImpl] constructor.
+ * Channels of all sessions share the event loop group of [RInteropConnectionManager], callbacks run on the application pool.
+ */
+internal object RInteropChannels {
+  private val LOG = Logger.getInstance(RInteropChannels::class.java)
+  private const val PROBE_TIMEOUT_MS = 2000L
+  private const val SOCKET_DIRECTORY_PREFIX = "rwrapper"
+
+  fun isUnixSocketEnabled(interpreter: RInterpreter): Boolean {
+    return interpreter.isLocal() && RInteropConnectionManager.isEpoll
+  }
+
+  /** Unix sockets need native epoll, the event loop group of [RInteropConnectionManager] uses it then for all channels */
+  fun isEpollRequired(): Boolean {
+    return Registry.`is`("r.interop.unix.socket", false) && SystemInfo.isLinux && isEpollAvailable()
+  }
+
+  /** Path for RWrapper to listen on in a new private directory, short enough for the limit of `sockaddr_un` */
+  fun createUnixSocketPath(): String {
+    val ownerOnly = PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------"))
+    val directory = Files.createTempDirectory(SOCKET_DIRECTORY_PREFIX, ownerOnly)
+    return directory.resolve("rwrapper.sock").toString()
+  }
+
+  /** Deletes the directory created by [createUnixSocketPath] */
+  fun deleteUnixSocket(unixSocketPath: String) {
+    val directory = File(unixSocketPath).parentFile ?: return
+    if (directory.name.startsWith(SOCKET_DIRECTORY_PREFIX)) FileUtil.delete(directory)
+  }
+
+  /**
+   * Tests create it directly with an in-process channel.
+   * @param unixSocketPath the socket RWrapper listens on, if any, even if the channel fell back to TCP
+   */
+  class Connection(val channel: ManagedChannel, val isUnixSocket: Boolean, val unixSocketPath: String? = null)
+
+  fun connect(address: String, port: Int, unixSocketPath: String?, maxMessageSize: Int): Connection {
+    NettyChannelProviderRegistrationService.ensureChannelProviderRegistered()
+    if (unixSocketPath != null && RInteropConnectionManager.isEpoll) {
+      val channel = NettyChannelBuilder.forAddress(DomainSocketAddress(unixSocketPath))
+        .eventLoopGroup(RInteropConnectionManager.eventLoopGroup)
+        .channelType(EpollDomainSocketChannel::class.java)
+        .executor(AppExecutorUtil.getAppExecutorService())
+        .usePlaintext()
+        .maxInboundMessageSize(maxMessageSize).build()
+      if (probe(channel)) {
+        LOG.info("Connected to RWrapper via $unixSocketPath")
+        return Connection(channel, true, unixSocketPath)
+      }
+      LOG.warn("RWrapper does not respond on $unixSocketPath, falling back to TCP")
+      channel.shutdownNow()
+    }
+    val channel = NettyChannelBuilder.forAddress(address, port)
+      .eventLoopGroup(RInteropConnectionManager.eventLoopGroup)
+      .channelType(if (RInteropConnectionManager.isEpoll) EpollSocketChannel::class.java else NioSocketChannel::class.java)
+      .executor(AppExecutorUtil.getAppExecutorService())
+      .usePlaintext()
+      .maxInboundMessageSize(maxMessageSize).build()
+    return Connection(channel, false, unixSocketPath)
+  }
+
+  private fun probe(channel: ManagedChannel): Boolean {
+    return try {
+      RPIServiceGrpc.newBlockingStub(channel).withDeadlineAfter(PROBE_TIMEOUT_MS, TimeUnit.MILLISECONDS).isBusy(Empty.getDefaultInstance())
+      true
+    }
+    catch (e: StatusRuntimeException) {
+      LOG.debug(e)
+      false
+    }
+  }
+
+  private fun isEpollAvailable(): Boolean {
+    return try {
+      Epoll.isAvailable()
+    }
+    catch (e: LinkageError) {
+      false
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.concurrency.ConcurrentCollectionFactory
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.util.concurrency.AppExecutorUtil
+import com.intellij.util.concurrency.SequentialTaskExecutor
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * Resources shared by all R sessions of the application.
+ *
+ * Channels use one Netty event loop group, while gRPC callbacks run on the application pool as before,
+ * since a callback may block, and a bounded executor would let one stuck session starve the others.
+ * Session schedulers run on the application pool instead of a thread per session,
+ * and one timer sends heartbeats to all registered sessions.
+ * Sessions stay isolated: each has its own channel, request queue and async event stream,
+ * so a failing session does not affect the others.
+ */
+internal object RInteropConnectionManager {
+  private val LOG = Logger.getInstance(RInteropConnectionManager::class.java)
+  private const val EVENT_LOOP_THREADS = 2
+  private const val HEARTBEAT_PERIOD_SEC = 20L
+
+  interface Session {
+    fun heartbeat()
+    fun resourceUsage(): ResourceUsage
+  }
+
+  data class ResourceUsage(
+    val name: String,
+    val isUnixSocket: Boolean,
+    val calls: Long,
+    val bytesOut: Long,
+    val bytesIn: Long,
+    val queueDepth: Int,
+    val livePersistentRefs: Int,
+  )
+
+  private val sessions = ConcurrentCollectionFactory.createConcurrentSet<Session>()
+  private var heartbeatTimer: ScheduledFuture<*>? = null
+
+  /**
+   * Event loops of all channels, `r.interop.event.loop.threads` in total.
+   * Native epoll if Unix sockets may be used (see [RInteropChannels.isEpollRequired]), TCP channels then run on epoll too.
+   */
+  val eventLoopGroup: EventLoopGroup by lazy {
+    val threads = Registry.intValue("r.interop.event.loop.threads", EVENT_LOOP_THREADS)
+    val threadFactory = DefaultThreadFactory("RInterop-netty", true)
+    if (RInteropChannels.isEpollRequired()) EpollEventLoopGroup(threads, threadFactory) else NioEventLoopGroup(threads, threadFactory)
+  }
+
+  val isEpoll: Boolean
+    get() = eventLoopGroup is EpollEventLoopGroup
+
+  val sessionCount: Int
+    get() = sessions.size
+
+  /** Sequential executor of one session, it does not hold a thread while the session is idle */
+  fun createSessionExecutor(name: String): ExecutorService = SequentialTaskExecutor.createSequentialApplicationPoolExecutor(name)
+
+  fun register(session: Session) {
+    sessions.add(session)
+    synchronized(this) {
+      if (heartbeatTimer == null) {
+        heartbeatTimer = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
+          { heartbeatAll() }, HEARTBEAT_PERIOD_SEC, HEARTBEAT_PERIOD_SEC, TimeUnit.SECONDS)
+      }
+    }
+    session.heartbeat()
+  }
+
+  fun unregister(session: Session) {
+    sessions.remove(session)
+    synchronized(this) {
+      if (sessions.isEmpty()) {
+        heartbeatTimer?.cancel(false)
+        heartbeatTimer = null
+      }
+    }
+  }
+
+  fun resourceUsage(): List<ResourceUsage> = sessions.map { it.resourceUsage() }
+
+  private fun heartbeatAll() {
+    for (session in sessions) {
+      try {
+        session.heartbeat()
+      }
+      catch (e: Exception) {
+        LOG.warn(e)
+      }
+    }
+  }
+}
@@ -16,13 +16,30 @@ import io.grpc.MethodDescriptor
 import java.lang.reflect.Type
 import java.util.ArrayDeque
 import java.util.Base64
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
 
-class RInteropGrpcLogger(private val maxMessages: Int? = null) {
-  val messages = ArrayDeque<Message>()
-  private val commandMessages = ConcurrentCollectionFactory.createConcurrentIntObjectMap<CommandMessage>()
-  private val stubMessages = ConcurrentCollectionFactory.createConcurrentIntObjectMap<Pair<ByteArray, String>>()
+/**
+ * Keeps the latest messages for diagnostics.
+ *
+ * Messages are kept by reference and serialized only in [toJson]. Retained payloads plus a fixed overhead per message
+ * are limited by [maxBytes] in total, and at most [maxRecords] messages are kept even if [maxBytes] is not set.
+ * Only every [sampleEvery]-th message keeps its payload, per-method sizes are counted for all of them.
+ * If [isEnabled] is false, nothing is recorded and no memory is allocated.
+ */
+class RInteropGrpcLogger(
+  private val maxBytes: Long? = null,
+  val isEnabled: Boolean = true,
+  private val sampleEvery: Int = 1,
+  private val maxRecords: Int = MAX_RECORDS,
+) {
+  private val records = ArrayDeque<Record>()
+  private var recordsBytes = 0L
+  private val commandRecords = ConcurrentCollectionFactory.createConcurrentIntObjectMap<CommandRecord>()
+  private val stubRecords = ConcurrentCollectionFactory.createConcurrentIntObjectMap<StubRecord>()
   private val stubMessageEnumerator: AtomicInteger = AtomicInteger(0)
+  private val methodStats = ConcurrentHashMap<String, MethodSizeCounter>()
 
   fun nextStubNumber(): Int {
     return stubMessageEnumerator.getAndIncrement()
@@ -30,41 +47,163 @@ class RInteropGrpcLogger(private val maxMessages: Int? = null) {
 
   fun <TRequest : GeneratedMessageV3, TResponse : GeneratedMessageV3>
     onExecuteRequestAsync(number: Int, methodDescriptor: MethodDescriptor<TRequest, TResponse>, request: TRequest) {
-    commandMessages.put(number, CommandMessage(methodDescriptor.fullMethodName.let { it.substring(it.indexOf('/') + 1) }, request.toByteArray()))
+    if (!isEnabled) return
+    val methodName = methodDescriptor.fullMethodName.let { it.substring(it.indexOf('/') + 1) }
+    countRequest(methodName, request)
+    commandRecords.put(number, CommandRecord(methodName, request.takeIf { isSampled(number) }))
   }
 
   fun onExecuteRequestFinish(number: Int) {
-    addMessage(commandMessages.remove(number))
+    if (!isEnabled) return
+    commandRecords.remove(number)?.let { addRecord(it) }
   }
 
-  fun onOutputAvailable(number: Int, value: CommandOutput) {
-
-    commandMessages.get(number)?.apply {
-      when (value.type) {
-        CommandOutput.Type.STDOUT -> stdout.append(value.text.toStringUtf8())
-        CommandOutput.Type.STDERR -> stderr.append(value.text.toStringUtf8())
-        else -> throw IllegalStateException("Cannot be reach")
-      }
-    }
+  /** [text] is [value] decoded by the caller, it is kept as is so the output is not decoded twice */
+  fun onOutputAvailable(number: Int, value: CommandOutput, text: String) {
+    if (!isEnabled) return
+    val record = commandRecords.get(number) ?: return
+    countResponse(record.methodName, value.serializedSize.toLong())
+    record.addOutput(value.type, text, value.text.size().toLong(), maxBytes)
   }
 
   fun onStubMessageRequest(number: Int, message: GeneratedMessageV3, methodName: String) {
-    stubMessages.put(number, Pair(message.toByteArray(), methodName))
+    if (!isEnabled) return
+    countRequest(methodName, message)
+    stubRecords.put(number, StubRecord(methodName, message.takeIf { isSampled(number) }))
   }
 
   fun onStubMessageResponse(number: Int, message: GeneratedMessageV3?) {
-    val (bytes, methodName) = stubMessages.remove(number)
-    addMessage(StubMessage(methodName, bytes, message?.toByteArray()))
+    if (!isEnabled) return
+    val record = stubRecords.remove(number) ?: return
+    countResponse(record.methodName, message?.serializedSize?.toLong() ?: 0)
+    if (record.request != null) record.response = message
+    record.isCompleted = true
+    addRecord(record)
+  }
+
+  /** For responses which were decoded by a custom marshaller rather than parsed into a message, [bytes] is their wire format */
+  fun onStubMessageResponse(number: Int, bytes: ByteArray) {
+    if (!isEnabled) return
+    val record = stubRecords.remove(number) ?: return
+    countResponse(record.methodName, bytes.size.toLong())
+    if (record.request != null) record.rawResponse = bytes
+    record.isCompleted = true
+    addRecord(record)
+  }
+
+  /** Message count and total payload sizes per method, including messages whose payloads were not retained */
+  fun getMethodSizeStats(): Map<String, MethodSizeStats> = methodStats.mapValues { (_, it) -> it.snapshot() }
+
+  val messages: List<Message>
+    @Synchronized get() = records.map { it.toMessage() }
+
+  private fun isSampled(number: Int) = sampleEvery <= 1 || number % sampleEvery == 0
+
+  private fun countRequest(methodName: String, request: GeneratedMessageV3) {
+    methodStats.computeIfAbsent(methodName) { MethodSizeCounter() }.apply {
+      count.incrementAndGet()
+      requestBytes.addAndGet(request.serializedSize.toLong())
+    }
+  }
+
+  private fun countResponse(methodName: String, size: Long) {
+    methodStats[methodName]?.apply {
+      responseBytes.addAndGet(size)
+      maxResponseBytes.accumulateAndGet(size) { a, b -> maxOf(a, b) }
+    }
   }
 
   @Synchronized
-  private fun addMessage(it: Message) {
-    messages.addLast(it)
-    if (maxMessages != null && messages.size > maxMessages) {
-      messages.removeFirst()
+  private fun addRecord(record: Record) {
+    if (maxBytes != null && record.payloadBytes + RECORD_OVERHEAD_BYTES > maxBytes) record.dropPayload()
+    record.retainedBytes = record.payloadBytes + RECORD_OVERHEAD_BYTES
+    records.addLast(record)
+    recordsBytes += record.retainedBytes
+    while (records.size > 1 && (records.size > maxRecords || maxBytes != null && recordsBytes > maxBytes)) {
+      recordsBytes -= records.removeFirst().retainedBytes
     }
   }
 
+  private abstract class Record(val methodName: String, @Volatile var request: GeneratedMessageV3?) {
+    /** Accounted in [recordsBytes] when the record was added */
+    var retainedBytes = 0L
+    abstract val payloadBytes: Long
+    abstract fun dropPayload()
+    abstract fun toMessage(): Message
+
+    protected fun requestBytes() = request?.toByteArray() ?: ByteArray(0)
+  }
+
+  private class StubRecord(methodName: String, request: GeneratedMessageV3?) : Record(methodName, request) {
+    @Volatile
+    var response: GeneratedMessageV3? = null
+    @Volatile
+    var rawResponse: ByteArray? = null
+    @Volatile
+    var isCompleted = false
+
+    override val payloadBytes: Long
+      get() = (request?.serializedSize ?: 0).toLong() + (response?.serializedSize ?: 0) + (rawResponse?.size ?: 0)
+
+    override fun dropPayload() {
+      request = null
+      response = null
+      rawResponse = null
+    }
+
+    override fun toMessage(): Message {
+      val responseBytes = response?.toByteArray() ?: rawResponse ?: if (isCompleted) ByteArray(0) else null
+      return StubMessage(methodName, requestBytes(), responseBytes)
+    }
+  }
+
+  private class CommandRecord(methodName: String, request: GeneratedMessageV3?) : Record(methodName, request) {
+    private val output = ArrayList<Pair<CommandOutput.Type, String>>()
+    private var outputBytes = 0L
+
+    @Synchronized
+    fun addOutput(type: CommandOutput.Type, text: String, size: Long, maxBytes: Long?) {
+      if (request == null) return
+      if (maxBytes != null && outputBytes + size > maxBytes) return
+      output.add(type to text)
+      outputBytes += size
+    }
+
+    override val payloadBytes: Long
+      @Synchronized get() = (request?.serializedSize ?: 0).toLong() + outputBytes
+
+    @Synchronized
+    override fun dropPayload() {
+      request = null
+      output.clear()
+      outputBytes = 0
+    }
+
+    @Synchronized
+    override fun toMessage(): Message {
+      return CommandMessage(methodName, requestBytes()).also { message ->
+        for ((type, text) in output) {
+          when (type) {
+            CommandOutput.Type.STDOUT -> message.stdout.append(text)
+            CommandOutput.Type.STDERR -> message.stderr.append(text)
+            else -> throw IllegalStateException("Cannot be reach")
+          }
+        }
+      }
+    }
+  }
+
+  private class MethodSizeCounter {
+    val count = AtomicLong()
+    val requestBytes = AtomicLong()
+    val responseBytes = AtomicLong()
+    val maxResponseBytes = AtomicLong()
+
+    fun snapshot() = MethodSizeStats(count.get(), requestBytes.get(), responseBytes.get(), maxResponseBytes.get())
+  }
+
+  data class MethodSizeStats(val count: Long, val requestBytes: Long, val responseBytes: Long, val maxResponseBytes: Long)
+
   interface Message {
     val methodName: String
     val request: ByteArray
@@ -89,11 +228,17 @@ class RInteropGrpcLogger(private val maxMessages: Int? = null) {
     return if (withPending) {
       gsonBuilder.toJson(mapOf<String, Any>(
         "messages" to messages,
-        "pending" to stubMessages.values().map { StubMessage(it.second, it.first, null) }
-          .plus(commandMessages.values()).toList()
+        "pending" to stubRecords.values().map { it.toMessage() }
+          .plus(commandRecords.values().map { it.toMessage() }).toList()
       ))
     } else {
       gsonBuilder.toJson(messages)
     }
   }
-}
\ No newline at end of file
+
+  companion object {
+    /** Accounted for every kept message, so messages without payloads are limited too */
+    const val RECORD_OVERHEAD_BYTES = 256L
+    const val MAX_RECORDS = 10_000
+  }
+}
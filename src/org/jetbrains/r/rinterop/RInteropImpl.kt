@@ -4,9 +4,11 @@
 
 package org.jetbrains.r.rinterop
 
+import com.google.common.annotations.VisibleForTesting
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
 import com.google.protobuf.BoolValue
+import com.google.protobuf.CodedInputStream
 import com.google.protobuf.Empty
 import com.google.protobuf.GeneratedMessageV3
 import com.google.protobuf.Int32Value
@@ -16,7 +18,6 @@ import com.intellij.codeInsight.CodeInsightBundle
 import com.intellij.concurrency.ConcurrentCollectionFactory
 import com.intellij.execution.process.ProcessHandler
 import com.intellij.execution.process.ProcessOutputType
-import com.intellij.libraries.grpc.netty.shaded.NettyChannelProviderRegistrationService
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationInfo
 import com.intellij.openapi.application.ApplicationManager
@@ -31,6 +32,8 @@ import com.intellij.openapi.progress.ProcessCanceledException
 import com.intellij.openapi.progress.ProgressIndicator
 import com.intellij.openapi.progress.ProgressManager
 import com.intellij.openapi.progress.Task
+import com.intellij.openapi.progress.runBlockingMaybeCancellable
+import com.intellij.openapi.progress.util.ProgressIndicatorUtils
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.AtomicClearableLazyValue
 import com.intellij.openapi.util.Disposer
@@ -38,10 +41,12 @@ import com.intellij.openapi.util.Key
 import com.intellij.openapi.util.TextRange
 import com.intellij.openapi.util.UserDataHolderBase
 import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiManager
 import com.intellij.r.psi.RBundle
 import com.intellij.r.psi.RPluginCoroutineScope
+import com.intellij.r.psi.classes.S4ClassInfo
 import com.intellij.r.psi.classes.r6.R6ClassActiveBinding
 import com.intellij.r.psi.classes.r6.R6ClassField
 import com.intellij.r.psi.classes.r6.R6ClassInfo
@@ -93,10 +98,13 @@ import com.intellij.r.psi.rinterop.ProtoUtil
 import com.intellij.r.psi.rinterop.RIExecutionResult
 import com.intellij.r.psi.rinterop.RInstalledPackageList
 import com.intellij.r.psi.rinterop.RInterop
+import com.intellij.r.psi.rinterop.RInteropCacheScope
+import com.intellij.r.psi.rinterop.RInteropPriority
 import com.intellij.r.psi.rinterop.RInteropCoroutineScope
 import com.intellij.r.psi.rinterop.RInteropException
 import com.intellij.r.psi.rinterop.RInteropRequestFailed
 import com.intellij.r.psi.rinterop.RInteropTerminated
+import com.intellij.r.psi.rinterop.RInteropTimedOut
 import com.intellij.r.psi.rinterop.RObject
 import com.intellij.r.psi.rinterop.RPIServiceGrpc
 import com.intellij.r.psi.rinterop.RPersistentRef
@@ -119,27 +127,36 @@ import com.intellij.r.psi.rinterop.VariablesResponse
 import com.intellij.r.psi.rinterop.getWithCheckCanceled
 import com.intellij.r.psi.run.graphics.RGraphicsUtils
 import com.intellij.r.psi.settings.RSettings
+import com.intellij.r.psi.util.awaitCancellable
+import com.intellij.r.psi.util.thenAsyncCancellable
 import com.intellij.r.psi.util.thenCancellable
 import com.intellij.r.psi.util.tryRegisterDisposable
-import com.intellij.util.ConcurrencyUtil
 import com.intellij.util.concurrency.AppExecutorUtil
 import com.intellij.util.messages.Topic
 import io.grpc.CallOptions
+import io.grpc.ClientCall
 import io.grpc.Deadline
-import io.grpc.ManagedChannelBuilder
 import io.grpc.MethodDescriptor
 import io.grpc.Status
 import io.grpc.StatusRuntimeException
+import io.grpc.stub.ClientCallStreamObserver
 import io.grpc.stub.ClientCalls
+import io.grpc.stub.ClientResponseObserver
 import io.grpc.stub.StreamObserver
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.async
+import kotlinx.coroutines.future.asCompletableFuture
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.supervisorScope
+import kotlinx.coroutines.withTimeout
 import org.jetbrains.annotations.TestOnly
 import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.CancellablePromise
 import org.jetbrains.concurrency.Promise
 import org.jetbrains.concurrency.rejectedPromise
+import org.jetbrains.concurrency.resolvedCancellablePromise
 import org.jetbrains.concurrency.resolvedPromise
 import org.jetbrains.r.console.RConsoleRuntimeInfoImpl
 import org.jetbrains.r.debugger.RDebuggerUtil
@@ -153,15 +170,20 @@ import org.jetbrains.r.run.visualize.RDataFrameException
 import org.jetbrains.r.run.visualize.RDataFrameViewer
 import org.jetbrains.r.run.visualize.RDataFrameViewerImpl
 import java.awt.Dimension
+import java.io.ByteArrayInputStream
+import java.io.InputStream
+import java.util.EnumMap
+import java.util.EnumSet
 import java.util.TreeMap
 import java.util.concurrent.CancellationException
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ExecutionException
-import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 import java.util.concurrent.TimeoutException
 import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
 import javax.swing.RowSorter
 import javax.swing.SortOrder
 import kotlin.reflect.KFunction1
@@ -175,19 +197,19 @@ private const val DEADLINE_TEST_DEFAULT = 400L
 val LOADED_LIBRARIES_UPDATED = Topic.create("R Interop loaded libraries updated", LoadedLibrariesListener::class.java)
 const val RINTEROP_THREAD_NAME = "RInterop"
 
-class RInteropImpl(
+class RInteropImpl internal constructor(
   override val interpreter: RInterpreter, override val processHandler: ProcessHandler,
-  address: String, port: Int, override val project: Project,
+  private val connection: RInteropChannels.Connection, override val project: Project,
 ) : UserDataHolderBase(), Disposable, RInterop {
 
-  private val channel = run {
-    NettyChannelProviderRegistrationService.ensureChannelProviderRegistered()
+  constructor(
+    interpreter: RInterpreter, processHandler: ProcessHandler,
+    address: String, port: Int, project: Project,
+  ) : this(interpreter, processHandler, RInteropChannels.connect(address, port, null, MAX_MESSAGE_SIZE), project)
 
-    ManagedChannelBuilder.forAddress(address, port)
-      .executor(AppExecutorUtil.getAppExecutorService())
-      .usePlaintext()
-      .maxInboundMessageSize(MAX_MESSAGE_SIZE).build()
-  }
+  private val channel = connection.channel
+  val isUnixSocketTransport: Boolean
+    get() = connection.isUnixSocket
 
   private val isUnitTestMode = ApplicationManager.getApplication().isUnitTestMode
   private val deadlineTest
@@ -199,17 +221,88 @@ class RInteropImpl(
   internal val asyncStub = RPIServiceGrpc.newFutureStub(channel).let {
     if (isUnitTestMode) it.withDeadline(Deadline.after(deadlineTest, TimeUnit.SECONDS)) else it
   }
-  val executor = ConcurrencyUtil.newSingleThreadExecutor(RINTEROP_THREAD_NAME)
-  private val heartbeatTimer: ScheduledFuture<*>
+  private val scheduler = RInteropScheduler(RINTEROP_THREAD_NAME, backing = RInteropConnectionManager.createSessionExecutor(RINTEROP_THREAD_NAME))
+
+  /** True while a task of this session's scheduler runs on the current thread */
+  internal val isSchedulerThread: Boolean
+    get() = scheduler.isSchedulerThread
+
+  /**
+   * Runs tasks one at a time like [executeTask] with [RInteropPriority.INTERACTIVE].
+   * It used to be a single thread [java.util.concurrent.ExecutorService], now it is backed by the priority scheduler.
+   */
+  val executor: Executor
+    get() = scheduler
+
+  /**
+   * Must be called before a blocking wait for a response: a task of the scheduler would otherwise wait forever
+   * for a lower priority request which another thread has queued behind it.
+   */
+  private fun beforeBlockingWait() {
+    if (scheduler.isSchedulerThread) scheduler.sendQueuedRequests()
+  }
+  private val requestContext = ThreadLocal.withInitial { RequestContext(RInteropPriority.INTERACTIVE, null) }
+  private val connectionSession = object : RInteropConnectionManager.Session {
+    override fun heartbeat() {
+      executeAsync(asyncStub::isBusy, Empty.getDefaultInstance())
+    }
+
+    override fun resourceUsage(): RInteropConnectionManager.ResourceUsage {
+      val methods = metrics.snapshot()
+      return RInteropConnectionManager.ResourceUsage(
+        "R $rVersion, pid $processPid", isUnixSocketTransport, methods.sumOf { it.count }, methods.sumOf { it.bytesOut },
+        methods.sumOf { it.bytesIn }, scheduler.getStats().values.sumOf { it.queueDepth }, livePersistentRefCount)
+    }
+  }
   private val myRInteropAsyncEventsListeners = ConcurrentCollectionFactory.createConcurrentSet<RInteropAsyncEventsListener>()
   private var asyncProcessingStarted = false
   private val asyncEventsBeforeStarted = mutableListOf<AsyncEvent>()
-  private val cacheIndex = AtomicInteger(0)
+  private val cacheVersions = RInteropCacheScope.entries.associateWithTo(EnumMap(RInteropCacheScope::class.java)) { AtomicInteger(0) }
+  @Volatile
+  private var lastRuntimeFingerprint: RRuntimeFingerprint? = null
+  @Volatile
+  private var lastLoadedNamespaces: List<String>? = null
+  /** Namespaces received by the last runtime check and the [RInteropCacheScope.NAMESPACES] version they are valid for */
+  private val checkedNamespaces = AtomicReference<Pair<Int, List<String>>?>(null)
   private val dataFrameViewerCache = ConcurrentHashMap<Int, RDataFrameViewer>()
+  @Volatile
+  private var asyncEventsCall: ClientCall<Empty, AsyncEvent>? = null
+  @Volatile
+  private var asyncEventsStream: ClientCallStreamObserver<Empty>? = null
+  private val textPipeline = RInteropTextPipeline(
+    Registry.intValue("r.interop.console.text.batch.size", TEXT_BATCH_SIZE),
+    Registry.intValue("r.interop.console.text.buffer.limit", TEXT_BUFFER_LIMIT).toLong(),
+    Registry.`is`("r.interop.console.text.drop.on.overflow", false)) { asyncEventsStream?.request(1) }
+  // Console text is one stream per output type, a code point may be split between two text events
+  private val asyncStdoutDecoder = RInteropUtf8Decoder()
+  private val asyncStderrDecoder = RInteropUtf8Decoder()
+  private val objectSizesBatcher = RInteropRequestBatcher<RRef, Long>(BATCH_DELAY_MS, MAX_BATCH_SIZE) { refs ->
+    withPriority(RInteropPriority.UI_REFRESH) {
+      executeAsync(asyncStub::getObjectSizes, RRefList.newBuilder().addAllRefs(refs).build()).thenCancellable { it.listList }
+    }
+  }
   internal val sourceFileManager = RSourceFileManager(this)
   internal val isInSourceFileExecution = AtomicBoolean(false)
 
-  val rInteropGrpcLogger = RInteropGrpcLogger(if (ApplicationManager.getApplication().isInternal) null else GRPC_LOGGER_MAX_MESSAGES)
+  val metrics = RInteropMetrics()
+  private val refReclamationQueue = RInteropRefReclamationQueue(
+    Registry.intValue("r.interop.persistent.refs.flush.threshold", REF_FLUSH_THRESHOLD), REF_FLUSH_DELAY_MS) { list ->
+    withPriority(RInteropPriority.BACKGROUND) { executeAsync(asyncStub::disposePersistentRefs, list) }
+  }
+
+  /** Persistent references created in this session and not released yet */
+  val livePersistentRefCount: Int
+    get() = refReclamationQueue.liveRefCount
+
+  /** Released persistent references waiting to be disposed in R */
+  val pendingPersistentRefCount: Int
+    get() = refReclamationQueue.pendingCount
+  private val singleFlight = RInteropSingleFlight { metrics.recordShared(it) }
+
+  /** Part of read-only calls served by an identical request already in flight */
+  val sharedCallsRatio: Double
+    get() = singleFlight.hitRatio
+  val rInteropGrpcLogger = createGrpcLogger()
 
   val globalEnvRef = RReference(RRef.newBuilder().setGlobalEnv(Empty.getDefaultInstance()).build(), this)
   override val globalEnvLoader = globalEnvRef.createVariableLoader()
@@ -229,6 +322,7 @@ class RInteropImpl(
   private val terminationPromise = AsyncPromise<Unit>()
     .also {
       it.onSuccess {
+        textPipeline.close()
         state.cancelStateUpdating()
         RLibraryWatcher.getInstance(project).stopWatchingForState(state)
         fireListeners { listener -> listener.onTermination() }
@@ -240,34 +334,140 @@ class RInteropImpl(
   @Volatile
   internal var killedByUsed = false
 
+  /** Set for sessions started by [RInteropUtil.runRWrapperAndInterop] */
+  @Volatile
+  var startupTimeline: RInteropStartupTimeline? = null
+    internal set
+
+  /** Set for sessions started by [RInteropAuxiliarySession], they have no workspace and no console */
+  @Volatile
+  var isAuxiliary = false
+    internal set
+
+  /** True while R runs user code, requests wait until it finishes then */
+  @Volatile
+  var isBusy = false
+    private set
+
+  private val auxiliarySession = RInteropAuxiliarySession(this).also { Disposer.register(this, it) }
+
   val graphicsDeviceManager = RGraphicsDeviceManager()
 
   override val state: RInterpreterState = RInterpreterStateImpl(project, this)
   fun updateState() = state.updateState()
 
+  private data class RequestContext(val priority: RInteropPriority, val supersedeKey: Any?)
+
+  override fun <T> withPriority(priority: RInteropPriority, f: () -> T): T = withPriority(priority, null, f)
+
+  override val currentPriority: RInteropPriority
+    get() = requestContext.get().priority
+
+  /**
+   * Like [withPriority], additionally a request sent by [f] replaces a not yet sent request
+   * of the same method issued with the same [supersedeKey].
+   */
+  internal fun <T> withPriority(priority: RInteropPriority, supersedeKey: Any?, f: () -> T): T {
+    val previous = requestContext.get()
+    requestContext.set(RequestContext(priority, supersedeKey))
+    try {
+      return f()
+    }
+    finally {
+      requestContext.set(previous)
+    }
+  }
+
+  /**
+   * [RInteropPriority.INTERACTIVE] requests are sent immediately,
+   * requests of lower priority are sent by [scheduler] when there is no more urgent work.
+   */
   internal fun <Request : GeneratedMessageV3, Response : GeneratedMessageV3> executeAsync(
     f: KFunction1<Request, ListenableFuture<Response>>,
     request: Request,
+  ): CancellablePromise<Response> = executeAsync(f.name, request, { it.serializedSize }, f)
+
+  /** Sends a unary request by its descriptor, for calls which are not known statically */
+  internal fun <Request : GeneratedMessageV3, Response : GeneratedMessageV3> executeAsync(
+    method: MethodDescriptor<Request, Response>,
+    request: Request,
+  ): CancellablePromise<Response> = executeAsync(method, request) { it.serializedSize }
+
+  private fun <Request : GeneratedMessageV3, Response : Any> executeAsync(
+    method: MethodDescriptor<Request, Response>,
+    request: Request,
+    sizeOf: (Response) -> Int,
+  ): CancellablePromise<Response> = executeAsync(method.bareMethodName ?: method.fullMethodName, request, sizeOf) {
+    ClientCalls.futureUnaryCall(asyncStub.channel.newCall(method, asyncStub.callOptions), it)
+  }
+
+  private fun <Request : GeneratedMessageV3, Response : Any> executeAsync(
+    methodName: String,
+    request: Request,
+    sizeOf: (Response) -> Int,
+    send: (Request) -> ListenableFuture<Response>,
   ): CancellablePromise<Response> {
-    val nextStubNumber = rInteropGrpcLogger.nextStubNumber()
-    rInteropGrpcLogger.onStubMessageRequest(nextStubNumber, request, f.name)
     val promise = AsyncPromise<Response>()
-    val future = f.invoke(request)
+    val (priority, supersedeKey) = requestContext.get()
+    if (priority == RInteropPriority.INTERACTIVE || scheduler.isSchedulerThread) {
+      sendRequest(methodName, send, sizeOf, request, priority, promise)
+    }
+    else {
+      scheduler.submit(priority, supersedeKey?.let { it to methodName }, isRequest = true,
+                       isObsolete = { promise.isDone }, onDrop = { promise.cancel() }) {
+        sendRequest(methodName, send, sizeOf, request, priority, promise)
+      }
+    }
+    return promise
+  }
+
+  private fun <Request : GeneratedMessageV3, Response : Any> sendRequest(
+    methodName: String,
+    send: (Request) -> ListenableFuture<Response>,
+    sizeOf: (Response) -> Int,
+    request: Request,
+    priority: RInteropPriority,
+    promise: AsyncPromise<Response>,
+  ) {
+    val nextStubNumber = rInteropGrpcLogger.nextStubNumber()
+    rInteropGrpcLogger.onStubMessageRequest(nextStubNumber, request, methodName)
+    val metricsCall = metrics.startCall(methodName, request.serializedSize)
+    scheduler.requestStarted(priority)
+    val future = try {
+      send(request)
+    }
+    catch (e: Throwable) {
+      scheduler.requestFinished(priority)
+      metricsCall.failed()
+      promise.setError(processError(e, methodName))
+      return
+    }
     promise.onError { future.cancel(true) }
     future.addListener(Runnable {
+      scheduler.requestFinished(priority)
       val result = try {
         future.get()
       }
       catch (e: Throwable) {
-        promise.setError(processError(e, f.name))
+        if (promise.isCancelled) metricsCall.cancelled() else metricsCall.failed()
+        promise.setError(processError(e, methodName))
         return@Runnable
       }
+      metricsCall.addBytesIn(sizeOf(result))
+      metricsCall.completed()
+      // Logged before the result is set, so a caller which got the result finds the response in the log
+      when (result) {
+        is Decoded<*> -> rInteropGrpcLogger.onStubMessageResponse(nextStubNumber, result.bytes)
+        else -> rInteropGrpcLogger.onStubMessageResponse(nextStubNumber, result as? GeneratedMessageV3)
+      }
       promise.setResult(result)
-      rInteropGrpcLogger.onStubMessageResponse(nextStubNumber, result)
     }, MoreExecutors.directExecutor())
-    return promise
   }
 
+  /** Queue depth and wait time of [executeTask] tasks and deferred requests per priority class */
+  val schedulerStats: Map<RInteropPriority, RInteropScheduler.Stats>
+    get() = scheduler.getStats()
+
   internal fun <Request : GeneratedMessageV3, Response : GeneratedMessageV3> execute(
     f: KFunction1<Request, ListenableFuture<Response>>,
     request: Request,
@@ -287,19 +487,39 @@ class RInteropImpl(
     return executeAsync(f, request).getWithCheckCanceled()
   }
 
-  override val workingDir: String by Cached("") {
+  /**
+   * Like [executeAsync], but joins an identical request which is already in flight.
+   * Use only for methods which do not change the state of R.
+   * Only requests of the same priority sent since the last command are joined,
+   * so an interactive call does not wait behind a deferred request and no call gets a result from before a command.
+   * The joined request may be queued, so it is sent right away if a task of the scheduler may wait for it.
+   */
+  internal fun <Request : GeneratedMessageV3, Response : GeneratedMessageV3> executeSharedAsync(
+    f: KFunction1<Request, ListenableFuture<Response>>,
+    request: Request,
+  ): CancellablePromise<Response> {
+    val context = requestContext.get().priority to cacheVersions.getValue(RInteropCacheScope.ENVIRONMENTS).get()
+    return singleFlight.execute(f.name, request, context) { executeAsync(f, request) }.also { beforeBlockingWait() }
+  }
+
+  override val workingDir: String by Cached("", EnumSet.of(RInteropCacheScope.WORKING_DIR)) {
     executeWithCheckCancel(asyncStub::getWorkingDir, Empty.getDefaultInstance()).value
   }
 
-  val loadedPackages = AsyncCached<Map<String, Int>>(emptyMap()) {
-    executeAsync(asyncStub::loaderGetLoadedNamespaces, Empty.getDefaultInstance()).thenCancellable {
-      it.listList.mapIndexed { index, s -> s to index }.toMap().also {
+  val loadedPackages = AsyncCached<Map<String, Int>>(emptyMap(), EnumSet.of(RInteropCacheScope.NAMESPACES)) {
+    // The runtime check after a command has just received them, so they are not requested again
+    val version = cacheVersions.getValue(RInteropCacheScope.NAMESPACES).get()
+    val checked = checkedNamespaces.get()?.takeIf { it.first == version }?.second
+    val namespaces: CancellablePromise<List<String>> = checked?.let { resolvedCancellablePromise(it) }
+      ?: executeAsync(asyncStub::loaderGetLoadedNamespaces, Empty.getDefaultInstance()).thenCancellable { it.listList }
+    namespaces.thenCancellable {
+      it.mapIndexed { index, s -> s to index }.toMap().also {
         project.messageBus.syncPublisher(LOADED_LIBRARIES_UPDATED).onLibrariesUpdated()
       }
     }
   }
 
-  val rMarkdownChunkOptions: List<String> by Cached(emptyList()) {
+  val rMarkdownChunkOptions: List<String> by Cached(emptyList(), EnumSet.of(RInteropCacheScope.NAMESPACES)) {
     executeWithCheckCancel(asyncStub::getRMarkdownChunkOptions, Empty.getDefaultInstance()).listList
   }
 
@@ -320,8 +540,7 @@ class RInteropImpl(
 
   init {
     processAsyncEvents()
-    heartbeatTimer = AppExecutorUtil.getAppScheduledExecutorService().scheduleWithFixedDelay(
-      { executeAsync(asyncStub::isBusy, Empty.getDefaultInstance()) }, 0, HEARTBEAT_PERIOD, TimeUnit.SECONDS)
+    RInteropConnectionManager.register(connectionSession)
   }
 
   fun init(rScriptsPath: String, baseDir: String, workspaceFile: String? = null) {
@@ -352,9 +571,9 @@ class RInteropImpl(
     }
   }
 
-  override fun executeTask(f: () -> Unit): Promise<Unit> {
+  override fun executeTask(priority: RInteropPriority, f: () -> Unit): Promise<Unit> {
     val promise = AsyncPromise<Unit>()
-    executor.execute {
+    scheduler.submit(priority, isObsolete = { promise.isDone }) {
       try {
         f()
         promise.setResult(Unit)
@@ -372,7 +591,7 @@ class RInteropImpl(
   fun setWorkingDir(dir: String) {
     try {
       executeWithCheckCancel(asyncStub::setWorkingDir, StringValue.of(dir))
-      invalidateCaches()
+      invalidateCaches(EnumSet.of(RInteropCacheScope.WORKING_DIR))
     }
     catch (ignored: RInteropTerminated) {
     }
@@ -384,7 +603,7 @@ class RInteropImpl(
 
   override fun loadLibrary(name: String): CancellablePromise<Unit> {
     return executeAsync(asyncStub::loadLibrary, StringValue.of(name)).thenCancellable {
-      invalidateCaches()
+      invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES, RInteropCacheScope.ENVIRONMENTS))
     }
   }
 
@@ -394,7 +613,7 @@ class RInteropImpl(
       .setPackageName(name)
       .build()
     return executeAsync(asyncStub::unloadLibrary, request).thenCancellable {
-      invalidateCaches()
+      invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES, RInteropCacheScope.ENVIRONMENTS))
     }
   }
 
@@ -407,7 +626,7 @@ class RInteropImpl(
       .setVariable(variableName)
       .build()
     return executeAsync(asyncStub::loadEnvironment, request).thenCancellable {
-      invalidateCaches()
+      invalidateCaches(EnumSet.of(RInteropCacheScope.ENVIRONMENTS))
     }
   }
 
@@ -548,6 +767,7 @@ class RInteropImpl(
       .build()
     val number = rInteropGrpcLogger.nextStubNumber()
     rInteropGrpcLogger.onExecuteRequestAsync(number, RPIServiceGrpc.getExecuteCodeMethod(), request)
+    val metricsCall = metrics.startCall("executeCode", request.serializedSize)
     if (isRepl) this.isDebug = debug
     val call = channel.newCall(RPIServiceGrpc.getExecuteCodeMethod(), CallOptions.DEFAULT)
     val promise = object : AsyncPromise<RIExecutionResult>() {
@@ -562,29 +782,48 @@ class RInteropImpl(
 
     val stdoutBuffer = StringBuilder()
     val stderrBuffer = StringBuilder()
+    val stdoutDecoder = RInteropUtf8Decoder()
+    val stderrDecoder = RInteropUtf8Decoder()
     var exception: String? = null
 
+    fun onOutput(text: String, type: CommandOutput.Type) {
+      if (text.isEmpty()) return
+      when (type) {
+        CommandOutput.Type.STDOUT -> {
+          outputConsumer?.invoke(text, ProcessOutputType.STDOUT)
+          if (returnOutput) stdoutBuffer.append(text)
+        }
+        CommandOutput.Type.STDERR -> {
+          outputConsumer?.invoke(text, ProcessOutputType.STDERR)
+          if (returnOutput) stderrBuffer.append(text)
+        }
+        else -> {
+        }
+      }
+    }
+
+    fun flushOutput() {
+      onOutput(stdoutDecoder.flush(), CommandOutput.Type.STDOUT)
+      onOutput(stderrDecoder.flush(), CommandOutput.Type.STDERR)
+    }
+
     executeTask {
       val isInSourceFileExecutionPrev = isInSourceFileExecution.get()
       isInSourceFileExecution.set(isSource)
 
       ClientCalls.asyncServerStreamingCall(call, request, object : StreamObserver<ExecuteCodeResponse> {
         override fun onNext(value: ExecuteCodeResponse) {
+          metricsCall.addBytesIn(value.serializedSize)
           when (value.msgCase) {
             ExecuteCodeResponse.MsgCase.OUTPUT -> {
-              rInteropGrpcLogger.onOutputAvailable(number, value.output)
-              when (value.output.type) {
-                CommandOutput.Type.STDOUT -> {
-                  outputConsumer?.invoke(value.output.text.toStringUtf8(), ProcessOutputType.STDOUT)
-                  if (returnOutput) stdoutBuffer.append(value.output.text.toStringUtf8())
-                }
-                CommandOutput.Type.STDERR -> {
-                  outputConsumer?.invoke(value.output.text.toStringUtf8(), ProcessOutputType.STDERR)
-                  if (returnOutput) stderrBuffer.append(value.output.text.toStringUtf8())
-                }
-                else -> {
-                }
+              val output = value.output
+              val text = when (output.type) {
+                CommandOutput.Type.STDOUT -> stdoutDecoder.decode(output.text)
+                CommandOutput.Type.STDERR -> stderrDecoder.decode(output.text)
+                else -> ""
               }
+              rInteropGrpcLogger.onOutputAvailable(number, output, text)
+              onOutput(text, output.type)
             }
             ExecuteCodeResponse.MsgCase.EXCEPTION -> {
               exception = value.exception
@@ -595,13 +834,17 @@ class RInteropImpl(
         }
 
         override fun onError(t: Throwable?) {
+          if (promise.isCancelled) metricsCall.cancelled() else metricsCall.failed()
           t?.let { processError(t, "executeCode") }
+          flushOutput()
           promise.setResult(RIExecutionResult(stdoutBuffer.toString(), stderrBuffer.toString(), exception))
         }
 
         override fun onCompleted() {
           isInSourceFileExecution.set(isInSourceFileExecutionPrev)
           rInteropGrpcLogger.onExecuteRequestFinish(number)
+          metricsCall.completed()
+          flushOutput()
           promise.setResult(RIExecutionResult(stdoutBuffer.toString(), stderrBuffer.toString(), exception))
         }
       })
@@ -782,6 +1025,16 @@ class RInteropImpl(
   }
 
   override fun getDocumentationForSymbol(symbol: String, packageName: String?): CancellablePromise<RInterop.HttpdResponse?> {
+    // Without a package the symbol may be a function of the user, which is unknown to the auxiliary session
+    if (!packageName.isNullOrEmpty() && auxiliarySession.canServe()) {
+      return auxiliarySession.acquireAsync().thenAsyncCancellable { auxiliary ->
+        auxiliary?.getDocumentationForSymbol(symbol, packageName) ?: getDocumentationForSymbolImpl(symbol, packageName)
+      }
+    }
+    return getDocumentationForSymbolImpl(symbol, packageName)
+  }
+
+  private fun getDocumentationForSymbolImpl(symbol: String, packageName: String?): CancellablePromise<RInterop.HttpdResponse?> {
     val request = DocumentationForSymbolRequest.newBuilder().setSymbol(symbol).setPackage(packageName.orEmpty()).build()
     return executeAsync(asyncStub::getDocumentationForSymbol, request).thenCancellable {
       if (it.success) RInterop.HttpdResponse(it.content, it.url) else null
@@ -848,9 +1101,13 @@ class RInteropImpl(
     }
   }
 
-  fun loadInstalledPackages(): List<RInstalledPackage> {
+  fun loadInstalledPackages(): List<RInstalledPackage> = blockingAwait { awaitInstalledPackages() }
+
+  /** Unlike the other `await` functions it has no deadline, as listing a large library may take a while */
+  suspend fun awaitInstalledPackages(): List<RInstalledPackage> {
     return try {
-      val obtained = executeWithCheckCancel(asyncStub::loadInstalledPackages, Empty.getDefaultInstance()).packagesList.asSequence().map {
+      val response = executeAsync(asyncStub::loadInstalledPackages, Empty.getDefaultInstance()).awaitCancellable()
+      val obtained = response.packagesList.asSequence().map {
         val priority = when (it.priority) {
           RInstalledPackageList.RInstalledPackage.RPackagePriority.BASE -> RPackagePriority.BASE
           RInstalledPackageList.RInstalledPackage.RPackagePriority.RECOMMENDED -> RPackagePriority.RECOMMENDED
@@ -914,7 +1171,7 @@ class RInteropImpl(
       throw RDataFrameException("Invalid data frame")
     }
     return dataFrameViewerCache.getOrPut(index) {
-      val persistentRef = RPersistentRef(index, this)
+      val persistentRef = newPersistentRef(index)
       Disposer.register(persistentRef, Disposable {
         dataFrameViewerCache.remove(index)
       })
@@ -943,6 +1200,28 @@ class RInteropImpl(
     return executeAsync(asyncStub::dataFrameGetData, request)
   }
 
+  /**
+   * Like [dataFrameGetData], but the response is passed to [decode] as it is read from the wire,
+   * so large chunks can be stored without building a message for every cell.
+   */
+  internal fun <T : Any> dataFrameGetData(ref: RReference, start: Int, end: Int, decode: (CodedInputStream) -> T): CancellablePromise<T> {
+    val request = DataFrameGetDataRequest.newBuilder().setRef(ref.proto).setStart(start).setEnd(end).build()
+    val method = RPIServiceGrpc.getDataFrameGetDataMethod()
+    val marshaller = object : MethodDescriptor.Marshaller<Decoded<T>> {
+      override fun parse(stream: InputStream): Decoded<T> {
+        val bytes = stream.readAllBytes()
+        return Decoded(decode(CodedInputStream.newInstance(bytes)), bytes)
+      }
+
+      override fun stream(value: Decoded<T>): InputStream = ByteArrayInputStream(value.bytes)
+    }
+    return executeAsync(method.toBuilder(method.requestMarshaller, marshaller).build(), request) { it.bytes.size }
+      .thenCancellable { it.value }
+  }
+
+  /** [bytes] are the response as it was sent, they are streamed back by the marshaller and recorded by [rInteropGrpcLogger] */
+  private class Decoded<T>(val value: T, val bytes: ByteArray)
+
   override fun dataFrameSort(ref: RReference, sortKeys: List<RowSorter.SortKey>, disposableParent: Disposable?): RPersistentRef {
     val keysProto = sortKeys.map {
       DataFrameSortRequest.SortKey.newBuilder()
@@ -953,14 +1232,14 @@ class RInteropImpl(
     val request = DataFrameSortRequest.newBuilder().setRef(ref.proto).addAllKeys(keysProto).build()
     return executeAsync(asyncStub::dataFrameSort, request)
       .also { disposableParent?.tryRegisterDisposable(Disposable { it.cancel() }) }
-      .let { RPersistentRef(it.getWithCheckCanceled().value, this, disposableParent) }
+      .let { newPersistentRef(it.getWithCheckCanceled().value, disposableParent) }
   }
 
   override fun dataFrameFilter(ref: RReference, f: DataFrameFilterRequest.Filter, disposableParent: Disposable?): RPersistentRef {
     val request = DataFrameFilterRequest.newBuilder().setRef(ref.proto).setFilter(f).build()
     return executeAsync(asyncStub::dataFrameFilter, request)
       .also { disposableParent?.tryRegisterDisposable(Disposable { it.cancel() }) }
-      .let { RPersistentRef(it.getWithCheckCanceled().value, this, disposableParent) }
+      .let { newPersistentRef(it.getWithCheckCanceled().value, disposableParent) }
   }
 
   override fun dataFrameRefresh(ref: RReference): CancellablePromise<Boolean> {
@@ -975,23 +1254,15 @@ class RInteropImpl(
     return execute(asyncStub::getSourceFileName, StringValue.of(fileId)).value
   }
 
-  fun findInheritorNamedArguments(function: RReference): List<String> {
-    return try {
-      executeWithCheckCancel(asyncStub::findInheritorNamedArguments, function.proto).listList
-    }
-    catch (e: RInteropTerminated) {
-      emptyList()
-    }
+  suspend fun awaitInheritorNamedArguments(function: RReference): List<String> = awaitOrDefault(emptyList()) {
+    executeSharedAsync(asyncStub::findInheritorNamedArguments, function.proto).awaitCancellable().listList
   }
 
-  fun findExtraNamedArguments(function: RReference): RExtraNamedArgumentsInfo {
-    return try {
-      val res = executeWithCheckCancel(asyncStub::findExtraNamedArguments, function.proto)
+  suspend fun awaitExtraNamedArguments(function: RReference): RExtraNamedArgumentsInfo {
+    return awaitOrDefault(RExtraNamedArgumentsInfo(emptyList(), emptyList())) {
+      val res = executeSharedAsync(asyncStub::findExtraNamedArguments, function.proto).awaitCancellable()
       RExtraNamedArgumentsInfo(res.argNamesList, res.funArgNamesList)
     }
-    catch (e: RInteropTerminated) {
-      RExtraNamedArgumentsInfo(emptyList(), emptyList())
-    }
   }
 
   /**
@@ -999,7 +1270,9 @@ class RInteropImpl(
    */
   fun getLoadedShortS4ClassInfos(): List<RS4ClassInfo>? {
     return try {
-      executeWithCheckCancel(asyncStub::getLoadedShortS4ClassInfos, Empty.getDefaultInstance()).shortS4ClassInfosList.map {
+      withPriority(RInteropPriority.BACKGROUND) {
+        executeWithCheckCancel(asyncStub::getLoadedShortS4ClassInfos, Empty.getDefaultInstance())
+      }.shortS4ClassInfosList.map {
         RS4ClassInfo(it.name, it.`package`, emptyList(), emptyList(), it.isVirtual)
       }
     }
@@ -1008,32 +1281,22 @@ class RInteropImpl(
     }
   }
 
-  fun getS4ClassInfoByObjectName(ref: RReference): RS4ClassInfo? {
-    return try {
-      val res = executeWithCheckCancel(asyncStub::getS4ClassInfoByObjectName, ref.proto)
-      if (res.className.isEmpty()) return null
-      RS4ClassInfo(res.className, res.packageName,
-                   res.slotsList.map { RS4ClassSlot(it.name, it.type, it.declarationClass) },
-                   res.superClassesList.map { RS4SuperClass(it.name, it.distance) },
-                   res.isVirtual)
-    }
-    catch (e: RInteropTerminated) {
-      null
-    }
+  suspend fun awaitS4ClassInfoByObjectName(ref: RReference): RS4ClassInfo? = awaitOrDefault(null) {
+    s4ClassInfoFromProto(executeAsync(asyncStub::getS4ClassInfoByObjectName, ref.proto).awaitCancellable())
   }
 
-  fun getS4ClassInfoByClassName(className: String): RS4ClassInfo? {
-    return try {
-      val res = executeWithCheckCancel(asyncStub::getS4ClassInfoByClassName, StringValue.of(className))
-      if (res.className.isEmpty()) return null
-      RS4ClassInfo(res.className, res.packageName,
-                   res.slotsList.map { RS4ClassSlot(it.name, it.type, it.declarationClass) },
-                   res.superClassesList.map { RS4SuperClass(it.name, it.distance) },
-                   res.isVirtual)
-    }
-    catch (e: RInteropTerminated) {
-      null
-    }
+  suspend fun awaitS4ClassInfoByClassName(className: String): RS4ClassInfo? = awaitOrDefault(null) {
+    // A class defined by the user is unknown to the auxiliary session, then the console is asked
+    auxiliaryFor()?.awaitS4ClassInfoByClassName(className)?.let { return@awaitOrDefault it }
+    s4ClassInfoFromProto(executeAsync(asyncStub::getS4ClassInfoByClassName, StringValue.of(className)).awaitCancellable())
+  }
+
+  private fun s4ClassInfoFromProto(res: S4ClassInfo): RS4ClassInfo? {
+    if (res.className.isEmpty()) return null
+    return RS4ClassInfo(res.className, res.packageName,
+                        res.slotsList.map { RS4ClassSlot(it.name, it.type, it.declarationClass) },
+                        res.superClassesList.map { RS4SuperClass(it.name, it.distance) },
+                        res.isVirtual)
   }
 
   /**
@@ -1041,7 +1304,9 @@ class RInteropImpl(
    */
   fun getLoadedShortR6ClassInfos(): List<R6ClassInfo>? {
     return try {
-      executeWithCheckCancel(asyncStub::getLoadedShortR6ClassInfos, Empty.getDefaultInstance()).shortR6ClassInfosList.map {
+      withPriority(RInteropPriority.BACKGROUND) {
+        executeWithCheckCancel(asyncStub::getLoadedShortR6ClassInfos, Empty.getDefaultInstance())
+      }.shortR6ClassInfosList.map {
         R6ClassInfo(it.name, emptyList(), emptyList(), emptyList(), emptyList())
       }
     }
@@ -1050,54 +1315,79 @@ class RInteropImpl(
     }
   }
 
-  fun getR6ClassInfoByObjectName(ref: RReference): R6ClassInfo? {
-    return try {
-      val res = executeWithCheckCancel(asyncStub::getR6ClassInfoByObjectName, ref.proto)
-      R6ClassInfo(res.className, res.superClassesList,
-                  res.fieldsList.map { R6ClassField(it.name, it.isPublic) },
-                  res.methodsList.map { R6ClassMethod(it.name, it.parameterList, it.isPublic) },
-                  res.activeBindingsList.map { R6ClassActiveBinding(it.name) })
-    }
-    catch (e: RInteropTerminated) {
-      null
-    }
+  suspend fun awaitR6ClassInfoByObjectName(ref: RReference): R6ClassInfo? = awaitOrDefault(null) {
+    r6ClassInfoFromProto(executeAsync(asyncStub::getR6ClassInfoByObjectName, ref.proto).awaitCancellable())
   }
 
-  fun getR6ClassInfoByClassName(className: String): R6ClassInfo? {
-    return try {
-      val res = executeWithCheckCancel(asyncStub::getR6ClassInfoByClassName, StringValue.of(className))
-      R6ClassInfo(res.className, res.superClassesList,
-                  res.fieldsList.map { R6ClassField(it.name, it.isPublic) },
-                  res.methodsList.map { R6ClassMethod(it.name, it.parameterList, it.isPublic) },
-                  res.activeBindingsList.map { R6ClassActiveBinding(it.name) })
-    }
-    catch (e: RInteropTerminated) {
-      null
+  suspend fun awaitR6ClassInfoByClassName(className: String): R6ClassInfo? = awaitOrDefault(null) {
+    // A class defined by the user is unknown to the auxiliary session, then the console is asked
+    auxiliaryFor()?.awaitR6ClassInfoByClassName(className)?.let { return@awaitOrDefault it }
+    r6ClassInfoFromProto(executeAsync(asyncStub::getR6ClassInfoByClassName, StringValue.of(className)).awaitCancellable())
+  }
+
+  private fun r6ClassInfoFromProto(res: com.intellij.r.psi.classes.R6ClassInfo): R6ClassInfo {
+    return R6ClassInfo(res.className, res.superClassesList,
+                       res.fieldsList.map { R6ClassField(it.name, it.isPublic) },
+                       res.methodsList.map { R6ClassMethod(it.name, it.parameterList, it.isPublic) },
+                       res.activeBindingsList.map { R6ClassActiveBinding(it.name) })
+  }
+
+  suspend fun awaitFormalArguments(function: RReference): List<String> = awaitOrDefault(emptyList()) {
+    executeSharedAsync(asyncStub::getFormalArguments, function.proto).awaitCancellable().listList
+  }
+
+  suspend fun awaitTableColumnsInfo(table: RReference): TableInfo = awaitOrDefault(TableInfo(emptyList(), TableType.UNKNOWN)) {
+    val request = TableColumnsInfoRequest.newBuilder().setRef(table.proto).build()
+    executeSharedAsync(asyncStub::getTableColumnsInfo, request).awaitCancellable().run {
+      TableInfo(columnsList.map { TableColumnInfo(it.name, it.type) }, TableType.toTableType(tableType))
     }
   }
 
-  fun getFormalArguments(function: RReference): List<String> {
-    return try {
-      executeWithCheckCancel(asyncStub::getFormalArguments, function.proto).listList
+  /**
+   * Runs a suspend counterpart for blocking callers. Cancellation of the calling thread's job or progress indicator
+   * cancels the coroutine and with it the request. On the EDT the wait is cancellable like [getWithCheckCanceled].
+   */
+  internal fun <T> blockingAwait(action: suspend CoroutineScope.() -> T): T {
+    beforeBlockingWait()
+    if (!ApplicationManager.getApplication().isDispatchThread) return runBlockingMaybeCancellable(action)
+    val deferred = RInteropCoroutineScope.getCoroutineScope(project).async(block = action)
+    try {
+      return ProgressIndicatorUtils.awaitWithCheckCanceled(deferred.asCompletableFuture())
     }
-    catch (e: RInteropTerminated) {
-      emptyList()
+    finally {
+      deferred.cancel()
     }
   }
 
-  fun getTableColumnsInfo(table: RReference): TableInfo {
+  /**
+   * Returns [default] if the session is terminated.
+   * @throws RInteropTimedOut if R does not answer within `r.interop.await.timeout.ms`, e.g. because it runs a long user command
+   */
+  private suspend fun <T> awaitOrDefault(default: T, action: suspend () -> T): T {
+    val timeoutMs = Registry.intValue("r.interop.await.timeout.ms", AWAIT_TIMEOUT_MS).toLong()
     return try {
-      val request = TableColumnsInfoRequest.newBuilder().setRef(table.proto).build()
-      executeWithCheckCancel(asyncStub::getTableColumnsInfo, request).run {
-        TableInfo(columnsList.map { TableColumnInfo(it.name, it.type) }, TableType.toTableType(tableType))
-      }
+      withTimeout(timeoutMs) { action() }
+    }
+    catch (e: TimeoutCancellationException) {
+      throw RInteropTimedOut(this, timeoutMs)
     }
     catch (e: RInteropTerminated) {
-      TableInfo(emptyList(), TableType.UNKNOWN)
+      default
     }
   }
 
+  /**
+   * Auxiliary session to serve a side-effect-free request keyed by a package or a class name while user code runs here,
+   * null if the request should wait for this session. See [RInteropAuxiliarySession].
+   */
+  private suspend fun auxiliaryFor(): RInteropImpl? {
+    return if (auxiliarySession.canServe()) auxiliarySession.acquire() else null
+  }
+
   override fun convertRoxygenToHTML(functionName: String, functionText: String): RIExecutionResult {
+    if (auxiliarySession.canServe()) {
+      blockingAwait { auxiliarySession.acquire() }?.let { return it.convertRoxygenToHTML(functionName, functionText) }
+    }
     val result = executeWithCheckCancel(asyncStub::convertRoxygenToHTML,
                                         ConvertRoxygenToHTMLRequest.newBuilder()
                                           .setFunctionName(functionName)
@@ -1114,14 +1404,18 @@ class RInteropImpl(
   fun clearEnvironment(env: RReference) {
     try {
       executeWithCheckCancel(asyncStub::clearEnvironment, env.proto)
-      invalidateCaches()
+      invalidateCaches(EnumSet.of(RInteropCacheScope.ENVIRONMENTS))
     }
     catch (ignored: RInteropTerminated) {
     }
   }
 
-  override fun getObjectSizes(refs: List<RReference>): List<Long> {
-    return execute(asyncStub::getObjectSizes, RRefList.newBuilder().addAllRefs(refs.map { it.proto }).build()).listList
+  override fun getObjectSizes(refs: List<RReference>): List<Long> = blockingAwait { awaitObjectSizes(refs) }
+
+  suspend fun awaitObjectSizes(refs: List<RReference>): List<Long> = getObjectSizesAsync(refs).awaitCancellable()
+
+  override fun getObjectSizesAsync(refs: List<RReference>): CancellablePromise<List<Long>> {
+    return objectSizesBatcher.request(refs.map { it.proto })
   }
 
   override fun setRStudioApiEnabled(enabled: Boolean) {
@@ -1151,13 +1445,14 @@ class RInteropImpl(
     return RIExecutionResult(stdoutBuffer.toString(), stderrBuffer.toString())
   }
 
-  private fun <TRequest : GeneratedMessageV3> executeRequestAsync(
+  internal fun <TRequest : GeneratedMessageV3> executeRequestAsync(
     methodDescriptor: MethodDescriptor<TRequest, CommandOutput>,
     request: TRequest,
     consumer: ((String, ProcessOutputType) -> Unit)? = null,
   ): CancellablePromise<Unit> {
     val number = rInteropGrpcLogger.nextStubNumber()
     rInteropGrpcLogger.onExecuteRequestAsync(number, methodDescriptor, request)
+    val metricsCall = metrics.startCall(methodDescriptor.bareMethodName ?: methodDescriptor.fullMethodName, request.serializedSize)
     val callOptions = if (isUnitTestMode) CallOptions.DEFAULT.withDeadlineAfter(deadlineTest, TimeUnit.SECONDS) else CallOptions.DEFAULT
     val call = channel.newCall(methodDescriptor, callOptions)
     val promise = object : AsyncPromise<Unit>() {
@@ -1169,20 +1464,29 @@ class RInteropImpl(
         return false
       }
     }
+    val stdoutDecoder = RInteropUtf8Decoder()
+    val stderrDecoder = RInteropUtf8Decoder()
+    fun flushOutput() {
+      if (consumer == null) return
+      stdoutDecoder.flush().takeIf { it.isNotEmpty() }?.let { consumer(it, ProcessOutputType.STDOUT) }
+      stderrDecoder.flush().takeIf { it.isNotEmpty() }?.let { consumer(it, ProcessOutputType.STDERR) }
+    }
     ClientCalls.asyncServerStreamingCall(call, request, object : StreamObserver<CommandOutput> {
       override fun onNext(value: CommandOutput) {
-        rInteropGrpcLogger.onOutputAvailable(number, value)
-        if (consumer == null) return
-        when (value.type) {
-          CommandOutput.Type.STDOUT -> consumer(value.text.toStringUtf8(), ProcessOutputType.STDOUT)
-          CommandOutput.Type.STDERR -> consumer(value.text.toStringUtf8(), ProcessOutputType.STDERR)
-          else -> {
-          }
+        metricsCall.addBytesIn(value.serializedSize)
+        val (text, type) = when (value.type) {
+          CommandOutput.Type.STDOUT -> stdoutDecoder.decode(value.text) to ProcessOutputType.STDOUT
+          CommandOutput.Type.STDERR -> stderrDecoder.decode(value.text) to ProcessOutputType.STDERR
+          else -> "" to null
         }
+        rInteropGrpcLogger.onOutputAvailable(number, value, text)
+        if (consumer != null && type != null && text.isNotEmpty()) consumer(text, type)
       }
 
       override fun onError(t: Throwable?) {
+        if (promise.isCancelled) metricsCall.cancelled() else metricsCall.failed()
         val e = t?.let { processError(it, methodDescriptor.fullMethodName) }
+        flushOutput()
         if (e is RInteropTerminated) {
           consumer?.invoke(RBundle.message("rinterop.terminated"), ProcessOutputType.STDERR)
         }
@@ -1191,6 +1495,8 @@ class RInteropImpl(
 
       override fun onCompleted() {
         rInteropGrpcLogger.onExecuteRequestFinish(number)
+        metricsCall.completed()
+        flushOutput()
         promise.setResult(Unit)
       }
     })
@@ -1200,19 +1506,21 @@ class RInteropImpl(
   private fun processAsyncEvent(event: AsyncEvent) {
     when (event.eventCase) {
       AsyncEvent.EventCase.BUSY -> {
+        isBusy = true
+        refReclamationQueue.setIdle(false)
         fireListeners { it.onBusy() }
       }
       AsyncEvent.EventCase.TEXT -> {
-        val text = event.text.text.toStringUtf8()
-        val type = when (event.text.type) {
-          CommandOutput.Type.STDOUT -> ProcessOutputType.STDOUT
-          CommandOutput.Type.STDERR -> ProcessOutputType.STDERR
+        val (text, type) = when (event.text.type) {
+          CommandOutput.Type.STDOUT -> asyncStdoutDecoder.decode(event.text.text) to ProcessOutputType.STDOUT
+          CommandOutput.Type.STDERR -> asyncStderrDecoder.decode(event.text.text) to ProcessOutputType.STDERR
           else -> return
         }
+        if (text.isEmpty()) return
         fireListeners { it.onText(text, type) }
       }
       AsyncEvent.EventCase.REQUESTREADLN -> {
-        invalidateCaches()
+        onUserCodeExecuted()
         val prompt = event.requestReadLn.prompt
         fireListeners { it.onRequestReadLn(prompt) }
       }
@@ -1223,13 +1531,16 @@ class RInteropImpl(
         fireListeners { it.onBrowseURLRequest(event.browseURLRequest) }
       }
       AsyncEvent.EventCase.PROMPT -> {
-        invalidateCaches()
+        startupTimeline?.firstPrompt()
+        onUserCodeExecuted()
+        isBusy = false
         isDebug = false
         debugStack = emptyList()
         fireListeners { it.onPrompt() }
       }
       AsyncEvent.EventCase.DEBUGPROMPT -> {
-        invalidateCaches()
+        onUserCodeExecuted()
+        isBusy = false
         isDebug = true
         if (event.debugPrompt.changed) {
           debugStack = stackFromProto(event.debugPrompt.stack)
@@ -1244,7 +1555,7 @@ class RInteropImpl(
         fireListeners { it.onException(info) }
       }
       AsyncEvent.EventCase.VIEWREQUEST -> {
-        val ref = RPersistentRef(event.viewRequest.persistentRefIndex, this)
+        val ref = newPersistentRef(event.viewRequest.persistentRefIndex)
         fireListenersCoroutines({
                                   it.onViewRequest(ref, event.viewRequest.title, ProtoUtil.rValueFromProto(event.viewRequest.value))
                                 }) {
@@ -1345,7 +1656,7 @@ class RInteropImpl(
   }
 
   fun asyncEventsStartProcessing() {
-    executor.execute {
+    scheduler.execute {
       if (!asyncProcessingStarted) {
         asyncProcessingStarted = true
         asyncEventsBeforeStarted.forEach { processAsyncEvent(it) }
@@ -1354,23 +1665,22 @@ class RInteropImpl(
     }
   }
 
+  /**
+   * Events are queued in [textPipeline] and processed in arrival order by [processPendingEvents].
+   * The stream delivers the next event only when the pipeline asks for it, so a noisy session never blocks a gRPC thread.
+   */
   private fun processAsyncEvents() {
     val call = channel.newCall(RPIServiceGrpc.getGetAsyncEventsMethod(), CallOptions.DEFAULT)
-    ClientCalls.asyncServerStreamingCall(call, Empty.getDefaultInstance(), object : StreamObserver<AsyncEvent> {
+    asyncEventsCall = call
+    ClientCalls.asyncServerStreamingCall(call, Empty.getDefaultInstance(), object : ClientResponseObserver<Empty, AsyncEvent> {
+      override fun beforeStart(requestStream: ClientCallStreamObserver<Empty>) {
+        requestStream.disableAutoRequestWithInitialRequest(1)
+        asyncEventsStream = requestStream
+      }
+
       override fun onNext(event: AsyncEvent) {
-        executeTask {
-          if (asyncProcessingStarted) {
-            processAsyncEvent(event)
-          }
-          else {
-            asyncEventsBeforeStarted.add(event)
-          }
-          if (event.hasTermination()) {
-            call.cancel("Termination event received", null)
-            heartbeatTimer.cancel(true)
-            terminationPromise.setResult(Unit)
-            executeAsync(asyncStub::quitProceed, Empty.getDefaultInstance())
-          }
+        if (textPipeline.offer(event)) {
+          executeTask { processPendingEvents() }
         }
       }
 
@@ -1388,6 +1698,26 @@ class RInteropImpl(
     })
   }
 
+  /**
+   * Text events are merged by [textPipeline], other events keep their place between them, so the order of output is kept.
+   */
+  private fun processPendingEvents() {
+    for (event in textPipeline.drain()) {
+      if (asyncProcessingStarted) {
+        processAsyncEvent(event)
+      }
+      else {
+        asyncEventsBeforeStarted.add(event)
+      }
+      if (event.hasTermination()) {
+        asyncEventsCall?.cancel("Termination event received", null)
+        RInteropConnectionManager.unregister(connectionSession)
+        terminationPromise.setResult(Unit)
+        executeAsync(asyncStub::quitProceed, Empty.getDefaultInstance())
+      }
+    }
+  }
+
   private fun stackFromProto(
     proto: StackFrameList,
     indexToEnvironment: (Int) -> RReference = { RReference.sysFrameRef(it, this) },
@@ -1413,7 +1743,8 @@ class RInteropImpl(
   }
 
   override fun dispose() {
-    heartbeatTimer.cancel(true)
+    RInteropConnectionManager.unregister(connectionSession)
+    connection.unixSocketPath?.let { RInteropChannels.deleteUnixSocket(it) }
     executeAsync(asyncStub::quit, Empty.getDefaultInstance())
     if (isUnitTestMode) {
       try {
@@ -1423,7 +1754,7 @@ class RInteropImpl(
         channel.shutdown()
         channel.awaitTermination(1000, TimeUnit.MILLISECONDS)
         processHandler.waitFor(5000)
-        executor.shutdown()
+        scheduler.shutdown()
       }
       catch (ignored: TimeoutException) {
       }
@@ -1443,14 +1774,14 @@ class RInteropImpl(
               if (!processHandler.waitFor(2000)) {
                 processHandler.destroyProcess()
               }
-              executor.shutdown()
+              scheduler.shutdown()
             }
           }
           catch (e: ProcessCanceledException) {
             killedByUsed = true
             terminationPromise.setResult(Unit)
             processHandler.destroyProcess()
-            executor.shutdown()
+            scheduler.shutdown()
           }
         }
       }.apply { setCancelText(RBundle.message("rinterop.terminate.now")) })
@@ -1462,13 +1793,82 @@ class RInteropImpl(
   }
 
   override fun invalidateCaches() {
+    invalidateCaches(RInteropCacheScope.ALL)
+  }
+
+  override fun invalidateCaches(scopes: Set<RInteropCacheScope>) {
+    lastRuntimeFingerprint = null
+    lastLoadedNamespaces = null
+    dropPsiCaches()
+    scopes.forEach { cacheVersions.getValue(it).incrementAndGet() }
+  }
+
+  private fun dropPsiCaches() {
     RInteropCoroutineScope.getCoroutineScope(project).launch(ModalityState.nonModal().asContextElement()) {
       edtWriteAction {
         PsiManager.getInstance(project).dropPsiCaches()
       }
     }
+  }
+
+  private fun cacheVersion(scopes: Set<RInteropCacheScope>): Int = scopes.sumOf { cacheVersions.getValue(it).get() }
 
-    cacheIndex.incrementAndGet()
+  /**
+   * Any R code may change values of bindings and the working directory, so these caches are always dropped after a command.
+   * Namespace-dependent caches are dropped only if loaded namespaces have changed,
+   * PSI caches are dropped also if the [RRuntimeFingerprint] of the session has changed.
+   */
+  private fun onUserCodeExecuted() {
+    refReclamationQueue.setIdle(true)
+    cacheVersions.getValue(RInteropCacheScope.ENVIRONMENTS).incrementAndGet()
+    cacheVersions.getValue(RInteropCacheScope.WORKING_DIR).incrementAndGet()
+    // Sent from outside of the RInterop thread to be deferred by the scheduler
+    AppExecutorUtil.getAppExecutorService().execute { checkRuntimeFingerprint() }
+  }
+
+  /**
+   * Namespaces are checked as soon as they arrive, independently of the bounded global variables and the working directory.
+   * The received namespaces are reused by [loadedPackages]. Returns a promise which is done when both checks are done.
+   */
+  @VisibleForTesting
+  internal fun checkRuntimeFingerprint(): Promise<Unit> {
+    // A check issued for an earlier prompt is not needed anymore if it has not been sent yet
+    val (namespaces, globalEnv, workingDir) = withPriority(RInteropPriority.UI_REFRESH, RRuntimeFingerprint::class) {
+      Triple(executeAsync(asyncStub::loaderGetLoadedNamespaces, Empty.getDefaultInstance()),
+             globalEnvLoader.loadVariablesPartially(0, RRuntimeFingerprint.MAX_BINDINGS),
+             executeAsync(asyncStub::getWorkingDir, Empty.getDefaultInstance()))
+    }
+    val namespacesChecked = AsyncPromise<Unit>()
+    namespaces.onSuccess { response ->
+      val current = response.listList
+      val previous = lastLoadedNamespaces
+      if (previous != null && previous != current) {
+        cacheVersions.getValue(RInteropCacheScope.NAMESPACES).incrementAndGet()
+        dropPsiCaches()
+      }
+      lastLoadedNamespaces = current
+      checkedNamespaces.set(cacheVersions.getValue(RInteropCacheScope.NAMESPACES).get() to current)
+      namespacesChecked.setResult(Unit)
+    }.onError {
+      if (it !is CancellationException) invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES))
+      namespacesChecked.setResult(Unit)
+    }
+    val globalEnvChecked = AsyncPromise<Unit>()
+    globalEnv.onError {
+      if (it !is CancellationException) dropPsiCaches()
+      globalEnvChecked.setResult(Unit)
+    }.onSuccess { vars ->
+      workingDir.onError {
+        if (it !is CancellationException) dropPsiCaches()
+        globalEnvChecked.setResult(Unit)
+      }.onSuccess { workingDirResponse ->
+        val current = RRuntimeFingerprint.create(vars.vars, vars.totalCount, workingDirResponse.value)
+        if (current.isChangedFrom(lastRuntimeFingerprint)) dropPsiCaches()
+        lastRuntimeFingerprint = current
+        globalEnvChecked.setResult(Unit)
+      }
+    }
+    return namespacesChecked.thenAsync { globalEnvChecked }
   }
 
   private fun processError(e: Throwable, methodName: String): Throwable {
@@ -1487,10 +1887,14 @@ class RInteropImpl(
     return e
   }
 
-  override fun <T : Any> cached(defaultValue: T?, f: () -> T): RInterop.Cached<T> {
-    return Cached(defaultValue, f)
+  override fun <T : Any> cached(defaultValue: T?, scopes: Set<RInteropCacheScope>, f: () -> T): RInterop.Cached<T> {
+    return Cached(defaultValue, scopes, f)
   }
-  inner class Cached<T : Any>(defaultValue: T? = null, val f: () -> T) : RInterop.Cached<T> {
+  inner class Cached<T : Any>(
+    defaultValue: T? = null,
+    private val scopes: Set<RInteropCacheScope> = RInteropCacheScope.ALL,
+    val f: () -> T,
+  ) : RInterop.Cached<T> {
     private var previousValue = defaultValue ?: f()
     private val cached = object : AtomicClearableLazyValue<T>() {
       override fun compute(): T {
@@ -1506,7 +1910,7 @@ class RInteropImpl(
     private var cacheIndex = -1
 
     override operator fun getValue(thisRef: Any?, property: KProperty<*>): T {
-      val currentCacheIndex = this@RInteropImpl.cacheIndex.get()
+      val currentCacheIndex = cacheVersion(scopes)
       if (cacheIndex < currentCacheIndex) {
         cached.drop()
         cacheIndex = currentCacheIndex
@@ -1515,18 +1919,23 @@ class RInteropImpl(
     }
   }
 
-  override fun <T> asyncCached(defaultValue: T, f: () -> CancellablePromise<T>): RInterop.AsyncCached<T> {
-    return AsyncCached(defaultValue, f)
+  override fun <T> asyncCached(defaultValue: T, scopes: Set<RInteropCacheScope>, f: () -> CancellablePromise<T>): RInterop.AsyncCached<T> {
+    return AsyncCached(defaultValue, scopes, f)
   }
-  inner class AsyncCached<T>(defaultValue: T, private val f: () -> CancellablePromise<T>) : RInterop.AsyncCached<T> {
+  inner class AsyncCached<T>(
+    defaultValue: T,
+    private val scopes: Set<RInteropCacheScope> = RInteropCacheScope.ALL,
+    private val f: () -> CancellablePromise<T>,
+  ) : RInterop.AsyncCached<T> {
     private var cached: T = defaultValue
     private var cacheIndex = -1
     private var currentPromise: CancellablePromise<T>? = null
+    private var isLoaded = false
 
     override val value: T
       @Synchronized
       get() {
-        val currentCacheIndex = this@RInteropImpl.cacheIndex.get()
+        val currentCacheIndex = cacheVersion(scopes)
         if (cacheIndex < currentCacheIndex) {
           cacheIndex = currentCacheIndex
           currentPromise?.cancel()
@@ -1542,7 +1951,10 @@ class RInteropImpl(
             }
           }
           f().onSuccess {
-            cached = it
+            synchronized(this@AsyncCached) {
+              cached = it
+              isLoaded = true
+            }
             promise.setResult(it)
           }.onError {
             if (it is RInteropTerminated) {
@@ -1561,10 +1973,16 @@ class RInteropImpl(
       return currentPromise ?: resolvedPromise(cached)
     }
 
+    @Synchronized
+    override fun getIfLoaded(): T? = if (isLoaded) cached else null
+
     override fun safeGet(): T {
       val result = value
       if (!isUnitTestMode && ApplicationManager.getApplication().isDispatchThread) return result
-      currentPromise?.let { return it.getWithCheckCanceled() }
+      currentPromise?.let {
+        beforeBlockingWait()
+        return it.getWithCheckCanceled()
+      }
       return result
     }
   }
@@ -1572,21 +1990,29 @@ class RInteropImpl(
   override val consoleRuntimeInfo: RConsoleRuntimeInfo = RConsoleRuntimeInfoImpl(this)
 
   override fun copyToPersistentRef(proto: RRef): CancellablePromise<CopyToPersistentRefResponse>
-    = executeAsync(asyncStub::copyToPersistentRef, proto)
+    = executeAsync(asyncStub::copyToPersistentRef, proto).thenCancellable {
+      if (it.responseCase == CopyToPersistentRefResponse.ResponseCase.PERSISTENTINDEX) refReclamationQueue.onCreated()
+      it
+    }
   override fun loaderGetValueInfo(proto: RRef): CancellablePromise<ValueInfo>
     = executeAsync(asyncStub::loaderGetValueInfo, proto)
   override fun evaluateAsText(proto: RRef): CancellablePromise<StringOrError>
     = executeAsync(asyncStub::evaluateAsText, proto)
   override fun getDistinctStrings(proto: RRef): CancellablePromise<StringList>
-    = executeAsync(asyncStub::getDistinctStrings, proto)
+    = executeSharedAsync(asyncStub::getDistinctStrings, proto)
   override fun loadObjectNames(proto: RRef): CancellablePromise<StringList>
-    = executeAsync(asyncStub::loadObjectNames, proto)
+    = executeSharedAsync(asyncStub::loadObjectNames, proto)
   override fun getEqualityObject(proto: RRef): CancellablePromise<Int64Value>
     = executeAsync(asyncStub::getEqualityObject, proto)
   override fun setValue(request: SetValueRequest): CancellablePromise<ValueInfo>
     = executeAsync(asyncStub::setValue, request)
   override fun disposePersistentRefs(list: PersistentRefList): CancellablePromise<Empty>
-    = executeAsync(asyncStub::disposePersistentRefs, list)
+    = refReclamationQueue.release(list.indicesList)
+
+  private fun newPersistentRef(index: Int, disposableParent: Disposable? = null): RPersistentRef {
+    refReclamationQueue.onCreated()
+    return RPersistentRef(index, this, disposableParent)
+  }
 
   override fun loaderGetParentEnvs(proto: RRef): CancellablePromise<ParentEnvsResponse>
     = executeAsync(asyncStub::loaderGetParentEnvs, proto)
@@ -1601,12 +2027,32 @@ class RInteropImpl(
   override fun rInteropGrpcLoggerAsJson(withPending: Boolean): String = rInteropGrpcLogger.toJson(withPending)
 
   companion object {
-    private const val HEARTBEAT_PERIOD = 20L
     private const val EXECUTE_CODE_TEST_TIMEOUT = 20000
+    private const val GRPC_LOGGER_MAX_KB = 4096
     private const val GRPC_LOGGER_MAX_MESSAGES = 30
-    private const val MAX_MESSAGE_SIZE = 16 * 1024 * 1024  // 16 MiB (default is 4)
+    internal const val MAX_MESSAGE_SIZE = 16 * 1024 * 1024  // 16 MiB (default is 4)
+    private const val BATCH_DELAY_MS = 5L
+    internal const val AWAIT_TIMEOUT_MS = 30000
+    private const val REF_FLUSH_THRESHOLD = 64
+    private const val REF_FLUSH_DELAY_MS = 100L
+    private const val MAX_BATCH_SIZE = 1000
+    private const val TEXT_BATCH_SIZE = 64 * 1024
+    private const val TEXT_BUFFER_LIMIT = 8 * 1024 * 1024
 
     internal val DEADLINE_TEST_KEY = Key<Long>("org.jetbrains.r.rinterop.RInterop.DeadlineTest")
+
+    /**
+     * The log is attached to crash reports, so by default it keeps only the last [GRPC_LOGGER_MAX_MESSAGES] messages.
+     * The internal mode and `r.interop.grpc.log.extended` keep up to `r.interop.grpc.log.max.kb` of them.
+     */
+    private fun createGrpcLogger(): RInteropGrpcLogger {
+      val isEnabled = Registry.`is`("r.interop.grpc.log.enabled", true)
+      val sampleEvery = Registry.intValue("r.interop.grpc.log.sample.every", 1)
+      if (!ApplicationManager.getApplication().isInternal && !Registry.`is`("r.interop.grpc.log.extended", false)) {
+        return RInteropGrpcLogger(null, isEnabled, sampleEvery, GRPC_LOGGER_MAX_MESSAGES)
+      }
+      return RInteropGrpcLogger(Registry.intValue("r.interop.grpc.log.max.kb", GRPC_LOGGER_MAX_KB) * 1024L, isEnabled, sampleEvery)
+    }
   }
 }
 
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.gson.GsonBuilder
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Latency and payload statistics of RPC calls per method.
+ */
+class RInteropMetrics {
+  data class MethodMetrics(
+    val methodName: String,
+    val count: Long,
+    val cancelled: Long,
+    val failed: Long,
+    /** Calls which were not sent because an identical request was already in flight, see [RInteropSingleFlight] */
+    val shared: Long,
+    val bytesOut: Long,
+    val bytesIn: Long,
+    val p50Ms: Double,
+    val p95Ms: Double,
+    val p99Ms: Double,
+    val maxMs: Double,
+    val totalMs: Double,
+  )
+
+  /** A single call in progress, finished by exactly one of [completed], [cancelled] and [failed] */
+  inner class Call internal constructor(private val methodName: String, private val bytesOut: Long) {
+    private val startNanos = System.nanoTime()
+    private var bytesIn = 0L
+
+    fun addBytesIn(bytes: Int) {
+      bytesIn += bytes
+    }
+
+    fun completed() = finish(Outcome.COMPLETED)
+    fun cancelled() = finish(Outcome.CANCELLED)
+    fun failed() = finish(Outcome.FAILED)
+
+    private fun finish(outcome: Outcome) {
+      val micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos)
+      methods.computeIfAbsent(methodName) { Counters() }.record(outcome, micros, bytesOut, bytesIn)
+    }
+  }
+
+  private enum class Outcome { COMPLETED, CANCELLED, FAILED }
+
+  private class Counters {
+    val count = AtomicLong()
+    val cancelled = AtomicLong()
+    val failed = AtomicLong()
+    val shared = AtomicLong()
+    val bytesOut = AtomicLong()
+    val bytesIn = AtomicLong()
+    val totalMicros = AtomicLong()
+    val maxMicros = AtomicLong()
+    val histogram = AtomicLongArray(BUCKET_COUNT)
+
+    fun record(outcome: Outcome, micros: Long, out: Long, inBytes: Long) {
+      count.incrementAndGet()
+      when (outcome) {
+        Outcome.CANCELLED -> cancelled.incrementAndGet()
+        Outcome.FAILED -> failed.incrementAndGet()
+        Outcome.COMPLETED -> {}
+      }
+      bytesOut.addAndGet(out)
+      bytesIn.addAndGet(inBytes)
+      totalMicros.addAndGet(micros)
+      maxMicros.accumulateAndGet(micros) { a, b -> maxOf(a, b) }
+      histogram.incrementAndGet(bucketOf(micros))
+    }
+
+    fun snapshot(methodName: String): MethodMetrics {
+      val buckets = LongArray(BUCKET_COUNT) { histogram.get(it) }
+      val total = buckets.sum()
+      fun percentile(p: Double): Double {
+        if (total == 0L) return 0.0
+        val rank = Math.ceil(total * p).toLong().coerceAtLeast(1)
+        var seen = 0L
+        for (i in buckets.indices) {
+          seen += buckets[i]
+          if (seen >= rank) return minOf(bucketUpperBound(i), maxMicros.get()) / 1000.0
+        }
+        return maxMicros.get() / 1000.0
+      }
+      return MethodMetrics(methodName, count.get(), cancelled.get(), failed.get(), shared.get(), bytesOut.get(), bytesIn.get(),
+                           percentile(0.5), percentile(0.95), percentile(0.99), maxMicros.get() / 1000.0, totalMicros.get() / 1000.0)
+    }
+  }
+
+  private val methods = ConcurrentHashMap<String, Counters>()
+
+  fun startCall(methodName: String, bytesOut: Int): Call = Call(methodName, bytesOut.toLong())
+
+  fun recordShared(methodName: String) {
+    methods.computeIfAbsent(methodName) { Counters() }.shared.incrementAndGet()
+  }
+
+  fun snapshot(): List<MethodMetrics> = methods.map { (name, counters) -> counters.snapshot(name) }.sortedByDescending { it.totalMs }
+
+  fun reset() {
+    methods.clear()
+  }
+
+  fun toJson(): String = GsonBuilder().setPrettyPrinting().create().toJson(snapshot())
+
+  companion object {
+    private const val SUB_BUCKETS = 4
+    private const val BUCKET_COUNT = 64 * SUB_BUCKETS
+
+    /** Log-linear buckets: [SUB_BUCKETS] buckets per power of two, so the relative error is below 25% */
+    private fun bucketOf(micros: Long): Int {
+      if (micros < SUB_BUCKETS) return micros.coerceAtLeast(0).toInt()
+      val exponent = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+      val subBucket = (micros shr (exponent - 2)).toInt() and (SUB_BUCKETS - 1)
+      return exponent * SUB_BUCKETS + subBucket
+    }
+
+    private fun bucketUpperBound(bucket: Int): Long {
+      if (bucket < SUB_BUCKETS) return bucket.toLong()
+      val exponent = bucket / SUB_BUCKETS
+      val subBucket = bucket % SUB_BUCKETS
+      return ((SUB_BUCKETS + subBucket + 1).toLong() shl (exponent - 2)) - 1
+    }
+  }
+}
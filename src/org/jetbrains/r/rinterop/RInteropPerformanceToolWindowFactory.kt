@@ -0,0 +1,210 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.actionSystem.ActionManager
+import com.intellij.openapi.actionSystem.ActionUpdateThread
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.actionSystem.DefaultActionGroup
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.fileChooser.FileChooserFactory
+import com.intellij.openapi.fileChooser.FileSaverDescriptor
+import com.intellij.openapi.project.DumbAware
+import com.intellij.openapi.project.DumbAwareAction
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.ui.SimpleToolWindowPanel
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.openapi.wm.ToolWindow
+import com.intellij.openapi.wm.ToolWindowFactory
+import com.intellij.r.psi.RBundle
+import com.intellij.ui.components.JBLabel
+import com.intellij.ui.components.JBScrollPane
+import com.intellij.ui.content.ContentFactory
+import com.intellij.ui.table.JBTable
+import com.intellij.util.ui.JBUI
+import com.intellij.util.ui.UIUtil
+import org.jetbrains.r.console.RConsoleManagerImpl
+import java.awt.BorderLayout
+import java.nio.file.Paths
+import javax.swing.JPanel
+import javax.swing.Timer
+import javax.swing.table.AbstractTableModel
+
+class RInteropPerformanceToolWindowFactory : ToolWindowFactory, DumbAware {
+  override fun shouldBeAvailable(project: Project): Boolean {
+    return ApplicationManager.getApplication().isInternal || Registry.`is`("r.interop.performance.toolwindow", false)
+  }
+
+  override fun createToolWindowContent(project: Project, toolWindow: ToolWindow) {
+    val panel = RInteropPerformancePanel(project)
+    val content = ContentFactory.getInstance().createContent(panel, null, false)
+    content.setDisposer(panel)
+    toolWindow.contentManager.addContent(content)
+  }
+}
+
+private class RInteropPerformancePanel(private val project: Project) : SimpleToolWindowPanel(true, true), Disposable {
+  private val model = MetricsTableModel()
+  private val sessionsModel = SessionsTableModel()
+  private val refsLabel = JBLabel()
+  private val startupLabel = JBLabel()
+  private val refreshTimer = Timer(REFRESH_PERIOD_MS) { if (isShowing) refresh() }
+
+  init {
+    setContent(JPanel(BorderLayout()).apply {
+      add(JBScrollPane(JBTable(model).apply { autoCreateRowSorter = true }), BorderLayout.CENTER)
+      add(JPanel(BorderLayout()).apply {
+        add(JPanel(BorderLayout()).apply {
+          add(startupLabel.apply { border = JBUI.Borders.empty(2, 4) }, BorderLayout.NORTH)
+          add(refsLabel.apply { border = JBUI.Borders.empty(2, 4) }, BorderLayout.SOUTH)
+        }, BorderLayout.NORTH)
+        val sessionsTable = JBTable(sessionsModel)
+        add(JBScrollPane(sessionsTable).apply {
+          preferredSize = JBUI.size(0, sessionsTable.rowHeight * SESSION_ROWS + sessionsTable.tableHeader.preferredSize.height)
+        }, BorderLayout.CENTER)
+      }, BorderLayout.SOUTH)
+    })
+    val actions = DefaultActionGroup(
+      object : DumbAwareAction(RBundle.message("rinterop.performance.refresh"), null, AllIcons.Actions.Refresh) {
+        override fun actionPerformed(e: AnActionEvent) = refresh()
+      },
+      object : DumbAwareAction(RBundle.message("rinterop.performance.reset"), null, AllIcons.Actions.GC) {
+        override fun actionPerformed(e: AnActionEvent) {
+          currentMetrics()?.reset()
+          refresh()
+        }
+      },
+      object : DumbAwareAction(RBundle.message("rinterop.performance.export"), null, AllIcons.ToolbarDecorator.Export) {
+        override fun actionPerformed(e: AnActionEvent) = exportJson()
+
+        override fun update(e: AnActionEvent) {
+          e.presentation.isEnabled = currentMetrics() != null
+        }
+
+        override fun getActionUpdateThread() = ActionUpdateThread.BGT
+      }
+    )
+    toolbar = ActionManager.getInstance().createActionToolbar(TOOLBAR_PLACE, actions, true).also { it.targetComponent = this }.component
+    refreshTimer.start()
+    Disposer.register(this) { refreshTimer.stop() }
+  }
+
+  private fun currentInterop(): RInteropImpl? = RConsoleManagerImpl.getInstance(project).currentConsoleOrNull?.rInterop
+
+  private fun currentMetrics(): RInteropMetrics? = currentInterop()?.metrics
+
+  private fun refresh() {
+    model.setRows(currentMetrics()?.snapshot().orEmpty())
+    sessionsModel.setRows(RInteropConnectionManager.resourceUsage())
+    val interop = currentInterop()
+    UIUtil.invokeLaterIfNeeded {
+      refsLabel.text = interop?.let {
+        RBundle.message("rinterop.performance.persistent.refs", it.livePersistentRefCount, it.pendingPersistentRefCount)
+      }.orEmpty()
+      val timeline = interop?.startupTimeline
+      startupLabel.text = timeline?.timeToFirstPromptMs?.let { RBundle.message("rinterop.performance.startup", it.toString()) }.orEmpty()
+      startupLabel.toolTipText = timeline?.snapshot()?.joinToString("<br>", "<html>", "</html>") { phase ->
+        RBundle.message("rinterop.performance.startup.phase", phase.name, phase.startMs.toString(), phase.endMs?.toString() ?: "?")
+      }
+    }
+  }
+
+  private fun exportJson() {
+    val json = currentMetrics()?.toJson() ?: return
+    val descriptor = FileSaverDescriptor(RBundle.message("rinterop.performance.export"), "").apply {
+      withExtensionFilter("json")
+    }
+    val fileWrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+      .save(project.basePath?.let { Paths.get(it) }, "rinterop-metrics.json") ?: return
+    fileWrapper.file.writeText(json)
+  }
+
+  override fun dispose() {
+  }
+
+  private class MetricsTableModel : AbstractTableModel() {
+    private var rows: List<RInteropMetrics.MethodMetrics> = emptyList()
+
+    fun setRows(newRows: List<RInteropMetrics.MethodMetrics>) {
+      UIUtil.invokeLaterIfNeeded {
+        rows = newRows
+        fireTableDataChanged()
+      }
+    }
+
+    override fun getRowCount() = rows.size
+    override fun getColumnCount() = COLUMNS.size
+    override fun getColumnName(column: Int) = RBundle.message("rinterop.performance.column.${COLUMNS[column]}")
+
+    override fun getColumnClass(columnIndex: Int): Class<*> = when (columnIndex) {
+      0 -> String::class.java
+      1, 2, 3, 4, 8, 9 -> java.lang.Long::class.java
+      else -> java.lang.Double::class.java
+    }
+
+    override fun getValueAt(rowIndex: Int, columnIndex: Int): Any {
+      val row = rows[rowIndex]
+      return when (columnIndex) {
+        0 -> row.methodName
+        1 -> row.count
+        2 -> row.cancelled
+        3 -> row.failed
+        4 -> row.shared
+        5 -> row.p50Ms
+        6 -> row.p95Ms
+        7 -> row.p99Ms
+        8 -> row.bytesOut
+        9 -> row.bytesIn
+        else -> row.totalMs
+      }
+    }
+  }
+
+  /** Resource usage of all R sessions of the application, they share the connection resources */
+  private class SessionsTableModel : AbstractTableModel() {
+    private var rows: List<RInteropConnectionManager.ResourceUsage> = emptyList()
+
+    fun setRows(newRows: List<RInteropConnectionManager.ResourceUsage>) {
+      UIUtil.invokeLaterIfNeeded {
+        rows = newRows
+        fireTableDataChanged()
+      }
+    }
+
+    override fun getRowCount() = rows.size
+    override fun getColumnCount() = SESSION_COLUMNS.size
+    override fun getColumnName(column: Int) = RBundle.message("rinterop.performance.session.column.${SESSION_COLUMNS[column]}")
+
+    override fun getColumnClass(columnIndex: Int): Class<*> = when (columnIndex) {
+      0, 1 -> String::class.java
+      5, 6 -> java.lang.Integer::class.java
+      else -> java.lang.Long::class.java
+    }
+
+    override fun getValueAt(rowIndex: Int, columnIndex: Int): Any {
+      val row = rows[rowIndex]
+      return when (columnIndex) {
+        0 -> row.name
+        1 -> if (row.isUnixSocket) "unix" else "tcp"
+        2 -> row.calls
+        3 -> row.bytesOut
+        4 -> row.bytesIn
+        5 -> row.queueDepth
+        else -> row.livePersistentRefs
+      }
+    }
+  }
+
+  companion object {
+    private const val REFRESH_PERIOD_MS = 1000
+    private const val SESSION_ROWS = 4
+    private val SESSION_COLUMNS = arrayOf("name", "transport", "calls", "sent", "received", "queue", "refs")
+    private const val TOOLBAR_PLACE = "RInteropPerformance"
+    private val COLUMNS = arrayOf("method", "calls", "cancelled", "failed", "shared", "p50", "p95", "p99", "sent", "received", "total")
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.PersistentRefList
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.concurrency.CancellablePromise
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Collects released persistent references and disposes them with a single `disposePersistentRefs` call.
+ *
+ * The queue is flushed when R becomes idle, shortly after a release while R is idle,
+ * or immediately when [flushThreshold] references are pending.
+ * It also counts live references of the session, so that leaks in long-running consoles are visible.
+ */
+internal class RInteropRefReclamationQueue(
+  private val flushThreshold: Int,
+  private val flushDelayMs: Long,
+  private val dispose: (PersistentRefList) -> CancellablePromise<Empty>,
+) {
+  private val pending = ArrayList<Int>()
+  private val waiters = ArrayList<AsyncPromise<Empty>>()
+  private var isIdle = false
+  private var isFlushScheduled = false
+  private val liveRefs = AtomicInteger()
+
+  val liveRefCount: Int
+    get() = liveRefs.get()
+
+  val pendingCount: Int
+    get() = synchronized(this) { pending.size }
+
+  fun onCreated() {
+    liveRefs.incrementAndGet()
+  }
+
+  /** @return promise which is resolved when R has disposed [indices] */
+  fun release(indices: List<Int>): CancellablePromise<Empty> {
+    val promise = AsyncPromise<Empty>()
+    val flushNow: Boolean
+    val scheduleFlush: Boolean
+    synchronized(this) {
+      pending.addAll(indices)
+      waiters.add(promise)
+      liveRefs.addAndGet(-indices.size)
+      flushNow = pending.size >= flushThreshold
+      scheduleFlush = !flushNow && isIdle && !isFlushScheduled
+      if (scheduleFlush) isFlushScheduled = true
+    }
+    if (flushNow) {
+      flush()
+    }
+    else if (scheduleFlush) {
+      AppExecutorUtil.getAppScheduledExecutorService().schedule({
+        synchronized(this) { isFlushScheduled = false }
+        flush()
+      }, flushDelayMs, TimeUnit.MILLISECONDS)
+    }
+    return promise
+  }
+
+  fun setIdle(idle: Boolean) {
+    synchronized(this) { isIdle = idle }
+    if (idle) flush()
+  }
+
+  fun flush() {
+    val indices: List<Int>
+    val promises: List<AsyncPromise<Empty>>
+    synchronized(this) {
+      if (pending.isEmpty()) return
+      indices = pending.toList()
+      promises = waiters.toList()
+      pending.clear()
+      waiters.clear()
+    }
+    dispose(PersistentRefList.newBuilder().addAllIndices(indices).build())
+      .onSuccess { result -> promises.forEach { it.setResult(result) } }
+      .onError { e -> promises.forEach { it.setError(e) } }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.util.concurrency.AppExecutorUtil
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.concurrency.CancellablePromise
+import org.jetbrains.concurrency.resolvedCancellablePromise
+import java.util.concurrent.CancellationException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Merges requests issued within [delayMs] into a single call of [executeBatch].
+ * Keys requested by several callers are sent once, [executeBatch] must return values in the order of its keys.
+ * The merged call is cancelled only when all callers have cancelled their promises.
+ */
+internal class RInteropRequestBatcher<K : Any, V>(
+  private val delayMs: Long,
+  private val maxBatchSize: Int,
+  private val executeBatch: (List<K>) -> CancellablePromise<List<V>>,
+) {
+  private class Request<K, V>(val keys: List<K>, val promise: AsyncPromise<List<V>>)
+
+  private val pending = ArrayList<Request<K, V>>()
+  private var pendingKeys = 0
+  private var flushScheduled = false
+
+  fun request(keys: List<K>): CancellablePromise<List<V>> {
+    if (keys.isEmpty()) return resolvedCancellablePromise(emptyList())
+    val promise = AsyncPromise<List<V>>()
+    val flushNow = synchronized(this) {
+      pending.add(Request(keys, promise))
+      pendingKeys += keys.size
+      if (pendingKeys < maxBatchSize && !flushScheduled) {
+        flushScheduled = true
+        AppExecutorUtil.getAppScheduledExecutorService().schedule({ flush() }, delayMs, TimeUnit.MILLISECONDS)
+      }
+      pendingKeys >= maxBatchSize
+    }
+    if (flushNow) flush()
+    return promise
+  }
+
+  fun flush() {
+    val requests = synchronized(this) {
+      val result = pending.filter { !it.promise.isDone }
+      pending.clear()
+      pendingKeys = 0
+      flushScheduled = false
+      result
+    }
+    if (requests.isEmpty()) return
+    val keys = requests.flatMapTo(LinkedHashSet()) { it.keys }.toList()
+    val batch = try {
+      executeBatch(keys)
+    }
+    catch (e: Throwable) {
+      requests.forEach { it.promise.setError(e) }
+      return
+    }
+    batch.onSuccess { values ->
+      if (values.size != keys.size) {
+        val error = IllegalStateException("Batch response has ${values.size} values for ${keys.size} keys")
+        requests.forEach { it.promise.setError(error) }
+        return@onSuccess
+      }
+      val keyToValue = keys.zip(values).toMap()
+      requests.forEach { request -> request.promise.setResult(request.keys.map { keyToValue.getValue(it) }) }
+    }.onError { e ->
+      requests.forEach { it.promise.setError(e) }
+    }
+    val alive = AtomicInteger(requests.size)
+    requests.forEach { request ->
+      request.promise.onError {
+        if (it is CancellationException && alive.decrementAndGet() == 0) batch.cancel()
+      }
+    }
+  }
+}
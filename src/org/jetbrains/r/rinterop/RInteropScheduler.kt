@@ -0,0 +1,239 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.r.psi.rinterop.RInteropPriority
+import com.intellij.util.ConcurrencyUtil
+import com.intellij.util.concurrency.AppExecutorUtil
+import java.util.EnumMap
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Sequential executor of RInterop tasks which runs tasks of higher [RInteropPriority] first.
+ *
+ * Every [agingMs] of waiting raises a task by one priority class, so lower classes are never starved.
+ * [RInteropPriority.BACKGROUND] tasks are additionally held while foreground requests are in flight
+ * (see [requestStarted]), but not longer than [maxDeferMs].
+ * Tasks which became obsolete or were superseded by a newer task with the same key are dropped without running.
+ * [backing] must run one task at a time, it may be a sequential executor over a shared pool.
+ *
+ * A task must not wait for a request which is queued here: the request is sent only after the task finishes.
+ * Tasks call [sendQueuedRequests] before such a wait.
+ */
+internal class RInteropScheduler(
+  threadName: String,
+  private val agingMs: Long = AGING_MS,
+  private val maxDeferMs: Long = MAX_DEFER_MS,
+  private val backing: ExecutorService = ConcurrencyUtil.newSingleThreadExecutor(threadName),
+) : Executor {
+  data class Stats(val queueDepth: Int, val executed: Long, val dropped: Long, val averageWaitMs: Double, val maxWaitMs: Long)
+
+  private enum class TaskState { QUEUED, RUNNING, DROPPED }
+
+  private class Task(val priority: RInteropPriority, val key: Any?, val isRequest: Boolean, val isObsolete: () -> Boolean,
+                     val onDrop: () -> Unit, val body: () -> Unit) {
+    val enqueuedAt = System.nanoTime()
+    var state = TaskState.QUEUED
+  }
+
+  private class ClassStats {
+    var queueDepth = 0
+    var executed = 0L
+    var dropped = 0L
+    var totalWaitNs = 0L
+    var maxWaitNs = 0L
+  }
+
+  private val queues = RInteropPriority.entries.associateWithTo(EnumMap(RInteropPriority::class.java)) { ArrayDeque<Task>() }
+  private val stats = RInteropPriority.entries.associateWithTo(EnumMap(RInteropPriority::class.java)) { ClassStats() }
+  private val tasksByKey = HashMap<Any, Task>()
+  private var foregroundInFlight = 0
+  private var deferTimerScheduled = false
+  @Volatile
+  private var schedulerThread: Thread? = null
+
+  val isSchedulerThread: Boolean
+    get() = Thread.currentThread() === schedulerThread
+
+  override fun execute(command: Runnable) {
+    submit(RInteropPriority.INTERACTIVE) { command.run() }
+  }
+
+  /**
+   * [isObsolete] is checked right before running the task. [onDrop] is called if the task is dropped without running.
+   * A queued task with the same non-null [key] is dropped in favour of the new one.
+   * [isRequest] tasks only start a request without waiting for the response, see [sendQueuedRequests].
+   */
+  fun submit(priority: RInteropPriority, key: Any? = null, isRequest: Boolean = false, isObsolete: () -> Boolean = { false },
+             onDrop: () -> Unit = {}, body: () -> Unit) {
+    val task = Task(priority, key, isRequest, isObsolete, onDrop, body)
+    val superseded = synchronized(this) {
+      queues.getValue(priority).addLast(task)
+      stats.getValue(priority).queueDepth++
+      key?.let { tasksByKey.put(it, task) }?.takeIf { it.state == TaskState.QUEUED }?.also { markDropped(it) }
+    }
+    superseded?.onDrop?.invoke()
+    backing.execute { drain() }
+  }
+
+  /** Foreground requests are counted to hold back [RInteropPriority.BACKGROUND] tasks while they are processed */
+  fun requestStarted(priority: RInteropPriority) {
+    if (priority == RInteropPriority.BACKGROUND) return
+    synchronized(this) { foregroundInFlight++ }
+  }
+
+  fun requestFinished(priority: RInteropPriority) {
+    if (priority == RInteropPriority.BACKGROUND) return
+    val wakeUp = synchronized(this) { --foregroundInFlight == 0 && queues.getValue(RInteropPriority.BACKGROUND).isNotEmpty() }
+    if (wakeUp) backing.execute { drain() }
+  }
+
+  fun getStats(): Map<RInteropPriority, Stats> = synchronized(this) {
+    stats.mapValuesTo(EnumMap(RInteropPriority::class.java)) { (_, it) ->
+      Stats(it.queueDepth, it.executed, it.dropped,
+            if (it.executed == 0L) 0.0 else it.totalWaitNs.toDouble() / it.executed / 1_000_000,
+            TimeUnit.NANOSECONDS.toMillis(it.maxWaitNs))
+    }
+  }
+
+  /**
+   * Runs queued [submit] requests of all priorities right away, on the scheduler thread only.
+   * A running task calls it before it blocks on a response, since a request it waits for may be queued behind it.
+   */
+  fun sendQueuedRequests() {
+    check(isSchedulerThread) { "Queued requests are sent only by the scheduler thread" }
+    val now = System.nanoTime()
+    val (requests, dropped) = synchronized(this) {
+      val requests = ArrayList<Task>()
+      val dropped = ArrayList<Task>()
+      for (queue in queues.values) {
+        val taken = queue.filter { it.isRequest && it.state == TaskState.QUEUED }
+        if (taken.isEmpty()) continue
+        queue.removeAll(taken)
+        for (task in taken) {
+          if (task.isObsolete()) {
+            markDropped(task)
+            dropped.add(task)
+          }
+          else {
+            markStarted(task, now)
+            requests.add(task)
+          }
+        }
+      }
+      requests to dropped
+    }
+    dropped.forEach { it.onDrop() }
+    requests.forEach { run(it) }
+  }
+
+  fun shutdown() {
+    backing.shutdown()
+  }
+
+  private fun drain() {
+    schedulerThread = Thread.currentThread()
+    try {
+      while (true) {
+        val (task, dropped) = synchronized(this) { poll() }
+        dropped.forEach { it.onDrop() }
+        if (task == null) return
+        run(task)
+      }
+    }
+    finally {
+      // A pooled thread serves other sessions afterwards
+      schedulerThread = null
+    }
+  }
+
+  private fun run(task: Task) {
+    try {
+      task.body()
+    }
+    catch (e: Throwable) {
+      LOG.error(e)
+    }
+  }
+
+  private fun poll(): Pair<Task?, List<Task>> {
+    val now = System.nanoTime()
+    val dropped = ArrayList<Task>()
+    var best: Task? = null
+    var bestRank = Long.MAX_VALUE
+    var deferred = false
+    for ((priority, queue) in queues) {
+      while (queue.isNotEmpty()) {
+        val head = queue.first()
+        when {
+          head.state == TaskState.DROPPED -> queue.removeFirst()
+          head.isObsolete() -> {
+            queue.removeFirst()
+            markDropped(head)
+            dropped.add(head)
+          }
+          else -> break
+        }
+      }
+      val head = queue.firstOrNull() ?: continue
+      val waitMs = TimeUnit.NANOSECONDS.toMillis(now - head.enqueuedAt)
+      if (priority == RInteropPriority.BACKGROUND && foregroundInFlight > 0 && waitMs < maxDeferMs) {
+        deferred = true
+        continue
+      }
+      val rank = priority.ordinal * agingMs - waitMs
+      if (rank < bestRank) {
+        best = head
+        bestRank = rank
+      }
+    }
+    if (best == null) {
+      if (deferred) scheduleDeferredDrain()
+      return null to dropped
+    }
+    queues.getValue(best.priority).removeFirst()
+    markStarted(best, now)
+    return best to dropped
+  }
+
+  private fun markStarted(task: Task, now: Long) {
+    task.state = TaskState.RUNNING
+    task.key?.let { tasksByKey.remove(it, task) }
+    stats.getValue(task.priority).apply {
+      val waitNs = now - task.enqueuedAt
+      queueDepth--
+      executed++
+      totalWaitNs += waitNs
+      maxWaitNs = maxOf(maxWaitNs, waitNs)
+    }
+  }
+
+  private fun markDropped(task: Task) {
+    task.state = TaskState.DROPPED
+    task.key?.let { tasksByKey.remove(it, task) }
+    stats.getValue(task.priority).apply {
+      queueDepth--
+      dropped++
+    }
+  }
+
+  private fun scheduleDeferredDrain() {
+    if (deferTimerScheduled) return
+    deferTimerScheduled = true
+    AppExecutorUtil.getAppScheduledExecutorService().schedule({
+      synchronized(this) { deferTimerScheduled = false }
+      backing.execute { drain() }
+    }, maxDeferMs, TimeUnit.MILLISECONDS)
+  }
+
+  companion object {
+    private const val AGING_MS = 200L
+    private const val MAX_DEFER_MS = 1000L
+    private val LOG = Logger.getInstance(RInteropScheduler::class.java)
+  }
+}
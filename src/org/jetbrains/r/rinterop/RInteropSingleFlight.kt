@@ -0,0 +1,95 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.GeneratedMessageV3
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.concurrency.CancellablePromise
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Shares one in-flight request between concurrent identical read-only calls.
+ *
+ * Calls are identical if they have the same method name, the same serialized request and equal contexts.
+ * The caller puts into the context whatever must not be mixed between flights,
+ * e.g. the priority, so an urgent call does not wait for a deferred request,
+ * and the command epoch, so a call made after a command does not get a result computed before it.
+ * Every caller gets its own promise, so cancelling it does not affect the other callers.
+ * The shared request is cancelled only when all of its callers are cancelled.
+ */
+internal class RInteropSingleFlight(private val onShared: (methodName: String) -> Unit = {}) {
+  private data class Key(val methodName: String, val request: ByteString, val context: Any?)
+
+  private class Flight<T> {
+    val result = AsyncPromise<T>()
+    var source: CancellablePromise<T>? = null
+    var callers = 0
+    var isAbandoned = false
+  }
+
+  private val flights = HashMap<Key, Flight<*>>()
+  private val calls = AtomicLong()
+  private val sharedCalls = AtomicLong()
+
+  /** Part of calls which joined a request already in flight */
+  val hitRatio: Double
+    get() = calls.get().let { if (it == 0L) 0.0 else sharedCalls.get().toDouble() / it }
+
+  fun <T> execute(methodName: String, request: GeneratedMessageV3, context: Any?,
+                  send: () -> CancellablePromise<T>): CancellablePromise<T> {
+    val key = Key(methodName, request.toByteString(), context)
+    calls.incrementAndGet()
+    val flight: Flight<T>
+    val isNew: Boolean
+    synchronized(flights) {
+      @Suppress("UNCHECKED_CAST")
+      val existing = flights[key] as Flight<T>?
+      isNew = existing == null
+      flight = existing ?: Flight<T>().also { flights[key] = it }
+      flight.callers++
+    }
+    if (isNew) {
+      flight.result.onProcessed {
+        synchronized(flights) { flights.remove(key, flight) }
+      }
+      val source = try {
+        send()
+      }
+      catch (e: Throwable) {
+        // Callers which already joined get the error too, the next call starts a new flight
+        flight.result.setError(e)
+        null
+      }
+      if (source != null) {
+        synchronized(flights) {
+          flight.source = source
+          if (flight.isAbandoned) source.cancel()
+        }
+        source.onSuccess { flight.result.setResult(it) }.onError { flight.result.setError(it) }
+      }
+    }
+    else {
+      sharedCalls.incrementAndGet()
+      onShared(methodName)
+    }
+    val caller = AsyncPromise<T>()
+    flight.result.onSuccess { caller.setResult(it) }.onError { caller.setError(it) }
+    caller.onError {
+      if (caller.isCancelled) release(key, flight)
+    }
+    return caller
+  }
+
+  private fun release(key: Key, flight: Flight<*>) {
+    val source = synchronized(flights) {
+      if (--flight.callers > 0 || flight.isAbandoned) return
+      flight.isAbandoned = true
+      flights.remove(key, flight)
+      flight.source
+    }
+    source?.cancel()
+  }
+}
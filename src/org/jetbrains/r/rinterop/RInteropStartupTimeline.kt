@@ -0,0 +1,68 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.openapi.diagnostic.Logger
+import org.jetbrains.concurrency.Promise
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * Timestamps of console startup phases in milliseconds since RWrapper was launched.
+ *
+ * Phases may overlap, as state and namespaces load while the console UI is created.
+ * [timeToFirstPromptMs] is the number to watch for regressions, it is logged when the first prompt arrives.
+ */
+class RInteropStartupTimeline {
+  data class Phase(val name: String, val startMs: Long, val endMs: Long?) {
+    val durationMs: Long?
+      get() = endMs?.let { it - startMs }
+  }
+
+  private val startNanos = System.nanoTime()
+  private val phases = ArrayList<Phase>()
+
+  private val firstPromptMs = AtomicReference<Long?>(null)
+
+  val timeToFirstPromptMs: Long?
+    get() = firstPromptMs.get()
+
+  fun <T> phase(name: String, f: () -> T): T {
+    val startMs = nowMs()
+    try {
+      return f()
+    }
+    finally {
+      add(Phase(name, startMs, nowMs()))
+    }
+  }
+
+  fun <T> phaseAsync(name: String, promise: Promise<T>): Promise<T> {
+    val startMs = nowMs()
+    return promise.onProcessed { add(Phase(name, startMs, nowMs())) }
+  }
+
+  fun firstPrompt() {
+    val now = nowMs()
+    if (!firstPromptMs.compareAndSet(null, now)) return
+    add(Phase(FIRST_PROMPT, now, now))
+    LOG.info("R console startup: $this")
+  }
+
+  fun snapshot(): List<Phase> = synchronized(phases) { phases.sortedBy { it.startMs } }
+
+  override fun toString(): String = snapshot().joinToString(", ") { "${it.name} ${it.startMs}..${it.endMs ?: "?"} ms" }
+
+  private fun add(phase: Phase) {
+    synchronized(phases) { phases.add(phase) }
+  }
+
+  private fun nowMs() = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+
+  companion object {
+    const val FIRST_PROMPT = "firstPrompt"
+    private val LOG = Logger.getInstance(RInteropStartupTimeline::class.java)
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.r.psi.RBundle
+import com.intellij.r.psi.rinterop.AsyncEvent
+import com.intellij.r.psi.rinterop.CommandOutput
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Buffers async events between the gRPC stream and the RInterop thread, which processes them strictly in arrival order.
+ *
+ * Consecutive text events of the same type are merged into batches of at most [maxBatchBytes] (a single chunk is never split),
+ * other events are kept in the queue as they are, so text is never reordered with them.
+ * [offer] never blocks. The stream is flow-controlled: [requestNext] asks it for the next event.
+ * When more than [bufferLimitBytes] of text are pending, the next event is requested only after a [drain],
+ * so the server waits, or, if [dropOnOverflow] is set, text is skipped and a notice about the skipped amount is left in its place.
+ */
+internal class RInteropTextPipeline(
+  private val maxBatchBytes: Int,
+  private val bufferLimitBytes: Long,
+  private val dropOnOverflow: Boolean,
+  private val requestNext: () -> Unit = {},
+) {
+  private sealed class Entry {
+    class Text(val type: CommandOutput.Type, val text: ByteString) : Entry()
+    class Skipped(var bytes: Long) : Entry()
+    class Event(val event: AsyncEvent) : Entry()
+  }
+
+  private val lock = ReentrantLock()
+  private val entries = ArrayDeque<Entry>()
+  private var pendingBytes = 0L
+  private var drainScheduled = false
+  private var isPaused = false
+  private var isClosed = false
+
+  /**
+   * @return true if a [drain] has to be scheduled for the offered event
+   */
+  fun offer(event: AsyncEvent): Boolean {
+    val (scheduleDrain, requestNow) = lock.withLock {
+      if (isClosed) return false
+      if (event.eventCase != AsyncEvent.EventCase.TEXT) {
+        entries.addLast(Entry.Event(event))
+      }
+      else {
+        val text = event.text.text
+        if (dropOnOverflow && pendingBytes >= bufferLimitBytes) {
+          val last = entries.lastOrNull()
+          if (last is Entry.Skipped) last.bytes += text.size() else entries.addLast(Entry.Skipped(text.size().toLong()))
+        }
+        else {
+          entries.addLast(Entry.Text(event.text.type, text))
+          pendingBytes += text.size()
+        }
+      }
+      isPaused = !dropOnOverflow && pendingBytes >= bufferLimitBytes
+      scheduleDrain() to !isPaused
+    }
+    if (requestNow) requestNext()
+    return scheduleDrain
+  }
+
+  /** Returns pending events in arrival order, text merged into batches */
+  fun drain(): List<AsyncEvent> {
+    val (taken, resume) = lock.withLock {
+      drainScheduled = false
+      pendingBytes = 0
+      val resume = isPaused && !isClosed
+      isPaused = false
+      entries.toList().also { entries.clear() } to resume
+    }
+    if (resume) requestNext()
+    val result = ArrayList<AsyncEvent>()
+    var type: CommandOutput.Type? = null
+    var text = ByteString.EMPTY
+    fun flush() {
+      if (type != null && !text.isEmpty) result.add(textEvent(type!!, text))
+      type = null
+      text = ByteString.EMPTY
+    }
+    for (entry in taken) {
+      when (entry) {
+        is Entry.Text -> {
+          if (entry.type != type || text.size() + entry.text.size() > maxBatchBytes) flush()
+          type = entry.type
+          text = text.concat(entry.text)
+        }
+        is Entry.Skipped -> {
+          flush()
+          val notice = "\n" + RBundle.message("rinterop.output.skipped", StringUtil.formatFileSize(entry.bytes)) + "\n"
+          result.add(textEvent(CommandOutput.Type.STDERR, ByteString.copyFromUtf8(notice)))
+        }
+        is Entry.Event -> {
+          flush()
+          result.add(entry.event)
+        }
+      }
+    }
+    flush()
+    return result
+  }
+
+  /** Events offered after this are ignored */
+  fun close() = lock.withLock {
+    isClosed = true
+  }
+
+  private fun scheduleDrain(): Boolean {
+    if (drainScheduled) return false
+    drainScheduled = true
+    return true
+  }
+
+  private fun textEvent(type: CommandOutput.Type, text: ByteString): AsyncEvent {
+    return AsyncEvent.newBuilder().setText(CommandOutput.newBuilder().setType(type).setText(text)).build()
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+
+/**
+ * Decodes UTF-8 text which arrives in chunks, e.g. [com.intellij.r.psi.rinterop.CommandOutput] of one request.
+ *
+ * A code point split between chunks is kept until its remaining bytes arrive, so it is not replaced by two
+ * malformed characters. Complete code points of a chunk are decoded once, directly from the chunk.
+ * Malformed input is replaced like [ByteString.toStringUtf8] does.
+ * The decoder is not thread-safe, gRPC delivers chunks of one stream sequentially.
+ */
+internal class RInteropUtf8Decoder {
+  private val pending = ByteArray(MAX_CODE_POINT_BYTES)
+  private var pendingSize = 0
+
+  fun decode(chunk: ByteString): String {
+    var start = 0
+    var prefix = ""
+    if (pendingSize > 0) {
+      val expected = codePointLength(pending[0])
+      while (pendingSize < expected && start < chunk.size() && isContinuation(chunk.byteAt(start))) {
+        pending[pendingSize++] = chunk.byteAt(start++)
+      }
+      if (pendingSize < expected && start == chunk.size()) return ""
+      prefix = flush()
+    }
+    val end = completeEnd(chunk, start)
+    for (i in end until chunk.size()) {
+      pending[pendingSize++] = chunk.byteAt(i)
+    }
+    if (start == end) return prefix
+    val text = if (start == 0 && end == chunk.size()) chunk.toStringUtf8() else chunk.substring(start, end).toStringUtf8()
+    return if (prefix.isEmpty()) text else prefix + text
+  }
+
+  /** Returns bytes of an incomplete code point kept from the last chunk, decoded as malformed input */
+  fun flush(): String {
+    if (pendingSize == 0) return ""
+    return String(pending, 0, pendingSize, Charsets.UTF_8).also { pendingSize = 0 }
+  }
+
+  companion object {
+    private const val MAX_CODE_POINT_BYTES = 4
+
+    /** End of the last complete code point in [chunk], the bytes after it start a code point continued in the next chunk */
+    private fun completeEnd(chunk: ByteString, start: Int): Int {
+      val size = chunk.size()
+      for (i in size - 1 downTo maxOf(start, size - MAX_CODE_POINT_BYTES + 1)) {
+        val b = chunk.byteAt(i)
+        if (isContinuation(b)) continue
+        return if (i + codePointLength(b) > size) i else size
+      }
+      return size
+    }
+
+    private fun isContinuation(b: Byte) = b.toInt() and 0xC0 == 0x80
+
+    private fun codePointLength(lead: Byte): Int {
+      val b = lead.toInt() and 0xFF
+      return when {
+        b and 0xE0 == 0xC0 -> 2
+        b and 0xF0 == 0xE0 -> 3
+        b and 0xF8 == 0xF0 -> 4
+        else -> 1
+      }
+    }
+  }
+}
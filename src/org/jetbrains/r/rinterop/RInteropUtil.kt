@@ -45,14 +45,21 @@ import java.util.concurrent.TimeoutException
 
 object RInteropUtil {
   val LOG = Logger.getInstance(RInteropUtil.javaClass)
-  fun runRWrapperAndInterop(interpreter: RInterpreter, workingDirectory: String = interpreter.basePath): Promise<RInteropImpl> {
+  /**
+   * @param loadWorkspace whether the session uses the project workspace file, which is loaded on start and saved on exit
+   */
+  fun runRWrapperAndInterop(interpreter: RInterpreter, workingDirectory: String = interpreter.basePath,
+                            loadWorkspace: Boolean = true): Promise<RInteropImpl> {
     val promise = AsyncPromise<RInteropImpl>()
     var createdProcess: ProcessHandler? = null
+    val timeline = RInteropStartupTimeline()
     ProcessIOExecutorService.INSTANCE.execute {
-      runRWrapper(interpreter, workingDirectory).onError {
+      timeline.phaseAsync("rwrapper", runRWrapper(interpreter, workingDirectory)).onError {
         promise.setError(it)
       }.onSuccess { (process, paths) ->
         createdProcess = process
+        process.putUserData(PROCESS_STARTUP_TIMELINE, timeline)
+        if (!loadWorkspace) process.putUserData(PROCESS_WITHOUT_WORKSPACE, true)
         createRInterop(process, promise, paths, interpreter)
       }
     }
@@ -63,7 +70,8 @@ object RInteropUtil {
                              promise: AsyncPromise<RInteropImpl>,
                              paths: RPaths,
                              interpreter: RInterpreter) {
-    val linePromise = AsyncPromise<String>()
+    val unixSocketPath = process.getUserData(PROCESS_UNIX_SOCKET_PATH)
+    val handshake = RWrapperHandshake(expectUnixSocket = unixSocketPath != null)
     var rInteropForReport: RInteropImpl? = null
     val stdout = StringBuilder()
     val stderr = StringBuffer()
@@ -80,21 +88,22 @@ object RInteropUtil {
         val text = event.text
         when {
           ProcessOutputType.isStderr(outputType) || ProcessOutputType.isSystem(outputType) -> {
-            if (linePromise.state == Promise.State.PENDING) {
+            if (handshake.port.state == Promise.State.PENDING) {
               stderr.append(text)
             }
             LOG.debug("RWRAPPER " + StringUtil.escapeStringCharacters(text))
           }
           ProcessOutputType.isStdout(outputType) -> {
-            if (linePromise.state != Promise.State.PENDING) return
+            if (handshake.unixSocketPath.state != Promise.State.PENDING) return
             stdout.append(text)
-            if (text.contains('\n')) linePromise.setResult(stdout.toString())
+            handshake.append(text)
           }
         }
       }
 
       override fun processTerminated(event: ProcessEvent) {
         LOG.info("RWRAPPER TERMINATED, code=${event.exitCode}")
+        unixSocketPath?.let { RInteropChannels.deleteUnixSocket(it) }
         if (stdout.isNotBlank()) {
           LOG.info(stdout.toString())
         }
@@ -103,8 +112,8 @@ object RInteropUtil {
           reportCrash(interpreter.project, rInteropForReport, updateCrashes, process.getUserData(PROCESS_CRASH_REPORT_FILE),
                       process.getUserData(PROCESS_TERMINATED_WITH_REPORT) ?: false)
         }
-        if (linePromise.state == Promise.State.PENDING) {
-          linePromise.setError(RuntimeException(
+        if (handshake.unixSocketPath.state == Promise.State.PENDING) {
+          handshake.cancel(RuntimeException(
             """RWrapper terminated, exitcode: ${event.exitCode}${System.lineSeparator()}
                                 ${generateErrorReport()}
                                 """.trimIndent()))
@@ -121,15 +130,22 @@ object RInteropUtil {
     process.startNotify()
     ProcessIOExecutorService.INSTANCE.execute {
       try {
-        val line = try {
-          linePromise.blockingGet(RInterpreterUtil.RWRAPPER_INITIALIZED_TIMEOUT) ?: ""
+        process.getUserData(PROCESS_STARTUP_TIMELINE)?.phaseAsync("port", handshake.port)
+        val port = try {
+          handshake.port.blockingGet(RInterpreterUtil.RWRAPPER_INITIALIZED_TIMEOUT)
         } catch (e: TimeoutException) {
           throw RuntimeException("""RWrapper does not produce output
           ${generateErrorReport()}
           """.trimMargin())
+        } ?: throw RuntimeException("Invalid RWrapper output")
+        // RWrapper which does not support Unix sockets ignores the argument and prints nothing more
+        val announcedUnixSocketPath = try {
+          handshake.unixSocketPath.blockingGet(UNIX_SOCKET_ANNOUNCE_TIMEOUT_MS)
+        } catch (e: TimeoutException) {
+          LOG.warn("RWrapper does not announce the Unix socket, using TCP")
+          null
         }
-        val port = Regex("PORT (\\d+)\\n").find(line)?.groupValues?.getOrNull(1)?.toIntOrNull()
-                   ?: throw RuntimeException("Invalid RWrapper output")
+        process.putUserData(PROCESS_ANNOUNCED_UNIX_SOCKET_PATH, announcedUnixSocketPath)
         val rInterop = interpreter.createRInteropForProcess(process, port)
         rInteropForReport = rInterop as RInteropImpl?
         promise.setResult(rInterop)
@@ -185,6 +201,7 @@ object RInteropUtil {
 
   private fun runRWrapper(interpreter: RInterpreter, workingDirectory: String): Promise<Pair<ProcessHandler, RPaths>> {
     val result = AsyncPromise<Pair<ProcessHandler, RPaths>>()
+    var unixSocketPath: String? = null
     try {
       val paths = getRPaths(interpreter)
       val version = interpreter.version
@@ -231,6 +248,11 @@ object RInteropUtil {
       val crashReportFile = interpreter.createTempFileOnHost("rwrapper-crash-report.txt")
       command = command.withParameters("--crash-report-file", crashReportFile)
 
+      if (RInteropChannels.isUnixSocketEnabled(interpreter)) {
+        unixSocketPath = RInteropChannels.createUnixSocketPath()
+        command = command.withParameters("--unix-socket", unixSocketPath)
+      }
+
       command = command.withEnvironment("PATH", paths.path)
       command = when (interpreter.hostOS) {
         OperatingSystem.MAC_OS -> {
@@ -246,8 +268,10 @@ object RInteropUtil {
       }
       result.setResult(interpreter.runProcessOnHost(command, workingDirectory, true).apply {
         this.putUserData(PROCESS_CRASH_REPORT_FILE, crashReportFile)
+        this.putUserData(PROCESS_UNIX_SOCKET_PATH, unixSocketPath)
       } to paths)
     } catch (t: Throwable) {
+      unixSocketPath?.let { RInteropChannels.deleteUnixSocket(it) }
       result.setError(t)
     }
     return result
@@ -314,8 +338,16 @@ object RInteropUtil {
 
   fun createRInteropForLocalProcess(interpreter: RInterpreter, processHandler: ProcessHandler, port: Int): RInteropImpl {
     val project = interpreter.project
-    val rInterop = RInteropImpl(interpreter, processHandler, "127.0.0.1", port, project)
-    val workspaceFile = if (ApplicationManager.getApplication().isUnitTestMode) {
+    val timeline = processHandler.getUserData(PROCESS_STARTUP_TIMELINE) ?: RInteropStartupTimeline()
+    val rInterop = timeline.phase("connect") {
+      val connection = RInteropChannels.connect("127.0.0.1", port, processHandler.getUserData(PROCESS_ANNOUNCED_UNIX_SOCKET_PATH),
+                                                RInteropImpl.MAX_MESSAGE_SIZE)
+      RInteropImpl(interpreter, processHandler, connection, project)
+    }
+    rInterop.startupTimeline = timeline
+    val workspaceFile = if (processHandler.getUserData(PROCESS_WITHOUT_WORKSPACE) == true) {
+      null
+    } else if (ApplicationManager.getApplication().isUnitTestMode) {
       project.getUserData(WORKSPACE_FILE_FOR_TESTS)
     } else {
       val filename = interpreter.interpreterLocation.hashCode().toString()
@@ -324,7 +356,7 @@ object RInteropUtil {
     val rScriptsPath = RPluginUtil.findFileInRHelpers("R").takeIf { it.exists() }?.absolutePath
                        ?: throw RuntimeException("R Scripts not found")
     val projectDir = project.basePath ?: throw RuntimeException("Project dir is null")
-    rInterop.init(rScriptsPath, projectDir, workspaceFile)
+    timeline.phase("init") { rInterop.init(rScriptsPath, projectDir, workspaceFile) }
     rInterop.putUserData(TERMINATE_WITH_REPORT_HANDLER) {
       val process = (processHandler as? OSProcessHandler)?.process ?: return@putUserData
       if (SystemInfo.isWindows) {
@@ -338,6 +370,7 @@ object RInteropUtil {
 
   private val oldCrashes: MutableSet<String> = HashSet()
 
+  private const val UNIX_SOCKET_ANNOUNCE_TIMEOUT_MS = 1000
   private const val MAX_MINIDUMP_COUNT = 20
   private const val MINIDUMP_LIFETIME = 1000 * 60 * 60 * 24 * 7 // one week
 
@@ -363,6 +396,10 @@ operating systems, but generally includes the following:
   """
 
   private val PROCESS_CRASH_REPORT_FILE = Key<String>("org.jetbrains.r.rinterop.RInteropUtil.crashReportFile")
+  private val PROCESS_UNIX_SOCKET_PATH = Key<String>("org.jetbrains.r.rinterop.RInteropUtil.unixSocketPath")
+  private val PROCESS_ANNOUNCED_UNIX_SOCKET_PATH = Key<String>("org.jetbrains.r.rinterop.RInteropUtil.announcedUnixSocketPath")
+  private val PROCESS_STARTUP_TIMELINE = Key<RInteropStartupTimeline>("org.jetbrains.r.rinterop.RInteropUtil.startupTimeline")
+  private val PROCESS_WITHOUT_WORKSPACE = Key<Boolean>("org.jetbrains.r.rinterop.RInteropUtil.withoutWorkspace")
   val PROCESS_TERMINATED_WITH_REPORT = Key<Boolean>("org.jetbrains.r.rinterop.RInteropUtil.terminatedWithReport")
   val WORKSPACE_FILE_FOR_TESTS = Key<String>("org.jetbrains.r.rinterop.RInteropUtil.workspaceFileForTests")
   val TERMINATE_WITH_REPORT_HANDLER = Key<() -> Unit>("org.jetbrains.r.rinterop.RInteropUtil.terminateWithReportHandler")
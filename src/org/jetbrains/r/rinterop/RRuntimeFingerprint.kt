@@ -0,0 +1,53 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.r.psi.rinterop.RValue
+import com.intellij.r.psi.rinterop.RValueDataFrame
+import com.intellij.r.psi.rinterop.RValueEnvironment
+import com.intellij.r.psi.rinterop.RValueFunction
+import com.intellij.r.psi.rinterop.RValueList
+import com.intellij.r.psi.rinterop.RValueMatrix
+import com.intellij.r.psi.rinterop.RVar
+
+/**
+ * Part of the session state besides loaded namespaces which resolve and highlighting depend on
+ * (see [com.intellij.r.psi.console.RConsoleRuntimeInfo]): the working directory and the class and shape of global variables.
+ * Values themselves are not compared, so assigning a new number to `x` keeps PSI caches,
+ * while rebinding `df` to a table of another class or size drops them.
+ *
+ * Only the first [MAX_BINDINGS] global variables are taken, the rest is noticed only by [globalEnvSize].
+ */
+internal data class RRuntimeFingerprint(
+  val globalEnv: Map<String, Binding>,
+  val globalEnvSize: Long,
+  val workingDir: String,
+) {
+  /** [shape] is the size of a table, a matrix or a list, the header of a function or the name of an environment */
+  data class Binding(val cls: List<String>, val shape: String)
+
+  /** True for the first check, since PSI caches may have been built without the session */
+  fun isChangedFrom(previous: RRuntimeFingerprint?): Boolean = previous != this
+
+  companion object {
+    const val MAX_BINDINGS = 1000L
+
+    fun create(globalEnv: List<RVar>, globalEnvSize: Long, workingDir: String): RRuntimeFingerprint {
+      return RRuntimeFingerprint(globalEnv.associate { it.name to binding(it.value) }, globalEnvSize, workingDir)
+    }
+
+    fun binding(value: RValue): Binding {
+      val shape = when (value) {
+        is RValueDataFrame -> "${value.rows}x${value.cols}"
+        is RValueMatrix -> value.dim.joinToString("x")
+        is RValueList -> value.length.toString()
+        is RValueFunction -> value.header
+        is RValueEnvironment -> value.envName
+        else -> ""
+      }
+      return Binding(value.cls, shape)
+    }
+  }
+}
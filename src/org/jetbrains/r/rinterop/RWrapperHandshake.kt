@@ -0,0 +1,55 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import org.jetbrains.concurrency.AsyncPromise
+
+/**
+ * Parses the lines RWrapper prints to stdout on startup, the text may arrive in arbitrary chunks.
+ *
+ * The first line is `PORT <port>`. If RWrapper was asked to listen on a Unix socket, the second line is `UNIX <path>`,
+ * or `UNIX -` if it could not listen there. Any other second line ends the handshake without a socket.
+ */
+internal class RWrapperHandshake(private val expectUnixSocket: Boolean) {
+  /** Resolves to null if the first line does not announce a port */
+  val port = AsyncPromise<Int?>()
+  /** Resolves after [port], to null if there is no socket to connect to */
+  val unixSocketPath = AsyncPromise<String?>()
+
+  private val buffer = StringBuilder()
+
+  fun append(text: String) {
+    if (unixSocketPath.isDone) return
+    buffer.append(text)
+    while (!unixSocketPath.isDone) {
+      val end = buffer.indexOf("\n").takeIf { it >= 0 } ?: return
+      val line = buffer.substring(0, end).trimEnd('\r')
+      buffer.delete(0, end + 1)
+      onLine(line)
+    }
+  }
+
+  /** Called when RWrapper terminates or does not answer in time */
+  fun cancel(error: Throwable) {
+    port.setError(error)
+    unixSocketPath.setError(error)
+  }
+
+  private fun onLine(line: String) {
+    if (!port.isDone) {
+      val value = PORT_REGEX.find(line)?.groupValues?.get(1)?.toIntOrNull()
+      port.setResult(value)
+      if (value == null || !expectUnixSocket) unixSocketPath.setResult(null)
+    }
+    else {
+      unixSocketPath.setResult(UNIX_REGEX.find(line)?.groupValues?.get(1)?.takeIf { it != "-" })
+    }
+  }
+
+  companion object {
+    private val PORT_REGEX = Regex("PORT (\\d+)")
+    private val UNIX_REGEX = Regex("UNIX (\\S+)")
+  }
+}
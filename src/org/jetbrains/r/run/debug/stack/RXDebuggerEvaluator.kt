@@ -17,8 +17,11 @@ class RXDebuggerEvaluator(private val stackFrame: RXStackFrame, private var pare
   override fun evaluate(expression: String, callback: XEvaluationCallback, expressionPosition: XSourcePosition?) {
     RReference.expressionRef(expression, stackFrame.loader.obj).copyToPersistentRef(parentDisposable).onSuccess {
       it.getValueInfoAsync().onSuccess { rValue ->
-        callback.evaluated(RXVar(RVar(expression, it, rValue), stackFrame)
-                             .also { rxVar -> setObjectSizes(listOf(rxVar), stackFrame) })
+        val rxVar = RXVar(RVar(expression, it, rValue), stackFrame)
+        loadObjectSizes(listOf(rxVar.rVar), stackFrame).onSuccess { sizes ->
+          rxVar.objectSize = sizes[rxVar.rVar.ref]
+          callback.evaluated(rxVar)
+        }
       }.onError {
         callback.errorOccurred("")
       }
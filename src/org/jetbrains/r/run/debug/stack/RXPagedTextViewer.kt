@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.debug.stack
+
+import com.intellij.openapi.application.ModalityState
+import com.intellij.openapi.application.invokeLater
+import com.intellij.openapi.editor.colors.EditorColorsManager
+import com.intellij.openapi.editor.colors.EditorFontType
+import com.intellij.openapi.ui.popup.JBPopupFactory
+import com.intellij.openapi.ui.popup.JBPopupListener
+import com.intellij.openapi.ui.popup.LightweightWindowEvent
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.text.StringUtil
+import com.intellij.r.psi.RBundle
+import com.intellij.r.psi.rinterop.RPagedText
+import com.intellij.ui.ScrollPaneFactory
+import com.intellij.ui.components.JBList
+import com.intellij.util.ui.JBUI
+import javax.swing.AbstractListModel
+
+/**
+ * Shows [RPagedText] in a list which loads pages of lines when they are scrolled into view.
+ * Only the most recently shown pages are kept, so the viewer does not grow with the size of the value.
+ */
+internal object RXPagedTextViewer {
+  private const val PAGE_LINES = 500
+  private const val MAX_PAGES = 16
+
+  fun show(text: RPagedText) {
+    val list = JBList(PagedTextListModel(text))
+    val font = EditorColorsManager.getInstance().globalScheme.getFont(EditorFontType.PLAIN)
+    val metrics = list.getFontMetrics(font)
+    list.font = font
+    // Fixed cell sizes keep JList from rendering every line to compute the preferred size
+    list.fixedCellHeight = metrics.height
+    list.fixedCellWidth = (text.firstPage.maxOfOrNull { metrics.stringWidth(it) } ?: 0) + JBUI.scale(16)
+    val popup = JBPopupFactory.getInstance().createComponentPopupBuilder(ScrollPaneFactory.createScrollPane(list), list)
+      .setTitle(RBundle.message("rx.presentation.utils.paged.text.title", text.lineCount, StringUtil.formatFileSize(text.byteSize)))
+      .setResizable(true)
+      .setMovable(true)
+      .setRequestFocus(true)
+      .addListener(object : JBPopupListener {
+        override fun onClosed(event: LightweightWindowEvent) {
+          Disposer.dispose(text)
+        }
+      })
+      .createPopup()
+    popup.showInFocusCenter()
+  }
+
+  private class PagedTextListModel(private val text: RPagedText) : AbstractListModel<String>() {
+    private val first = text.firstPage
+    private val pages = object : LinkedHashMap<Int, List<String>>(MAX_PAGES, 0.75f, true) {
+      override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Int, List<String>>?) = size > MAX_PAGES
+    }
+    private val loading = HashSet<Int>()
+
+    override fun getSize(): Int = text.lineCount
+
+    override fun getElementAt(index: Int): String {
+      if (index < first.size) return first[index]
+      val page = (index - first.size) / PAGE_LINES
+      pages[page]?.let { return it.getOrElse((index - first.size) % PAGE_LINES) { "" } }
+      requestPage(page)
+      return RBundle.message("rx.presentation.utils.paged.text.loading")
+    }
+
+    private fun requestPage(page: Int) {
+      if (!loading.add(page)) return
+      val start = first.size + page * PAGE_LINES
+      text.getLines(start, PAGE_LINES).onProcessed { lines ->
+        invokeLater(ModalityState.any()) {
+          loading.remove(page)
+          if (Disposer.isDisposed(text)) return@invokeLater
+          // A failed page is shown empty rather than requested again on every repaint
+          pages[page] = lines.orEmpty()
+          fireContentsChanged(this, start, minOf(text.lineCount, start + PAGE_LINES) - 1)
+        }
+      }
+    }
+  }
+}
@@ -8,10 +8,13 @@ package org.jetbrains.r.run.debug.stack
 import com.intellij.icons.AllIcons
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.ApplicationManager
+import com.intellij.openapi.application.invokeLater
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.openapi.util.text.StringUtil
 import com.intellij.r.psi.RBundle
 import com.intellij.r.psi.debugger.RDebuggerUtilPsi
 import com.intellij.r.psi.debugger.exception.RDebuggerException
+import com.intellij.r.psi.rinterop.RPagedText
 import com.intellij.r.psi.rinterop.RValueDataFrame
 import com.intellij.r.psi.rinterop.RValueEnvironment
 import com.intellij.r.psi.rinterop.RValueError
@@ -202,20 +205,37 @@ internal object RXPresentationUtils {
   }
 
   private fun addShowTextButton(node: XValueNode, rxVar: RXVar, text: String? = null) {
+    if (text == null) {
+      addShowPagedTextButton(node, rxVar)
+      return
+    }
     node.setFullValueEvaluator(object : XFullValueEvaluator() {
       override fun startEvaluation(callback: XFullValueEvaluationCallback) {
-        if (text != null) {
-          callback.evaluated(text)
-        } else {
-          rxVar.rVar.ref.evaluateAsTextAsync()
-            .also { rxVar.stackFrame.tryRegisterDisposable(Disposable { it.cancel() }) }
-            .onSuccess { callback.evaluated(it) }
-            .onError { callback.errorOccurred((it as? RDebuggerException)?.message.orEmpty()) }
-        }
+        callback.evaluated(text)
       }
     })
   }
 
+  /**
+   * The printed value may be huge, so it is shown in [RXPagedTextViewer]
+   * which gets the first lines at once and loads the rest while scrolling.
+   */
+  private fun addShowPagedTextButton(node: XValueNode, rxVar: RXVar) {
+    node.setFullValueEvaluator(object : XFullValueEvaluator() {
+      override fun startEvaluation(callback: XFullValueEvaluationCallback) {
+        val firstPageBytes = Registry.intValue("r.debugger.paged.text.first.page.kb", PAGED_TEXT_FIRST_PAGE_KB) * 1024
+        RPagedText.create(rxVar.rVar.ref, firstPageBytes, rxVar.stackFrame)
+          .onSuccess { pagedText ->
+            callback.evaluated("")
+            invokeLater { RXPagedTextViewer.show(pagedText) }
+          }
+          .onError { callback.errorOccurred((it as? RDebuggerException)?.message.orEmpty()) }
+      }
+
+      override fun isShowValuePopup() = false
+    })
+  }
+
   private fun setGraphPresentation(node: XValueNode, rValue: RValueGraph, rxVar: RXVar) {
     node.setPresentation(AllIcons.Nodes.PpLib, RXValuePresentation(rxVar, RBundle.message("rx.presentation.utils.graph.text")), true)
     node.setFullValueEvaluator(object : XFullValueEvaluator(RBundle.message("rx.presentation.utils.show.graph.text")) {
@@ -251,4 +271,6 @@ internal object RXPresentationUtils {
   }
 }
 
+private const val PAGED_TEXT_FIRST_PAGE_KB = 64
+
 private fun String.firstLine() = lineSequence().firstOrNull().orEmpty().trim()
@@ -10,6 +10,8 @@ import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.invokeLater
 import com.intellij.r.psi.RBundle
 import com.intellij.r.psi.debugger.exception.RDebuggerException
+import com.intellij.r.psi.rinterop.RInteropPriority
+import com.intellij.r.psi.rinterop.RReference
 import com.intellij.r.psi.rinterop.RValueError
 import com.intellij.r.psi.rinterop.RValueUnevaluated
 import com.intellij.r.psi.rinterop.RVar
@@ -25,8 +27,10 @@ import com.intellij.xdebugger.frame.XValueChildrenList
 import com.intellij.xdebugger.frame.XValueGroup
 import com.intellij.xdebugger.frame.XValueNode
 import com.intellij.xdebugger.frame.XValuePlace
+import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.Promise
 import org.jetbrains.concurrency.rejectedPromise
+import org.jetbrains.concurrency.resolvedPromise
 import org.jetbrains.r.debugger.RStackFrame
 import kotlin.math.min
 
@@ -122,6 +126,9 @@ class RXStackFrame(val functionName: String,
       override fun addContents(result: XValueChildrenList, vars: List<RVar>, offset: Long) {
         addEnvironmentContents(result, vars, this@RXStackFrame, true)
           .firstOrNull { it.name == functionToMarkAsChanged }?.markChanged = true
+      }
+
+      override fun onPageShown() {
         functionToMarkAsChanged = null
       }
     }
@@ -140,25 +147,53 @@ internal open class PartialChildrenListBuilder(
   private var offset = 0L
   private var previousNode: XCompositeNode? = null
 
+  /**
+   * Loads the next [MAX_ITEMS] children by blocks of [BLOCK_ITEMS] and shows each block as soon as it and the sizes
+   * of its variables are loaded, so the first variables of a large environment appear before the rest arrive.
+   */
   fun computeChildren(node: XCompositeNode) {
-    val result = XValueChildrenList()
+    var topChildren: XValueChildrenList? = null
     if (node !== previousNode) {
       previousNode = node
       offset = 0
-      addTopChildren(result)
+      topChildren = XValueChildrenList().also { addTopChildren(it) }
     }
+    val startOffset = offset
     val endOffset = offset + MAX_ITEMS
     val withHidden = stackFrame.variableViewSettings.showHiddenVariables
-    loader.loadVariablesPartially(offset, endOffset,withHidden = withHidden,
-                                  noFunctions = noFunctions, onlyFunctions = onlyFunctions)
+    var shownCount = 0
+    // Blocks are shown in order: each one waits for the previous one
+    var shown: Promise<Unit> = resolvedPromise()
+    val lock = Any()
+    loader.rInterop.withPriority(RInteropPriority.UI_REFRESH) {
+      loader.loadVariablesPipelined(offset, endOffset, BLOCK_ITEMS.toLong(), withHidden = withHidden,
+                                    noFunctions = noFunctions, onlyFunctions = onlyFunctions) { prefix, _ ->
+        val vars = prefix.subList(shownCount, prefix.size)
+        val blockOffset = startOffset + shownCount
+        shownCount = prefix.size
+        val sizesPromise = if (withObjectSizes) loadObjectSizes(vars, stackFrame) else resolvedPromise<Map<RReference, Long>>(emptyMap())
+        synchronized(lock) {
+          shown = shown.thenAsync { sizesPromise }.then { sizes ->
+            invokeLater {
+              val result = topChildren?.also { topChildren = null } ?: XValueChildrenList()
+              addContents(result, vars, blockOffset)
+              setObjectSizes(result, sizes)
+              node.addChildren(result, false)
+            }
+          }
+        }
+      }
+    }
       .also { stackFrame.tryRegisterDisposable(Disposable { it.cancel() }) }
-      .then { (vars, totalCount) ->
-        invokeLater {
-          addContents(result, vars, offset)
-          node.addChildren(result, true)
-          offset = min(endOffset, totalCount)
-          if (offset != totalCount) {
-            node.tooManyChildren((totalCount - offset).let { if (it > Int.MAX_VALUE) -1 else it.toInt() })
+      .then { part ->
+        synchronized(lock) { shown }.then {
+          invokeLater {
+            node.addChildren(topChildren ?: XValueChildrenList.EMPTY, true)
+            onPageShown()
+            offset = min(endOffset, part.totalCount)
+            if (offset != part.totalCount) {
+              node.tooManyChildren((part.totalCount - offset).let { if (it > Int.MAX_VALUE) -1 else it.toInt() })
+            }
           }
         }
       }
@@ -171,12 +206,19 @@ internal open class PartialChildrenListBuilder(
     previousNode = null
   }
 
+  protected open val withObjectSizes: Boolean
+    get() = true
+
   protected open fun addTopChildren(result: XValueChildrenList) {
   }
 
   protected open fun addContents(result: XValueChildrenList, vars: List<RVar>, offset: Long) {
     addEnvironmentContents(result, vars, stackFrame)
   }
+
+  /** Called on EDT after all blocks of a page are shown */
+  protected open fun onPageShown() {
+  }
 }
 
 
@@ -184,16 +226,34 @@ internal fun addEnvironmentContents(result: XValueChildrenList, vars: List<RVar>
   List<RXVar> {
   val rxVars = vars.map { RXVar(it, stackFrame, isRoot) }
   rxVars.forEach { result.add(it) }
-  setObjectSizes(rxVars, stackFrame)
   return rxVars
 }
 
-internal fun setObjectSizes(rxVars: List<RXVar>, stackFrame: RXStackFrame) {
-  if (!stackFrame.variableViewSettings.showSize) return
-  val filtered = rxVars.filter { it.rVar.value !is RValueError && it.rVar.value !is RValueUnevaluated }
-  if (filtered.isEmpty()) return
-  val sizes = stackFrame.loader.rInterop.getObjectSizes(filtered.map { it.rVar.ref })
-  filtered.zip(sizes).forEach { (rxVar, size) -> rxVar.objectSize = size.takeIf { it >= 0 } }
+/**
+ * Requests are merged with other size requests issued at the same moment, so expanding many nodes costs a single RPC.
+ * The returned promise is never rejected: sizes are just not shown if they cannot be loaded.
+ */
+internal fun loadObjectSizes(vars: List<RVar>, stackFrame: RXStackFrame): Promise<Map<RReference, Long>> {
+  if (!stackFrame.variableViewSettings.showSize) return resolvedPromise(emptyMap())
+  val filtered = vars.filter { it.value !is RValueError && it.value !is RValueUnevaluated }
+  if (filtered.isEmpty()) return resolvedPromise(emptyMap())
+  val result = AsyncPromise<Map<RReference, Long>>()
+  stackFrame.loader.rInterop.getObjectSizesAsync(filtered.map { it.ref })
+    .also { stackFrame.tryRegisterDisposable(Disposable { it.cancel() }) }
+    .onSuccess { sizes ->
+      result.setResult(filtered.zip(sizes).filter { (_, size) -> size >= 0 }.associate { (rVar, size) -> rVar.ref to size })
+    }
+    .onError { result.setResult(emptyMap()) }
+  return result
+}
+
+private fun setObjectSizes(result: XValueChildrenList, sizes: Map<RReference, Long>) {
+  if (sizes.isEmpty()) return
+  for (i in 0 until result.size()) {
+    val rxVar = result.getValue(i) as? RXVar ?: continue
+    rxVar.objectSize = sizes[rxVar.rVar.ref]
+  }
 }
 
 internal const val MAX_ITEMS = 250
+private const val BLOCK_ITEMS = 50
@@ -31,6 +31,9 @@ internal class RXVar internal constructor(val rVar: RVar, val stackFrame: RXStac
       rVar.ref.createVariableLoader()
     }
     object : PartialChildrenListBuilder(stackFrame, loader) {
+      override val withObjectSizes: Boolean
+        get() = rVar.value !is RValueSimple
+
       override fun addContents(result: XValueChildrenList, vars: List<RVar>, offset: Long) {
         if (rVar.value is RValueEnvironment) {
           addEnvironmentContents(result, vars, stackFrame)
@@ -97,6 +100,5 @@ internal class RXVar internal constructor(val rVar: RVar, val stackFrame: RXStac
       }
     }
     rxVars.forEach { result.add(it) }
-    if (!isVector) setObjectSizes(rxVars, stackFrame)
   }
 }
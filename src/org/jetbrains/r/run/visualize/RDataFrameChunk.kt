@@ -0,0 +1,238 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.visualize
+
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.WireFormat
+import com.intellij.r.psi.rinterop.DataFrameGetDataResponse
+import com.intellij.r.psi.rinterop.DataFrameGetDataResponse.Value
+import java.util.BitSet
+import kotlin.reflect.KClass
+
+/**
+ * Rows of a data frame stored by column in primitive arrays.
+ *
+ * Numeric and logical cells are not boxed, missing values are marked in a bitmap,
+ * and strings (character and factor columns) are stored as indices into a dictionary of distinct values.
+ */
+internal class RDataFrameChunk(val columns: Array<RDataFrameColumn>) {
+  val nRows: Int
+    get() = columns.firstOrNull()?.size ?: 0
+
+  /** Approximate heap size */
+  val bytes: Long
+    get() = columns.sumOf { it.bytes }
+
+  fun getValue(row: Int, col: Int): Any? = columns.getOrNull(col)?.takeIf { row in 0 until it.size }?.get(row)
+
+  companion object {
+    fun fromProto(types: List<KClass<*>>, response: DataFrameGetDataResponse): RDataFrameChunk {
+      return RDataFrameChunk(Array(types.size) { RDataFrameColumn.fromProto(types[it], response.getColumns(it)) })
+    }
+
+    /**
+     * Reads a serialized [DataFrameGetDataResponse] straight into column arrays,
+     * without building [DataFrameGetDataResponse.Value] messages. Values are interpreted like [fromProto] does.
+     * [nRows] is the expected number of rows, it only sizes the arrays.
+     */
+    fun decode(types: List<KClass<*>>, nRows: Int, input: CodedInputStream): RDataFrameChunk {
+      val builders = types.map { ColumnBuilder.create(it, nRows) }
+      var col = 0
+      while (true) {
+        val tag = input.readTag()
+        if (tag == 0) break
+        if (tag != COLUMNS_TAG || col >= builders.size) {
+          input.skipField(tag)
+          continue
+        }
+        input.readMessage { builders[col].readColumn(input) }
+        col++
+      }
+      return RDataFrameChunk(Array(builders.size) { builders[it].build() })
+    }
+
+    private val COLUMNS_TAG = WireFormat.makeTag(DataFrameGetDataResponse.COLUMNS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+    private val VALUES_TAG = WireFormat.makeTag(DataFrameGetDataResponse.Column.VALUES_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED)
+
+    private inline fun CodedInputStream.readMessage(read: () -> Unit) {
+      val limit = pushLimit(readRawVarint32())
+      read()
+      checkLastTagWas(0)
+      popLimit(limit)
+    }
+  }
+
+  /** Growing arrays of one column, filled from the wire */
+  private abstract class ColumnBuilder(capacity: Int) {
+    protected var size = 0
+    protected val na = BitSet(capacity)
+
+    fun readColumn(input: CodedInputStream) {
+      while (true) {
+        val tag = input.readTag()
+        if (tag == 0) break
+        if (tag != VALUES_TAG) {
+          input.skipField(tag)
+          continue
+        }
+        input.readMessage { readValue(input) }
+      }
+    }
+
+    private fun readValue(input: CodedInputStream) {
+      ensureCapacity(size + 1)
+      var isSet = false
+      while (true) {
+        val tag = input.readTag()
+        if (tag == 0) break
+        when (WireFormat.getTagFieldNumber(tag)) {
+          Value.NA_FIELD_NUMBER -> {
+            input.skipField(tag)
+            na.set(size)
+          }
+          valueField -> {
+            read(input)
+            isSet = true
+          }
+          else -> input.skipField(tag)
+        }
+      }
+      // A value without a field of this column's type is the default one, like in the generated getters
+      if (!isSet && !na.get(size)) addDefault()
+      size++
+    }
+
+    /** Number of the [Value] field which this column stores */
+    protected abstract val valueField: Int
+    protected abstract fun ensureCapacity(capacity: Int)
+    protected abstract fun addDefault()
+    protected abstract fun read(input: CodedInputStream)
+    abstract fun build(): RDataFrameColumn
+
+    protected fun grow(current: Int, capacity: Int) = maxOf(capacity, current * 2, 16)
+
+    private class Doubles(capacity: Int) : ColumnBuilder(capacity) {
+      private var values = DoubleArray(capacity)
+      override val valueField get() = Value.DOUBLEVALUE_FIELD_NUMBER
+      override fun ensureCapacity(capacity: Int) {
+        if (capacity > values.size) values = values.copyOf(grow(values.size, capacity))
+      }
+      override fun addDefault() { values[size] = 0.0 }
+      override fun read(input: CodedInputStream) { values[size] = input.readDouble() }
+      override fun build() = RDataFrameColumn.Doubles(values.copyOf(size), na)
+    }
+
+    private class Ints(capacity: Int) : ColumnBuilder(capacity) {
+      private var values = IntArray(capacity)
+      override val valueField get() = Value.INTVALUE_FIELD_NUMBER
+      override fun ensureCapacity(capacity: Int) {
+        if (capacity > values.size) values = values.copyOf(grow(values.size, capacity))
+      }
+      override fun addDefault() { values[size] = 0 }
+      override fun read(input: CodedInputStream) { values[size] = input.readInt32() }
+      override fun build() = RDataFrameColumn.Ints(values.copyOf(size), na)
+    }
+
+    private class Booleans(capacity: Int) : ColumnBuilder(capacity) {
+      private var values = BooleanArray(capacity)
+      override val valueField get() = Value.BOOLEANVALUE_FIELD_NUMBER
+      override fun ensureCapacity(capacity: Int) {
+        if (capacity > values.size) values = values.copyOf(grow(values.size, capacity))
+      }
+      override fun addDefault() { values[size] = false }
+      override fun read(input: CodedInputStream) { values[size] = input.readBool() }
+      override fun build() = RDataFrameColumn.Booleans(values.copyOf(size), na)
+    }
+
+    private class Strings(capacity: Int) : ColumnBuilder(capacity) {
+      private var codes = IntArray(capacity)
+      private val indices = HashMap<String, Int>()
+      private val dictionary = ArrayList<String>()
+      override val valueField get() = Value.STRINGVALUE_FIELD_NUMBER
+      override fun ensureCapacity(capacity: Int) {
+        if (capacity > codes.size) codes = codes.copyOf(grow(codes.size, capacity))
+      }
+      override fun addDefault() { codes[size] = code("") }
+      override fun read(input: CodedInputStream) { codes[size] = code(input.readStringRequireUtf8()) }
+      private fun code(s: String) = indices.getOrPut(s) { dictionary.add(s); dictionary.size - 1 }
+      override fun build() = RDataFrameColumn.Strings(dictionary.toTypedArray(), codes.copyOf(size), na)
+    }
+
+    companion object {
+      fun create(type: KClass<*>, capacity: Int): ColumnBuilder = when (type) {
+        Int::class -> Ints(capacity)
+        Double::class -> Doubles(capacity)
+        Boolean::class -> Booleans(capacity)
+        else -> Strings(capacity)
+      }
+    }
+  }
+}
+
+internal sealed class RDataFrameColumn(val size: Int, protected val na: BitSet) {
+  fun isNa(row: Int) = na.get(row)
+
+  operator fun get(row: Int): Any? = if (na.get(row)) null else getNotNa(row)
+
+  protected abstract fun getNotNa(row: Int): Any
+
+  abstract val bytes: Long
+
+  protected val naBytes: Long
+    get() = ARRAY_HEADER_BYTES + na.size() / 8
+
+  class Doubles(val values: DoubleArray, na: BitSet) : RDataFrameColumn(values.size, na) {
+    override fun getNotNa(row: Int): Any = values[row]
+    override val bytes get() = ARRAY_HEADER_BYTES + 8L * values.size + naBytes
+  }
+
+  class Ints(val values: IntArray, na: BitSet) : RDataFrameColumn(values.size, na) {
+    override fun getNotNa(row: Int): Any = values[row]
+    override val bytes get() = ARRAY_HEADER_BYTES + 4L * values.size + naBytes
+  }
+
+  class Booleans(val values: BooleanArray, na: BitSet) : RDataFrameColumn(values.size, na) {
+    override fun getNotNa(row: Int): Any = values[row]
+    override val bytes get() = ARRAY_HEADER_BYTES + values.size + naBytes
+  }
+
+  /** Cell `i` is `dictionary[codes[i]]` */
+  class Strings(val dictionary: Array<String>, val codes: IntArray, na: BitSet) : RDataFrameColumn(codes.size, na) {
+    override fun getNotNa(row: Int): Any = dictionary[codes[row]]
+    override val bytes get() = 2 * ARRAY_HEADER_BYTES + 4L * codes.size + dictionary.sumOf { STRING_HEADER_BYTES + it.length + 8 } + naBytes
+  }
+
+  companion object {
+    private const val ARRAY_HEADER_BYTES = 16L
+    private const val STRING_HEADER_BYTES = 40L
+
+    fun fromProto(type: KClass<*>, column: DataFrameGetDataResponse.Column): RDataFrameColumn {
+      val size = column.valuesCount
+      val na = BitSet(size)
+      for (i in 0 until size) {
+        if (column.getValues(i).hasNa()) na.set(i)
+      }
+      return when (type) {
+        Int::class -> Ints(IntArray(size) { column.getValues(it).intValue }, na)
+        Double::class -> Doubles(DoubleArray(size) { column.getValues(it).doubleValue }, na)
+        Boolean::class -> Booleans(BooleanArray(size) { column.getValues(it).booleanValue }, na)
+        else -> strings(size, na) { column.getValues(it).stringValue }
+      }
+    }
+
+    fun strings(size: Int, na: BitSet, value: (Int) -> String): Strings {
+      val indices = HashMap<String, Int>()
+      val dictionary = ArrayList<String>()
+      val codes = IntArray(size) { row ->
+        if (na.get(row)) 0
+        else {
+          val s = value(row)
+          indices.getOrPut(s) { dictionary.add(s); dictionary.size - 1 }
+        }
+      }
+      return Strings(dictionary.toTypedArray(), codes, na)
+    }
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.visualize
+
+/**
+ * Chunks of a data frame with a total size limit.
+ *
+ * When the limit is exceeded, least recently used chunks are evicted first,
+ * except for chunks on screen and within [keepRadius] of them, which are likely to be on screen soon.
+ */
+internal class RDataFrameChunkCache<T : Any>(private val maxBytes: Long, private val keepRadius: Int) {
+  data class Stats(val hits: Long, val misses: Long, val evictions: Long, val chunks: Int, val bytes: Long)
+
+  private class Entry<T>(val chunk: T, val bytes: Long)
+
+  private val entries = LinkedHashMap<Int, Entry<T>>(16, 0.75f, true)
+  private var bytes = 0L
+  private var hits = 0L
+  private var misses = 0L
+  private var evictions = 0L
+  private var viewport = IntRange.EMPTY
+
+  val stats: Stats
+    @Synchronized get() = Stats(hits, misses, evictions, entries.size, bytes)
+
+  /** Returns the chunk and counts a hit or a miss, so it is called once per chunk which comes into view */
+  @Synchronized
+  fun get(index: Int): T? {
+    val entry = entries[index]
+    if (entry == null) misses++ else hits++
+    return entry?.chunk
+  }
+
+  /** Returns the chunk without updating statistics, e.g. to check whether prefetch is needed */
+  @Synchronized
+  fun peek(index: Int): T? = entries[index]?.chunk
+
+  /** Chunks from [first] to [last] are on screen */
+  @Synchronized
+  fun setViewport(first: Int, last: Int) {
+    viewport = first..last
+  }
+
+  @Synchronized
+  fun put(index: Int, chunk: T, chunkBytes: Long) {
+    entries.put(index, Entry(chunk, chunkBytes))?.let { bytes -= it.bytes }
+    bytes += chunkBytes
+    evict()
+  }
+
+  private fun evict() {
+    if (bytes <= maxBytes) return
+    val kept = if (viewport.isEmpty()) IntRange.EMPTY else viewport.first - keepRadius..viewport.last + keepRadius
+    val iterator = entries.entries.iterator()
+    while (bytes > maxBytes && iterator.hasNext()) {
+      val (index, entry) = iterator.next()
+      if (index in kept) continue
+      iterator.remove()
+      bytes -= entry.bytes
+      evictions++
+    }
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.visualize
+
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.diagnostic.debug
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.r.psi.rinterop.DataFrameFilterRequest.Filter
+import org.jetbrains.concurrency.Promise
+import org.jetbrains.concurrency.resolvedPromise
+import javax.swing.RowSorter
+import javax.swing.SortOrder
+
+/** Rows of a data frame which are all loaded, split into chunks of [chunkSize] rows */
+internal class RDataFrameLoadedRows(private val chunks: List<RDataFrameChunk>, private val chunkSize: Int, val nRows: Int) {
+  fun column(row: Int, col: Int): RDataFrameColumn = chunks[row / chunkSize].columns[col]
+
+  fun offset(row: Int) = row % chunkSize
+
+  fun getValue(row: Int, col: Int): Any? = chunks[row / chunkSize].getValue(row % chunkSize, col)
+}
+
+/**
+ * Sorted and filtered view of a data frame which is computed in the IDE, without a request to R.
+ *
+ * It is used when all rows of [base] are loaded and there are at most `r.dataframe.viewer.local.max.rows` of them.
+ * [rows] are the indices of the shown rows in [base], the loaded rows are kept while the view exists.
+ * Results are the same as R gives, so sort keys and filters whose result may differ in R are not handled here:
+ * string sort keys (R orders factors by levels, which are unknown here), string comparisons other than equality
+ * (R uses the collation of the locale), operators on logical columns, regular expressions on numbers or missing values,
+ * and regular expressions outside of the subset which java.util.regex matches the same way as R (see [toJavaRegex]).
+ */
+internal class RDataFrameLocalViewer private constructor(
+  private val base: RDataFrameViewerImpl,
+  private val data: RDataFrameLoadedRows,
+  private val filter: Filter?,
+  private val sortKeys: List<RowSorter.SortKey>,
+  private val rows: IntArray,
+) : RDataFrameViewer {
+  override val nColumns get() = base.nColumns
+  override val nRows get() = rows.size
+  override val project get() = base.project
+  override val canRefresh get() = false
+
+  override fun getColumnName(index: Int) = base.getColumnName(index)
+
+  override fun getColumnType(index: Int) = base.getColumnType(index)
+
+  override fun isColumnSortable(index: Int) = base.isColumnSortable(index)
+
+  override fun isRowNames(index: Int) = base.isRowNames(index)
+
+  override fun getValueAt(row: Int, col: Int): Any? = data.getValue(rows[row], col)
+
+  override fun getLoadedValueAt(row: Int, col: Int): Any? = getValueAt(row, col)
+
+  override fun ensureLoaded(row: Int, col: Int): Promise<Unit> = resolvedPromise()
+
+  override fun sortBy(sortKeys: List<RowSorter.SortKey>): RDataFrameViewer = filterAndSort(base, filter, sortKeys)
+
+  override fun filter(f: Filter): RDataFrameViewer {
+    val composed = filter?.let {
+      Filter.newBuilder().setComposed(Filter.ComposedFilter.newBuilder().setType(Filter.ComposedFilter.Type.AND).addFilters(it).addFilters(f)).build()
+    }
+    return filterAndSort(base, composed ?: f, sortKeys)
+  }
+
+  override suspend fun refresh() = false
+
+  private fun interface Predicate {
+    fun test(data: RDataFrameLoadedRows, row: Int): Boolean?
+  }
+
+  /** Thrown when the result computed here may differ from the one of R */
+  private class NotLocal : Exception(null, null, false, false)
+
+  companion object {
+    private val LOG = Logger.getInstance(RDataFrameLocalViewer::class.java)
+    private const val MAX_ROWS = 100_000
+
+    /** Filters and sorts [base] locally if possible, in R otherwise. Returns [base] if there is nothing to do */
+    fun filterAndSort(base: RDataFrameViewer, filter: Filter?, sortKeys: List<RowSorter.SortKey>): RDataFrameViewer {
+      if (filter == null && sortKeys.isEmpty()) return base
+      tryCreate(base, filter, sortKeys)?.let { return it }
+      var viewer = base
+      filter?.let { viewer = viewer.filter(it) }
+      if (sortKeys.isNotEmpty()) {
+        val sorted = viewer.sortBy(sortKeys)
+        if (viewer != base) Disposer.dispose(viewer)
+        viewer = sorted
+      }
+      return viewer
+    }
+
+    fun tryCreate(base: RDataFrameViewer, filter: Filter?, sortKeys: List<RowSorter.SortKey>): RDataFrameLocalViewer? {
+      if (base !is RDataFrameViewerImpl || base.nRows > Registry.intValue("r.dataframe.viewer.local.max.rows", MAX_ROWS)) return null
+      val data = base.getLoadedRows() ?: return null
+      val start = System.nanoTime()
+      val rows = try {
+        sort(data, filter(data, filter), sortKeys)
+      }
+      catch (_: NotLocal) {
+        return null
+      }
+      LOG.debug { "Data frame of ${data.nRows} rows is filtered and sorted locally in ${(System.nanoTime() - start) / 1_000_000}ms" }
+      return RDataFrameLocalViewer(base, data, filter, sortKeys, rows)
+    }
+
+    private fun filter(data: RDataFrameLoadedRows, filter: Filter?): IntArray {
+      if (filter == null) return IntArray(data.nRows) { it }
+      val predicate = compile(filter)
+      return (0 until data.nRows).filter { predicate.test(data, it) == true }.toIntArray()
+    }
+
+    /** Like in R, the result of a predicate is NA (null) when it depends on a missing value, and filter drops such rows */
+    private fun compile(filter: Filter): Predicate = when (filter.filterCase) {
+      Filter.FilterCase.TRUE -> Predicate { _, _ -> true }
+      Filter.FilterCase.COMPOSED -> compileComposed(filter.composed)
+      Filter.FilterCase.OPERATOR -> compileOperator(filter.operator)
+      Filter.FilterCase.NAFILTER -> compileNaFilter(filter.naFilter)
+      else -> throw NotLocal()
+    }
+
+    private fun compileNaFilter(naFilter: Filter.NaFilter): Predicate {
+      val col = naFilter.column
+      val isNa = naFilter.isNa
+      return Predicate { data, row -> isMissing(data.column(row, col), data.offset(row)) == isNa }
+    }
+
+    private fun compileComposed(composed: Filter.ComposedFilter): Predicate {
+      val filters = composed.filtersList.map { compile(it) }
+      return when (composed.type) {
+        Filter.ComposedFilter.Type.AND -> Predicate { data, row -> combine(filters, data, row, false) }
+        Filter.ComposedFilter.Type.OR -> Predicate { data, row -> combine(filters, data, row, true) }
+        Filter.ComposedFilter.Type.NOT -> {
+          val f = filters.singleOrNull() ?: throw NotLocal()
+          Predicate { data, row -> f.test(data, row)?.not() }
+        }
+        else -> throw NotLocal()
+      }
+    }
+
+    /** `&` of R if [dominant] is false, `|` if it is true */
+    private fun combine(filters: List<Predicate>, data: RDataFrameLoadedRows, row: Int, dominant: Boolean): Boolean? {
+      var result: Boolean? = !dominant
+      for (f in filters) {
+        when (f.test(data, row)) {
+          dominant -> return dominant
+          null -> result = null
+          else -> {}
+        }
+      }
+      return result
+    }
+
+    private fun compileOperator(operator: Filter.Operator): Predicate {
+      val col = operator.column
+      val type = operator.type
+      if (type == Filter.Operator.Type.REGEX) {
+        val regex = try {
+          Regex(toJavaRegex(operator.value) ?: throw NotLocal(), RegexOption.DOT_MATCHES_ALL)
+        }
+        catch (_: IllegalArgumentException) {
+          throw NotLocal()
+        }
+        return Predicate { data, row ->
+          val column = data.column(row, col) as? RDataFrameColumn.Strings ?: throw NotLocal()
+          val offset = data.offset(row)
+          if (column.isNa(offset)) throw NotLocal()
+          regex.containsMatchIn(column.dictionary[column.codes[offset]])
+        }
+      }
+      val number = operator.value.trim().toDoubleOrNull()
+      return Predicate { data, row ->
+        val offset = data.offset(row)
+        when (val column = data.column(row, col)) {
+          is RDataFrameColumn.Strings -> {
+            if (type != Filter.Operator.Type.EQ && type != Filter.Operator.Type.NEQ) throw NotLocal()
+            if (column.isNa(offset)) null
+            else (column.dictionary[column.codes[offset]] == operator.value) == (type == Filter.Operator.Type.EQ)
+          }
+          is RDataFrameColumn.Doubles, is RDataFrameColumn.Ints -> {
+            if (number == null) throw NotLocal()
+            if (isMissing(column, offset)) null else compare(numberAt(column, offset), number, type)
+          }
+          is RDataFrameColumn.Booleans -> throw NotLocal()
+        }
+      }
+    }
+
+    /**
+     * Java pattern which matches like [pattern] does in `grepl` of R (TRE extended regular expressions),
+     * or null if [pattern] is outside of the subset where both engines agree: literals, escaped metacharacters, `.`,
+     * anchors, alternation, groups, bracket expressions of literals and alphanumeric ranges, and greedy quantifiers.
+     * E.g. `\<`, classes like `[[:alpha:]]`, lookarounds and lazy or possessive quantifiers are left to R.
+     */
+    private fun toJavaRegex(pattern: String): String? {
+      val result = StringBuilder()
+      // Whether the previous token can be repeated, so `a*+` and `a*?` are rejected
+      var canRepeat = false
+      var i = 0
+      while (i < pattern.length) {
+        val c = pattern[i]
+        when (c) {
+          '\\' -> {
+            val next = pattern.getOrNull(i + 1)?.takeIf { it in REGEX_METACHARACTERS } ?: return null
+            result.append(c).append(next)
+            i += 2
+            canRepeat = true
+            continue
+          }
+          '[' -> {
+            val end = bracketExpressionEnd(pattern, i) ?: return null
+            result.append(pattern, i, end + 1)
+            i = end + 1
+            canRepeat = true
+            continue
+          }
+          '{' -> {
+            val end = pattern.indexOf('}', i)
+            if (!canRepeat || end < 0 || !REGEX_BOUNDS.matches(pattern.substring(i + 1, end))) return null
+            result.append(pattern, i, end + 1)
+            i = end + 1
+            canRepeat = false
+            continue
+          }
+          '*', '+', '?' -> {
+            if (!canRepeat) return null
+            canRepeat = false
+          }
+          '(' -> {
+            if (pattern.getOrNull(i + 1) == '?') return null
+            canRepeat = false
+          }
+          '|', '^' -> canRepeat = false
+          // `$` of Java also matches before a final line break
+          '$' -> {
+            result.append("\\z")
+            i++
+            canRepeat = false
+            continue
+          }
+          ']', '}' -> return null
+          else -> canRepeat = true
+        }
+        result.append(c)
+        i++
+      }
+      return result.toString()
+    }
+
+    /** Index of `]` which closes a bracket expression at [start], null if it is not a plain list of characters and ranges */
+    private fun bracketExpressionEnd(pattern: String, start: Int): Int? {
+      var i = start + 1
+      if (pattern.getOrNull(i) == '^') i++
+      val first = i
+      while (i < pattern.length) {
+        val c = pattern[i]
+        when {
+          c == ']' -> return if (i == first) null else i
+          c == '[' || c == '\\' || c == '&' -> return null
+          c == '-' && i != first && pattern.getOrNull(i + 1) != ']' -> {
+            val from = pattern[i - 1]
+            val to = pattern.getOrNull(i + 1) ?: return null
+            val isSameKind = from.isAsciiDigit() && to.isAsciiDigit() ||
+                             from in 'a'..'z' && to in 'a'..'z' || from in 'A'..'Z' && to in 'A'..'Z'
+            // Chained ranges like `a-c-e` are read differently
+            if (!isSameKind || from > to || pattern[i - 2] == '-') return null
+          }
+        }
+        i++
+      }
+      return null
+    }
+
+    private fun Char.isAsciiDigit() = this in '0'..'9'
+
+    private const val REGEX_METACHARACTERS = "\\.[]{}()*+?^$|"
+    private val REGEX_BOUNDS = Regex("\\d+(,\\d*)?")
+
+    /** Primitive comparisons, so -0 equals 0 like in R */
+    private fun compare(x: Double, y: Double, type: Filter.Operator.Type): Boolean = when (type) {
+      Filter.Operator.Type.EQ -> x == y
+      Filter.Operator.Type.NEQ -> x != y
+      Filter.Operator.Type.LESS -> x < y
+      Filter.Operator.Type.GREATER -> x > y
+      Filter.Operator.Type.LEQ -> x <= y
+      Filter.Operator.Type.GEQ -> x >= y
+      else -> throw NotLocal()
+    }
+
+    /** Stable, with missing values last in both directions, like `dplyr::arrange` */
+    private fun sort(data: RDataFrameLoadedRows, rows: IntArray, sortKeys: List<RowSorter.SortKey>): IntArray {
+      val keys = sortKeys.filter { it.sortOrder != SortOrder.UNSORTED }
+      if (keys.isEmpty()) return rows
+      val columns = keys.map { key ->
+        val values = DoubleArray(rows.size)
+        val missing = BooleanArray(rows.size)
+        for ((i, row) in rows.withIndex()) {
+          val column = data.column(row, key.column)
+          val offset = data.offset(row)
+          if (column is RDataFrameColumn.Strings) throw NotLocal()
+          missing[i] = isMissing(column, offset)
+          if (!missing[i]) values[i] = numberAt(column, offset)
+        }
+        Triple(values, missing, if (key.sortOrder == SortOrder.DESCENDING) -1 else 1)
+      }
+      val order = rows.indices.sortedWith { a, b ->
+        for ((values, missing, sign) in columns) {
+          val result = when {
+            missing[a] && missing[b] -> 0
+            missing[a] -> 1
+            missing[b] -> -1
+            values[a] < values[b] -> -sign
+            values[a] > values[b] -> sign
+            else -> 0
+          }
+          if (result != 0) return@sortedWith result
+        }
+        0
+      }
+      return IntArray(order.size) { rows[order[it]] }
+    }
+
+    /** `is.na` of R: NaN is missing too */
+    private fun isMissing(column: RDataFrameColumn, offset: Int): Boolean {
+      return column.isNa(offset) || (column is RDataFrameColumn.Doubles && column.values[offset].isNaN())
+    }
+
+    private fun numberAt(column: RDataFrameColumn, offset: Int): Double = when (column) {
+      is RDataFrameColumn.Doubles -> column.values[offset]
+      is RDataFrameColumn.Ints -> column.values[offset].toDouble()
+      is RDataFrameColumn.Booleans -> if (column.values[offset]) 1.0 else 0.0
+      is RDataFrameColumn.Strings -> throw NotLocal()
+    }
+  }
+}
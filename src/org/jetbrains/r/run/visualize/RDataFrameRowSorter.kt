@@ -97,14 +97,8 @@ internal class RDataFrameRowSorter(private var model: RDataFrameTableModel, priv
         toWait?.getWithCheckCanceled()
         if (currentViewer != initialViewer) Disposer.dispose(currentViewer)
         currentViewer = initialViewer
-        currentFilter?.let {
-          currentViewer = currentViewer.filter(it)
-        }
-        if (currentSortKeys.isNotEmpty()) {
-          val newViewer = currentViewer.sortBy(currentSortKeys)
-          if (currentViewer != initialViewer) Disposer.dispose(currentViewer)
-          currentViewer = newViewer
-        }
+        // Small frames which are loaded completely are sorted and filtered without R
+        currentViewer = RDataFrameLocalViewer.filterAndSort(initialViewer, currentFilter, currentSortKeys)
         model.viewer = currentViewer
         jTable.clearSelection()
         model.fireTableDataChanged()
@@ -4,10 +4,41 @@
 
 package org.jetbrains.r.run.visualize
 
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.application.invokeLater
+import com.intellij.openapi.util.Disposer
 import org.jetbrains.concurrency.isRejected
 import javax.swing.table.AbstractTableModel
+import kotlin.math.max
+import kotlin.math.min
+
+/**
+ * Cells are painted without waiting for R: a cell whose rows are not loaded shows a placeholder,
+ * and only the rows of a chunk are repainted when it arrives.
+ */
+internal class RDataFrameTableModel(viewer: RDataFrameViewer) : AbstractTableModel() {
+  private var loadedRows: IntRange? = null
+  private var viewerListener: Disposable? = null
+
+  var viewer: RDataFrameViewer = viewer
+    set(value) {
+      field = value
+      listenTo(value)
+    }
+
+  init {
+    listenTo(viewer)
+  }
+
+  /** One listener per viewer rather than a callback per painted cell */
+  private fun listenTo(viewer: RDataFrameViewer) {
+    viewerListener?.let { Disposer.dispose(it) }
+    viewerListener = Disposer.newDisposable().also {
+      Disposer.tryRegister(viewer, it)
+      viewer.addRowsLoadedListener(it) { rows -> onRowsLoaded(rows) }
+    }
+  }
 
-internal class RDataFrameTableModel(var viewer: RDataFrameViewer) : AbstractTableModel() {
   override fun getRowCount() = viewer.nRows
 
   override fun getColumnCount() = viewer.nColumns
@@ -17,17 +48,31 @@ internal class RDataFrameTableModel(var viewer: RDataFrameViewer) : AbstractTabl
   override fun getColumnClass(index: Int) = viewer.getColumnType(index).java
 
   override fun getValueAt(row: Int, col: Int): Any? {
-    val promise = viewer.ensureLoaded(row, col) { fireTableDataChanged() }
-    return when {
-      promise.isSucceeded -> {
-        when (val value = viewer.getValueAt(row, col)) {
-          is Float -> "%g".format(value)
-          is Double -> "%g".format(value)
-          else -> value
-        }
+    val promise = viewer.ensureLoaded(row, col)
+    if (promise.isRejected) return "<error>"
+    return when (val value = viewer.getLoadedValueAt(row, col)) {
+      RDataFrameViewer.NOT_LOADED -> {
+        // The chunk was evicted right after it was loaded, the next paint loads it again
+        if (promise.isSucceeded) onRowsLoaded(row..row)
+        "<loading>"
       }
-      promise.isRejected -> "<error>"
-      else -> "<loading>"
+      is Float -> "%g".format(value)
+      is Double -> "%g".format(value)
+      else -> value
+    }
+  }
+
+  /** Rows loaded while EDT is busy are repainted by one event */
+  private fun onRowsLoaded(rows: IntRange) {
+    synchronized(this) {
+      val pending = loadedRows
+      loadedRows = if (pending == null) rows else min(pending.first, rows.first)..max(pending.last, rows.last)
+      if (pending != null) return
+    }
+    invokeLater {
+      val rowsToUpdate = synchronized(this) { loadedRows.also { loadedRows = null } } ?: return@invokeLater
+      val last = min(rowsToUpdate.last, rowCount - 1)
+      if (rowsToUpdate.first <= last) fireTableRowsUpdated(rowsToUpdate.first, last)
     }
   }
 
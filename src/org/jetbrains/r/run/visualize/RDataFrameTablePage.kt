@@ -51,6 +51,7 @@ import org.jetbrains.r.visualization.ui.MaterialTableUtils
 import java.awt.BorderLayout
 import java.awt.Event
 import java.awt.FlowLayout
+import java.awt.Point
 import java.awt.event.ActionEvent
 import java.awt.event.KeyEvent
 import java.awt.event.MouseAdapter
@@ -66,6 +67,7 @@ import javax.swing.JPopupMenu
 import javax.swing.JViewport
 import javax.swing.KeyStroke
 import javax.swing.RowSorter
+import kotlin.math.max
 import kotlin.math.min
 
 internal class RDataFrameTablePage(val viewer: RDataFrameViewer) : JPanel(BorderLayout()) {
@@ -110,6 +112,9 @@ internal class RDataFrameTablePage(val viewer: RDataFrameViewer) : JPanel(Border
     }
 
     add(scrollPane, BorderLayout.CENTER)
+    scrollPane.viewport.addChangeListener { updateViewport() }
+    // After the table has handled the change, e.g. another viewer after sorting
+    tableModel.addTableModelListener { if (it.lastRow == Int.MAX_VALUE) invokeLater { updateViewport() } }
 
     createActionsPanel()
 
@@ -124,6 +129,17 @@ internal class RDataFrameTablePage(val viewer: RDataFrameViewer) : JPanel(Border
     }
   }
 
+  /** Prefetch and eviction follow the visible rows rather than the painted cells */
+  private fun updateViewport() {
+    val visible = table.visibleRect
+    val first = table.rowAtPoint(visible.location)
+    if (first < 0) return
+    val last = table.rowAtPoint(Point(visible.x, visible.y + visible.height - 1)).takeIf { it >= 0 } ?: (table.rowCount - 1)
+    val firstModel = table.convertRowIndexToModel(first)
+    val lastModel = table.convertRowIndexToModel(last)
+    tableModel.viewer.setViewport(min(firstModel, lastModel), max(firstModel, lastModel))
+  }
+
   private fun setupTablePopupMenu() {
     val filterByValue = JMenuItem(RBundle.message("dataframe.viewer.menu.item.filter.by.value"))
     filterByValue.addActionListener {
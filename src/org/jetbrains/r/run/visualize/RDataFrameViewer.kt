@@ -28,9 +28,22 @@ internal interface RDataFrameViewer : Disposable {
 
   fun isRowNames(index: Int): Boolean
 
+  /** Waits until the cell is loaded, so it must not be called on EDT */
   fun getValueAt(row: Int, col: Int): Any?
 
-  fun ensureLoaded(row: Int, col: Int, onLoadCallback: (() -> Unit)? = null): Promise<Unit>
+  /** Value of the cell if it is already loaded, [NOT_LOADED] otherwise. Never waits for R */
+  fun getLoadedValueAt(row: Int, col: Int): Any?
+
+  /** Starts loading the cell unless it is loaded, see [addRowsLoadedListener] to be notified when it arrives */
+  fun ensureLoaded(row: Int, col: Int): Promise<Unit>
+
+  /** [listener] receives the rows of every part of the frame which is loaded from now on, until [parent] is disposed */
+  fun addRowsLoadedListener(parent: Disposable, listener: (IntRange) -> Unit) {
+  }
+
+  /** Rows from [firstRow] to [lastRow] are on screen, so the rows around them are loaded ahead and kept loaded */
+  fun setViewport(firstRow: Int, lastRow: Int) {
+  }
 
   fun sortBy(sortKeys: List<RowSorter.SortKey>): RDataFrameViewer
 
@@ -43,4 +56,8 @@ internal interface RDataFrameViewer : Disposable {
 
   fun registerDisposable(parent: Disposable, virtualFile: RTableVirtualFile?) {
   }
+
+  companion object {
+    val NOT_LOADED = Any()
+  }
 }
@@ -6,21 +6,26 @@ package org.jetbrains.r.run.visualize
 
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.application.EDT
+import com.intellij.openapi.diagnostic.Logger
+import com.intellij.openapi.diagnostic.debug
 import com.intellij.openapi.fileEditor.impl.FileEditorManagerImpl
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.r.psi.RBundle
 import com.intellij.r.psi.rinterop.DataFrameFilterRequest
-import com.intellij.r.psi.rinterop.DataFrameGetDataResponse
 import com.intellij.r.psi.rinterop.DataFrameInfoResponse
 import com.intellij.r.psi.rinterop.DataFrameInfoResponse.ColumnType.BOOLEAN
 import com.intellij.r.psi.rinterop.DataFrameInfoResponse.ColumnType.DOUBLE
 import com.intellij.r.psi.rinterop.DataFrameInfoResponse.ColumnType.INTEGER
 import com.intellij.r.psi.rinterop.RInterop
+import com.intellij.r.psi.rinterop.RInteropPriority
 import com.intellij.r.psi.rinterop.RInteropTerminated
 import com.intellij.r.psi.rinterop.RPersistentRef
 import com.intellij.r.psi.rinterop.getWithCheckCanceled
+import com.intellij.r.psi.util.thenCancellable
 import com.intellij.r.psi.util.tryRegisterDisposable
+import com.intellij.util.containers.ContainerUtil
 import kotlinx.coroutines.Dispatchers
 import org.jetbrains.concurrency.Promise
 import org.jetbrains.concurrency.await
@@ -29,6 +34,7 @@ import org.jetbrains.concurrency.resolvedPromise
 import org.jetbrains.r.packages.RequiredPackage
 import org.jetbrains.r.packages.RequiredPackageException
 import org.jetbrains.r.packages.RequiredPackageInstaller
+import org.jetbrains.r.rinterop.RInteropImpl
 import javax.swing.RowSorter
 import kotlin.math.min
 import kotlin.reflect.KClass
@@ -39,8 +45,12 @@ internal class RDataFrameViewerImpl(private val ref: RPersistentRef) : RDataFram
   override var nRows: Int = 0
   override val project get() = rInterop.project
   private lateinit var columns: Array<ColumnInfo>
-  private lateinit var chunks: Array<Array<Array<Any?>>?>
-  private lateinit var promises: Array<Promise<Unit>?>
+  private var chunkCount = 0
+  private lateinit var cache: RDataFrameChunkCache<RDataFrameChunk>
+  private val pendingChunks = HashMap<Int, Promise<RDataFrameChunk>>()
+  private val rowsLoadedListeners = ContainerUtil.createLockFreeCopyOnWriteList<(IntRange) -> Unit>()
+  @Volatile
+  private var viewportChunks: IntRange? = null
   private var disposableParent: Disposable? = null
   private var virtualFile: RTableVirtualFile? = null
   override var canRefresh: Boolean = false
@@ -48,7 +58,6 @@ internal class RDataFrameViewerImpl(private val ref: RPersistentRef) : RDataFram
   private data class ColumnInfo(
     val name: String, val type: KClass<*>, val sortable: Boolean = true,
     val isRowNames: Boolean = false,
-    val parseValue: (DataFrameGetDataResponse.Value) -> Any?,
   )
 
   private var currentProxyDisposable: Disposable? = null
@@ -63,15 +72,18 @@ internal class RDataFrameViewerImpl(private val ref: RPersistentRef) : RDataFram
   private fun initInfo(dataFrameInfo: DataFrameInfoResponse) {
     nRows = dataFrameInfo.nRows
     columns = dataFrameInfo.columnsList.map { col ->
-      when (col.type) {
-        INTEGER -> ColumnInfo(col.name, Int::class, col.sortable, col.isRowNames) { if (it.hasNa()) null else it.intValue }
-        DOUBLE -> ColumnInfo(col.name, Double::class, col.sortable, col.isRowNames) { if (it.hasNa()) null else it.doubleValue }
-        BOOLEAN -> ColumnInfo(col.name, Boolean::class, col.sortable, col.isRowNames) { if (it.hasNa()) null else it.booleanValue }
-        else -> ColumnInfo(col.name, String::class, col.sortable, col.isRowNames) { if (it.hasNa()) null else it.stringValue }
+      val type = when (col.type) {
+        INTEGER -> Int::class
+        DOUBLE -> Double::class
+        BOOLEAN -> Boolean::class
+        else -> String::class
       }
+      ColumnInfo(col.name, type, col.sortable, col.isRowNames)
     }.toTypedArray()
-    chunks = Array((nRows + CHUNK_SIZE - 1) / CHUNK_SIZE) { null }
-    promises = Array(chunks.size) { null }
+    chunkCount = (nRows + CHUNK_SIZE - 1) / CHUNK_SIZE
+    cache = RDataFrameChunkCache(Registry.intValue("r.dataframe.viewer.cache.mb", CACHE_MB) * 1024L * 1024L, PREFETCH_CHUNKS + 1)
+    synchronized(pendingChunks) { pendingChunks.clear() }
+    viewportChunks = null
     canRefresh = dataFrameInfo.canRefresh
   }
 
@@ -85,39 +97,90 @@ internal class RDataFrameViewerImpl(private val ref: RPersistentRef) : RDataFram
 
   override fun isRowNames(index: Int) = columns[index].isRowNames
 
+  /** Hits, misses and evictions of the chunk cache, its size is set by `r.dataframe.viewer.cache.mb` */
+  val cacheStats: RDataFrameChunkCache.Stats
+    get() = cache.stats
+
   override fun getValueAt(row: Int, col: Int): Any? {
-    ensureLoaded(row, col).blockingGet(Int.MAX_VALUE)
     val chunkIndex = row / CHUNK_SIZE
-    return chunks.getOrNull(chunkIndex)?.getOrNull(col)?.getOrNull(row % CHUNK_SIZE)
+    // The chunk may be evicted right after it is loaded, so its value is taken from the promise
+    val chunk = cache.peek(chunkIndex) ?: loadChunk(chunkIndex).blockingGet(Int.MAX_VALUE)
+    return chunk?.getValue(row % CHUNK_SIZE, col)
+  }
+
+  /** All rows if every chunk is in the cache, so the frame can be sorted and filtered without R */
+  internal fun getLoadedRows(): RDataFrameLoadedRows? {
+    val cache = cache
+    val chunks = (0 until chunkCount).map { cache.peek(it) ?: return null }
+    return RDataFrameLoadedRows(chunks, CHUNK_SIZE, nRows)
+  }
+
+  override fun getLoadedValueAt(row: Int, col: Int): Any? {
+    val chunk = cache.peek(row / CHUNK_SIZE) ?: return RDataFrameViewer.NOT_LOADED
+    return chunk.getValue(row % CHUNK_SIZE, col)
   }
 
-  override fun ensureLoaded(row: Int, col: Int, onLoadCallback: (() -> Unit)?): Promise<Unit> {
+  override fun ensureLoaded(row: Int, col: Int): Promise<Unit> {
     val chunkIndex = row / CHUNK_SIZE
-    if (chunks[chunkIndex] != null) return resolvedPromise()
-    promises[chunkIndex]?.let {
-      when (it.state) {
-        Promise.State.PENDING -> return it
-        Promise.State.SUCCEEDED -> return resolvedPromise()
-        Promise.State.REJECTED -> Unit
-      }
+    if (cache.peek(chunkIndex) != null) return resolvedPromise()
+    return loadChunk(chunkIndex).then { }
+  }
+
+  override fun addRowsLoadedListener(parent: Disposable, listener: (IntRange) -> Unit) {
+    ContainerUtil.add(listener, rowsLoadedListeners, parent)
+  }
+
+  /**
+   * Loads the chunks next to the visible ones in the direction of scrolling, so they are ready before they are painted.
+   * The request is shared with [getValueAt] when the chunk becomes visible before it arrives,
+   * so it is not held back as [RInteropPriority.BACKGROUND] work is while other requests are in flight.
+   */
+  override fun setViewport(firstRow: Int, lastRow: Int) {
+    if (chunkCount == 0 || lastRow < firstRow) return
+    val chunks = firstRow / CHUNK_SIZE..min(lastRow / CHUNK_SIZE, chunkCount - 1)
+    val previous = viewportChunks
+    if (chunks == previous) return
+    viewportChunks = chunks
+    cache.setViewport(chunks.first, chunks.last)
+    for (index in chunks) {
+      if (previous == null || index !in previous) cache.get(index)
     }
-    if (!rInterop.isAlive) {
-      return rejectedPromise("RInterop is not alive")
+    val ahead = if (previous != null && chunks.first < previous.first) {
+      (chunks.first - PREFETCH_CHUNKS until chunks.first).reversed()
     }
-    val start = chunkIndex * CHUNK_SIZE
-    val end = min((chunkIndex + 1) * CHUNK_SIZE, nRows)
-    val promise: Promise<Unit> = rInterop.dataFrameGetData(ref, start, end)
-      .also { tryRegisterDisposable(Disposable { it.cancel() }) }
-      .then { response ->
-        chunks[chunkIndex] = Array(nColumns) { col ->
-          Array(end - start) { row ->
-            columns[col].parseValue(response.getColumns(col).getValues(row))
-          }
-        }
-        onLoadCallback?.invoke()
+    else {
+      chunks.last + 1..chunks.last + PREFETCH_CHUNKS
+    }
+    for (index in ahead) {
+      if (index !in 0 until chunkCount) break
+      if (cache.peek(index) == null) rInterop.withPriority(RInteropPriority.UI_REFRESH) { loadChunk(index) }
+    }
+  }
+
+  private fun loadChunk(chunkIndex: Int): Promise<RDataFrameChunk> {
+    val target = cache
+    val types = columns.map { it.type }
+    target.peek(chunkIndex)?.let { return resolvedPromise(it) }
+    synchronized(pendingChunks) {
+      pendingChunks[chunkIndex]?.let { return it }
+      if (!rInterop.isAlive) {
+        return rejectedPromise("RInterop is not alive")
       }
-    promises[chunkIndex] = promise
-    return promise
+      val start = chunkIndex * CHUNK_SIZE
+      val end = min((chunkIndex + 1) * CHUNK_SIZE, nRows)
+      val response = (rInterop as? RInteropImpl)?.dataFrameGetData(ref, start, end) { RDataFrameChunk.decode(types, end - start, it) }
+                     ?: rInterop.dataFrameGetData(ref, start, end).thenCancellable { RDataFrameChunk.fromProto(types, it) }
+      val promise = response
+        .also { tryRegisterDisposable(Disposable { it.cancel() }) }
+        .then { chunk ->
+          target.put(chunkIndex, chunk, chunk.bytes)
+          rowsLoadedListeners.forEach { it(start until end) }
+          chunk
+        }
+      pendingChunks[chunkIndex] = promise
+      promise.onProcessed { synchronized(pendingChunks) { pendingChunks.remove(chunkIndex, promise) } }
+      return promise
+    }
   }
 
   override fun sortBy(sortKeys: List<RowSorter.SortKey>): RDataFrameViewer {
@@ -172,8 +235,15 @@ internal class RDataFrameViewerImpl(private val ref: RPersistentRef) : RDataFram
     }
   }
 
+  override fun dispose() {
+    LOG.debug { "Data frame viewer cache: $cacheStats" }
+  }
+
   companion object {
+    private val LOG = Logger.getInstance(RDataFrameViewerImpl::class.java)
     private const val CHUNK_SIZE = 256
+    private const val PREFETCH_CHUNKS = 2
+    private const val CACHE_MB = 64
 
     fun ensureDplyrInstalled(project: Project) {
       val requiredPackages = listOf(RequiredPackage("dplyr"))
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.console
+
+import com.intellij.r.psi.interpreter.RInterpreterUtil.DEFAULT_TIMEOUT
+import com.intellij.r.psi.psi.TableColumnInfo
+import com.intellij.r.psi.psi.TableInfo
+import com.intellij.r.psi.psi.TableType
+import com.intellij.r.psi.rinterop.*
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.rinterop.FakeRPIService
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.concurrent.TimeUnit
+
+class RRuntimeSnapshotTest : RUsefulTestCase() {
+  fun testRoundTrip() {
+    val (_, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val ref = RReference.expressionRef("x", rInterop)
+    val snapshot = RRuntimeSnapshot.create(
+      mapOf("stats" to 1, "base" to 0, "dplyr" to 2),
+      listOf(RVar("f", ref, RValueFunction(listOf("function"), "function(x)")),
+             RVar("df", ref, RValueDataFrame(listOf("data.frame"), 10, 2)),
+             RVar("x", ref, RValueSimple(listOf("numeric"), "[1] 1"))),
+      mapOf("df" to TableInfo(listOf(TableColumnInfo("a", "integer"), TableColumnInfo("b")), TableType.DATA_FRAME)))
+    val path = Files.createTempDirectory("snapshot").resolve("snapshot.json")
+    RRuntimeSnapshot.write(path, snapshot)
+    val restored = RRuntimeSnapshot.read(path)!!
+
+    TestCase.assertEquals(listOf("base", "stats", "dplyr"), restored.loadedNamespaces)
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1, "dplyr" to 2), restored.loadedPackages)
+    val variables = restored.variables
+    TestCase.assertTrue(variables["f"] is RValueFunction)
+    TestCase.assertTrue(variables["df"] is RValueDataFrame)
+    TestCase.assertEquals(listOf("numeric"), variables["x"]!!.cls)
+    val table = restored.tableInfo("df")!!
+    TestCase.assertEquals(TableType.DATA_FRAME, table.type)
+    TestCase.assertEquals(listOf("a" to "integer", "b" to null), table.columns.map { it.name to it.type })
+    TestCase.assertNull(restored.tableInfo("other"))
+  }
+
+  fun testProvisionalDataUntilLiveDataArrives() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val path = writeSnapshot(rInterop)
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addAllList(listOf("base", "stats")).build() }
+    val runtimeInfo = RConsoleRuntimeInfoImpl(rInterop, path)
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1, "dplyr" to 2), runtimeInfo.loadedPackages)
+    TestCase.assertTrue(runtimeInfo.variables["df"] is RValueDataFrame)
+    TestCase.assertEquals(listOf("a"), runtimeInfo.loadTableColumns("df").columns.map { it.name })
+    TestCase.assertEquals(0, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+    TestCase.assertEquals(0, service.callCount(RPIServiceGrpc.getLoaderGetVariablesMethod()))
+
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1, "dplyr" to 2), runtimeInfo.loadedPackages)
+    rInterop.globalEnvLoader.getVariablesAsync().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1), runtimeInfo.loadedPackages)
+    TestCase.assertTrue(runtimeInfo.variables.isEmpty())
+  }
+
+  fun testSaveReusesLoadedData() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addAllList(listOf("base", "stats")).build() }
+    val path = Files.createTempDirectory("snapshot").resolve("snapshot.json")
+    val runtimeInfo = RConsoleRuntimeInfoImpl(rInterop, path)
+    TestCase.assertNull(runtimeInfo.saveSnapshot())
+    TestCase.assertEquals(0, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+    TestCase.assertEquals(0, service.callCount(RPIServiceGrpc.getLoaderGetVariablesMethod()))
+
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    rInterop.globalEnvLoader.getVariablesAsync().blockingGet(DEFAULT_TIMEOUT)
+    val variablesCalls = service.callCount(RPIServiceGrpc.getLoaderGetVariablesMethod())
+    runtimeInfo.saveSnapshot()!!.get(DEFAULT_TIMEOUT.toLong(), TimeUnit.MILLISECONDS)
+    TestCase.assertEquals(1, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+    TestCase.assertEquals(variablesCalls, service.callCount(RPIServiceGrpc.getLoaderGetVariablesMethod()))
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1), RRuntimeSnapshot.read(path)!!.loadedPackages)
+  }
+
+  fun testCorruptedFileIsIgnored() {
+    val path = Files.createTempDirectory("snapshot").resolve("snapshot.json")
+    TestCase.assertNull(RRuntimeSnapshot.read(path))
+    Files.writeString(path, "{\"loadedNamespaces\": [\"base\"]}")
+    TestCase.assertNull(RRuntimeSnapshot.read(path))
+    Files.writeString(path, "not a json")
+    TestCase.assertNull(RRuntimeSnapshot.read(path))
+  }
+
+  private fun writeSnapshot(rInterop: RInterop): Path {
+    val ref = RReference.expressionRef("df", rInterop)
+    val snapshot = RRuntimeSnapshot.create(
+      mapOf("base" to 0, "stats" to 1, "dplyr" to 2),
+      listOf(RVar("df", ref, RValueDataFrame(listOf("data.frame"), 10, 1))),
+      mapOf("df" to TableInfo(listOf(TableColumnInfo("a", "integer")), TableType.DATA_FRAME)))
+    return Files.createTempDirectory("snapshot").resolve("snapshot.json").also { RRuntimeSnapshot.write(it, snapshot) }
+  }
+}
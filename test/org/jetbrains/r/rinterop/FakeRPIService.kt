@@ -0,0 +1,147 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.google.protobuf.Message
+import com.intellij.execution.process.NopProcessHandler
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.project.Project
+import com.intellij.openapi.util.Disposer
+import com.intellij.r.psi.interpreter.RInterpreter
+import com.intellij.r.psi.rinterop.AsyncEvent
+import com.intellij.r.psi.rinterop.GetInfoResponse
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.util.concurrency.AppExecutorUtil
+import io.grpc.MethodDescriptor
+import io.grpc.ServerServiceDefinition
+import io.grpc.inprocess.InProcessChannelBuilder
+import io.grpc.inprocess.InProcessServerBuilder
+import io.grpc.stub.ServerCalls
+import io.grpc.stub.StreamObserver
+import org.mockito.Mockito
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * In-process RPIService with scripted responses. It allows running [RInteropImpl] without R and RWrapper.
+ *
+ * Unary methods without a script respond with the default instance of the response type,
+ * server streaming methods without a script complete immediately.
+ * `quit` sends the termination event and terminates the fake process, as RWrapper does.
+ */
+class FakeRPIService : Disposable {
+  private val unaryHandlers = ConcurrentHashMap<String, (Any) -> Any>()
+  private val streamingHandlers = ConcurrentHashMap<String, (Any) -> List<Any>>()
+  private val callCounts = ConcurrentHashMap<String, AtomicInteger>()
+  private val processHandler = NopProcessHandler().also { it.startNotify() }
+  @Volatile
+  private var asyncEventsObserver: StreamObserver<AsyncEvent>? = null
+
+  private val serverName = InProcessServerBuilder.generateName()
+  private val server = InProcessServerBuilder.forName(serverName)
+    .directExecutor()
+    .addService(createServiceDefinition())
+    .build()
+    .start()
+
+  init {
+    onUnary(RPIServiceGrpc.getGetInfoMethod()) { GetInfoResponse.newBuilder().setRVersion(R_VERSION).setPid(1).build() }
+    onUnary(RPIServiceGrpc.getQuitMethod()) {
+      asyncEventsObserver?.let {
+        it.onNext(AsyncEvent.newBuilder().setTermination(Empty.getDefaultInstance()).build())
+        it.onCompleted()
+      }
+      processHandler.destroyProcess()
+      Empty.getDefaultInstance()
+    }
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun <Request, Response> onUnary(method: MethodDescriptor<Request, Response>, handler: (Request) -> Response) {
+    unaryHandlers[method.bareMethodName!!] = handler as (Any) -> Any
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  fun <Request, Response> onServerStreaming(method: MethodDescriptor<Request, Response>, handler: (Request) -> List<Response>) {
+    streamingHandlers[method.bareMethodName!!] = handler as (Any) -> List<Any>
+  }
+
+  fun sendAsyncEvent(event: AsyncEvent) {
+    asyncEventsObserver!!.onNext(event)
+  }
+
+  fun callCount(method: MethodDescriptor<*, *>): Int = callCounts[method.bareMethodName!!]?.get() ?: 0
+
+  /** The caller disposes the returned interop before this service */
+  fun createRInterop(project: Project): RInteropImpl {
+    val channel = InProcessChannelBuilder.forName(serverName)
+      .executor(AppExecutorUtil.getAppExecutorService())
+      .maxInboundMessageSize(RInteropImpl.MAX_MESSAGE_SIZE)
+      .build()
+    val interpreter = Mockito.mock(RInterpreter::class.java)
+    return RInteropImpl(interpreter, processHandler, RInteropChannels.Connection(channel, false), project).also {
+      it.asyncEventsStartProcessing()
+    }
+  }
+
+  override fun dispose() {
+    server.shutdownNow()
+    server.awaitTermination(1, TimeUnit.SECONDS)
+  }
+
+  private fun createServiceDefinition(): ServerServiceDefinition {
+    val builder = ServerServiceDefinition.builder(RPIServiceGrpc.getServiceDescriptor())
+    for (method in RPIServiceGrpc.getServiceDescriptor().methods) {
+      @Suppress("UNCHECKED_CAST")
+      addMethod(builder, method as MethodDescriptor<Any, Any>)
+    }
+    return builder.build()
+  }
+
+  private fun addMethod(builder: ServerServiceDefinition.Builder, method: MethodDescriptor<Any, Any>) {
+    val name = method.bareMethodName!!
+    val defaultResponse = defaultResponse(method)
+    when {
+      name == RPIServiceGrpc.getGetAsyncEventsMethod().bareMethodName -> builder.addMethod(method, ServerCalls.asyncServerStreamingCall { _, observer ->
+        countCall(name)
+        @Suppress("UNCHECKED_CAST")
+        asyncEventsObserver = observer as StreamObserver<AsyncEvent>
+      })
+      method.type == MethodDescriptor.MethodType.SERVER_STREAMING -> builder.addMethod(method, ServerCalls.asyncServerStreamingCall { request, observer ->
+        countCall(name)
+        streamingHandlers[name]?.invoke(request)?.forEach { observer.onNext(it) }
+        observer.onCompleted()
+      })
+      else -> builder.addMethod(method, ServerCalls.asyncUnaryCall { request, observer ->
+        countCall(name)
+        observer.onNext(unaryHandlers[name]?.invoke(request) ?: defaultResponse)
+        observer.onCompleted()
+      })
+    }
+  }
+
+  private fun countCall(name: String) {
+    callCounts.computeIfAbsent(name) { AtomicInteger() }.incrementAndGet()
+  }
+
+  companion object {
+    const val R_VERSION = "4.3.0"
+
+    fun defaultResponse(method: MethodDescriptor<*, *>): Message {
+      return (method.responseMarshaller as MethodDescriptor.PrototypeMarshaller<*>).messagePrototype as Message
+    }
+
+    /** Creates the service with an interop on top of it, both disposed with [parentDisposable] */
+    fun createWithRInterop(project: Project, parentDisposable: Disposable): Pair<FakeRPIService, RInteropImpl> {
+      val service = FakeRPIService()
+      Disposer.register(parentDisposable, service)
+      val rInterop = service.createRInterop(project)
+      Disposer.register(service, rInterop)
+      return service to rInterop
+    }
+  }
+}
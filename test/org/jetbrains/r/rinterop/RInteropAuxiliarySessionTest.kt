@@ -0,0 +1,49 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.r.psi.rinterop.AsyncEvent
+import junit.framework.TestCase
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+
+class RInteropAuxiliarySessionTest : RUsefulTestCase() {
+  fun testRoutedOnlyWhileBusy() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val auxiliary = RInteropAuxiliarySession(rInterop)
+    Disposer.register(testRootDisposable, auxiliary)
+    Registry.get("r.interop.auxiliary.session").setValue(true, testRootDisposable)
+    TestCase.assertFalse(auxiliary.canServe())
+
+    val busy = AsyncPromise<Unit>()
+    val prompt = AsyncPromise<Unit>()
+    rInterop.addAsyncEventsListener(object : RInteropAsyncEventsListener {
+      override fun onBusy() {
+        busy.setResult(Unit)
+      }
+
+      override fun onPrompt(isDebug: Boolean) {
+        prompt.setResult(Unit)
+      }
+    })
+    service.sendAsyncEvent(AsyncEvent.newBuilder().setBusy(Empty.getDefaultInstance()).build())
+    busy.blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertTrue(rInterop.isBusy)
+    TestCase.assertTrue(auxiliary.canServe())
+
+    Registry.get("r.interop.auxiliary.session").setValue(false)
+    TestCase.assertFalse(auxiliary.canServe())
+    Registry.get("r.interop.auxiliary.session").setValue(true)
+
+    service.sendAsyncEvent(AsyncEvent.newBuilder().setPrompt(Empty.getDefaultInstance()).build())
+    prompt.blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertFalse(rInterop.isBusy)
+    TestCase.assertFalse(auxiliary.canServe())
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.openapi.util.registry.Registry
+import com.intellij.r.psi.rinterop.RInteropTimedOut
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.r.psi.rinterop.RReference
+import com.intellij.r.psi.rinterop.StringList
+import com.intellij.r.psi.util.awaitCancellable
+import junit.framework.TestCase
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.runBlocking
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropAwaitTest : RUsefulTestCase() {
+  fun testAwaitResult() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getGetFormalArgumentsMethod()) { StringList.newBuilder().addList("x").addList("y").build() }
+    val function = RReference.expressionRef("f", rInterop)
+    TestCase.assertEquals(listOf("x", "y"), runBlocking { rInterop.awaitFormalArguments(function) })
+    // The test runs on the EDT, where the wait is cancellable instead of runBlocking
+    TestCase.assertEquals(listOf("x", "y"), rInterop.blockingAwait { rInterop.awaitFormalArguments(function) })
+  }
+
+  fun testTimeoutIsReported() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    Registry.get("r.interop.await.timeout.ms").setValue(0, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getGetFormalArgumentsMethod()) { StringList.newBuilder().addList("x").build() }
+    try {
+      runBlocking { rInterop.awaitFormalArguments(RReference.expressionRef("f", rInterop)) }
+      TestCase.fail()
+    }
+    catch (e: RInteropTimedOut) {
+    }
+  }
+
+  fun testCancellationCancelsPromise() {
+    val promise = AsyncPromise<String>()
+    runBlocking {
+      val deferred = async(start = CoroutineStart.UNDISPATCHED) { promise.awaitCancellable() }
+      deferred.cancel()
+      try {
+        deferred.await()
+        TestCase.fail()
+      }
+      catch (e: CancellationException) {
+      }
+    }
+    TestCase.assertTrue(promise.isCancelled)
+  }
+}
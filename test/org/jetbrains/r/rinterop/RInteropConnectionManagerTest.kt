@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import junit.framework.TestCase
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+
+class RInteropConnectionManagerTest : RUsefulTestCase() {
+  fun testTerminatedSessionIsUnregistered() {
+    val sessionsBefore = RInteropConnectionManager.sessionCount
+    val (_, first) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val (_, second) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    TestCase.assertEquals(sessionsBefore + 2, RInteropConnectionManager.sessionCount)
+    TestCase.assertTrue(RInteropConnectionManager.resourceUsage().count { !it.isUnixSocket } >= 2)
+
+    val terminated = AsyncPromise<Unit>()
+    first.executeOnTermination { terminated.setResult(Unit) }
+    first.executeAsync(RPIServiceGrpc.getQuitMethod(), Empty.getDefaultInstance())
+    terminated.blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(sessionsBefore + 1, RInteropConnectionManager.sessionCount)
+    TestCase.assertTrue(second.isAlive)
+  }
+
+  fun testPooledSchedulerThread() {
+    val scheduler = RInteropScheduler("RInteropConnectionManagerTest", backing = RInteropConnectionManager.createSessionExecutor("test"))
+    val inTask = AsyncPromise<Boolean>()
+    scheduler.execute { inTask.setResult(scheduler.isSchedulerThread) }
+    TestCase.assertTrue(inTask.blockingGet(DEFAULT_TIMEOUT)!!)
+    TestCase.assertFalse(scheduler.isSchedulerThread)
+    scheduler.shutdown()
+  }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.CommandOutput
+import com.intellij.r.psi.rinterop.ExecuteCodeResponse
+import com.intellij.r.psi.rinterop.RInteropCacheScope
+import com.intellij.r.psi.rinterop.RInteropPriority
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.r.psi.rinterop.RReference
+import com.intellij.r.psi.rinterop.StringList
+import com.intellij.r.psi.rinterop.VariablesResponse
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+import java.util.EnumSet
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+class RInteropFakeServiceTest : RUsefulTestCase() {
+  fun testExecuteCode() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onServerStreaming(RPIServiceGrpc.getExecuteCodeMethod()) { request ->
+      listOf(output(CommandOutput.Type.STDOUT, request.code), output(CommandOutput.Type.STDERR, "warning"))
+    }
+    val result = rInterop.executeCode("1 + 1")
+    TestCase.assertEquals("1 + 1", result.stdout)
+    TestCase.assertEquals("warning", result.stderr)
+    TestCase.assertEquals(FakeRPIService.R_VERSION, rInterop.rVersion.toString())
+  }
+
+  fun testExecute() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    rInterop.execute(rInterop.asyncStub::isBusy, Empty.getDefaultInstance())
+    TestCase.assertTrue(service.callCount(RPIServiceGrpc.getIsBusyMethod()) >= 1)
+    TestCase.assertEquals(1L, rInterop.metrics.snapshot().first { it.methodName == "getInfo" }.count)
+  }
+
+  fun testAsyncCached() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addAllList(listOf("base", "stats")).build() }
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1), rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT))
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(1, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+    rInterop.invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES))
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(2, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+  }
+
+  fun testRuntimeCheckSharesNamespaces() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val namespaces = AtomicReference(listOf("base"))
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addAllList(namespaces.get()).build() }
+    val variablesEnd = AtomicLong()
+    service.onUnary(RPIServiceGrpc.getLoaderGetVariablesMethod()) { request ->
+      variablesEnd.set(request.end)
+      VariablesResponse.getDefaultInstance()
+    }
+    TestCase.assertEquals(mapOf("base" to 0), rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT))
+    rInterop.checkRuntimeFingerprint().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(2, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+    TestCase.assertEquals(RRuntimeFingerprint.MAX_BINDINGS, variablesEnd.get())
+    TestCase.assertEquals(mapOf("base" to 0), rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT))
+
+    namespaces.set(listOf("base", "stats"))
+    rInterop.checkRuntimeFingerprint().blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(mapOf("base" to 0, "stats" to 1), rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT))
+    TestCase.assertEquals(3, service.callCount(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()))
+  }
+
+  fun testPipelinedBlocksKeepPriority() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getLoaderGetVariablesMethod()) { request ->
+      VariablesResponse.newBuilder().setIsEnv(true).setTotalCount(3).also { response ->
+        (request.start until request.end).forEach { response.addVarsBuilder().setName("v$it") }
+      }.build()
+    }
+    val loader = RReference.expressionRef("e", rInterop).createVariableLoader()
+    val vars = rInterop.withPriority(RInteropPriority.BACKGROUND) { loader.loadAllVariables(blockSize = 1, maxInFlight = 1) }
+      .blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertEquals(listOf("v0", "v1", "v2"), vars.map { it.name })
+    // The blocks requested from callbacks go through the scheduler too rather than being sent as interactive requests
+    TestCase.assertEquals(3L, rInterop.schedulerStats.getValue(RInteropPriority.BACKGROUND).executed)
+  }
+
+  private fun output(type: CommandOutput.Type, text: String): ExecuteCodeResponse {
+    return ExecuteCodeResponse.newBuilder().setOutput(CommandOutput.newBuilder().setType(type).setText(ByteString.copyFromUtf8(text))).build()
+  }
+}
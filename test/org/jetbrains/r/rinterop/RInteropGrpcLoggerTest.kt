@@ -0,0 +1,83 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.gson.GsonBuilder
+import com.google.protobuf.StringValue
+import com.intellij.r.psi.rinterop.DataFrameGetDataResponse
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.r.psi.rinterop.RReference
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+
+class RInteropGrpcLoggerTest : RUsefulTestCase() {
+  fun testByteBudget() {
+    val logger = RInteropGrpcLogger(maxBytes = 1000)
+    repeat(10) { log(logger, "small", "x".repeat(100)) }
+    log(logger, "big", "x".repeat(5000))
+    val messages = logger.messages
+    TestCase.assertTrue(messages.sumOf { it.request.size + ((it as RInteropGrpcLogger.StubMessage).response?.size ?: 0) } <= 1000)
+    TestCase.assertEquals("big", messages.last().methodName)
+    TestCase.assertEquals(0, messages.last().request.size)
+    val stats = logger.getMethodSizeStats()
+    TestCase.assertEquals(10L, stats.getValue("small").count)
+    TestCase.assertEquals(1L, stats.getValue("big").count)
+    TestCase.assertTrue(stats.getValue("big").requestBytes >= 5000)
+  }
+
+  fun testEmptyMessagesCountTowardBudget() {
+    val logger = RInteropGrpcLogger(maxBytes = 1000)
+    repeat(100) { log(logger, "empty", "") }
+    TestCase.assertEquals(1000 / RInteropGrpcLogger.RECORD_OVERHEAD_BYTES.toInt(), logger.messages.size)
+  }
+
+  fun testRecordCountLimitWithoutByteBudget() {
+    val logger = RInteropGrpcLogger()
+    repeat(RInteropGrpcLogger.MAX_RECORDS + 10) { log(logger, "method", "") }
+    TestCase.assertEquals(RInteropGrpcLogger.MAX_RECORDS, logger.messages.size)
+  }
+
+  fun testDisabled() {
+    val logger = RInteropGrpcLogger(isEnabled = false)
+    log(logger, "method", "value")
+    TestCase.assertTrue(logger.messages.isEmpty())
+    TestCase.assertTrue(logger.getMethodSizeStats().isEmpty())
+  }
+
+  fun testDumpFormat() {
+    val logger = RInteropGrpcLogger()
+    log(logger, "method", "value")
+    val pending = logger.nextStubNumber()
+    logger.onStubMessageRequest(pending, StringValue.of("pending"), "pendingMethod")
+    val message = GsonBuilder().registerTypeAdapter(RInteropGrpcLogger.Message::class.java, MessageDeserializer).create()
+      .fromJson(logger.toJson(), Array<RInteropGrpcLogger.Message>::class.java).single() as RInteropGrpcLogger.StubMessage
+    TestCase.assertEquals("method", message.methodName)
+    TestCase.assertEquals(StringValue.of("value"), StringValue.parseFrom(message.request))
+    TestCase.assertEquals(StringValue.of("value"), StringValue.parseFrom(message.response))
+    TestCase.assertTrue(logger.toJson(withPending = true).contains("pendingMethod"))
+  }
+
+  fun testDecodedResponseIsLogged() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    val response = DataFrameGetDataResponse.newBuilder()
+      .addColumns(DataFrameGetDataResponse.Column.newBuilder().addValues(DataFrameGetDataResponse.Value.newBuilder().setIntValue(42)))
+      .build()
+    service.onUnary(RPIServiceGrpc.getDataFrameGetDataMethod()) { response }
+    val decoded = rInterop.dataFrameGetData(RReference.expressionRef("df", rInterop), 0, 1) { DataFrameGetDataResponse.parseFrom(it) }
+      .blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(response, decoded)
+    val logger = rInterop.rInteropGrpcLogger
+    val message = logger.messages.last { it.methodName == "dataFrameGetData" } as RInteropGrpcLogger.StubMessage
+    TestCase.assertEquals(response, DataFrameGetDataResponse.parseFrom(message.response))
+    TestCase.assertEquals(response.serializedSize.toLong(), logger.getMethodSizeStats().getValue("dataFrameGetData").responseBytes)
+  }
+
+  private fun log(logger: RInteropGrpcLogger, methodName: String, value: String) {
+    val number = logger.nextStubNumber()
+    logger.onStubMessageRequest(number, StringValue.of(value), methodName)
+    logger.onStubMessageResponse(number, StringValue.of(value))
+  }
+}
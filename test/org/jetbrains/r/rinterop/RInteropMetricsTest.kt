@@ -0,0 +1,43 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropMetricsTest : RUsefulTestCase() {
+  fun testCountsAndBytes() {
+    val metrics = RInteropMetrics()
+    metrics.startCall("loaderGetVariables", 10).apply { addBytesIn(100); completed() }
+    metrics.startCall("loaderGetVariables", 20).apply { addBytesIn(50); addBytesIn(50); completed() }
+    metrics.startCall("loaderGetVariables", 5).cancelled()
+    metrics.startCall("graphicsRescale", 1).failed()
+    val byMethod = metrics.snapshot().associateBy { it.methodName }
+    val variables = byMethod.getValue("loaderGetVariables")
+    TestCase.assertEquals(3L, variables.count)
+    TestCase.assertEquals(1L, variables.cancelled)
+    TestCase.assertEquals(0L, variables.failed)
+    TestCase.assertEquals(35L, variables.bytesOut)
+    TestCase.assertEquals(200L, variables.bytesIn)
+    TestCase.assertEquals(1L, byMethod.getValue("graphicsRescale").failed)
+    TestCase.assertTrue(metrics.toJson().contains("graphicsRescale"))
+    metrics.reset()
+    TestCase.assertTrue(metrics.snapshot().isEmpty())
+  }
+
+  fun testPercentiles() {
+    val metrics = RInteropMetrics()
+    repeat(98) { metrics.startCall("fast", 0).completed() }
+    repeat(2) {
+      val call = metrics.startCall("fast", 0)
+      Thread.sleep(50)
+      call.completed()
+    }
+    val stats = metrics.snapshot().single()
+    TestCase.assertTrue(stats.p50Ms < 10.0)
+    TestCase.assertTrue(stats.p99Ms >= 40.0)
+    TestCase.assertTrue(stats.p99Ms <= stats.maxMs)
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.PersistentRefList
+import junit.framework.TestCase
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+import java.util.concurrent.CopyOnWriteArrayList
+
+class RInteropRefReclamationQueueTest : RUsefulTestCase() {
+  private val sent = CopyOnWriteArrayList<PersistentRefList>()
+  private val queue = RInteropRefReclamationQueue(3, 10) { list ->
+    sent.add(list)
+    AsyncPromise<Empty>().also { it.setResult(Empty.getDefaultInstance()) }
+  }
+
+  fun testFlushOnIdle() {
+    repeat(4) { queue.onCreated() }
+    val first = queue.release(listOf(1))
+    queue.release(listOf(2))
+    TestCase.assertTrue(sent.isEmpty())
+    TestCase.assertEquals(2, queue.pendingCount)
+    TestCase.assertEquals(2, queue.liveRefCount)
+    queue.setIdle(true)
+    TestCase.assertEquals(listOf(1, 2), sent.single().indicesList)
+    TestCase.assertTrue(first.isSucceeded)
+    TestCase.assertEquals(0, queue.pendingCount)
+  }
+
+  fun testFlushOnThreshold() {
+    queue.release(listOf(1, 2))
+    TestCase.assertTrue(sent.isEmpty())
+    queue.release(listOf(3))
+    TestCase.assertEquals(listOf(1, 2, 3), sent.single().indicesList)
+  }
+
+  fun testDelayedFlushWhileIdle() {
+    queue.setIdle(true)
+    queue.release(listOf(1))
+    queue.release(listOf(2)).blockingGet(DEFAULT_TIMEOUT)
+    TestCase.assertEquals(listOf(1, 2), sent.single().indicesList)
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.gson.GsonBuilder
+import com.google.gson.JsonParser
+import com.google.protobuf.ByteString
+import com.google.protobuf.GeneratedMessageV3
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.project.Project
+import com.intellij.r.psi.rinterop.CommandOutput
+import com.intellij.r.psi.rinterop.ExecuteCodeRequest
+import com.intellij.r.psi.rinterop.ExecuteCodeResponse
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import io.grpc.MethodDescriptor
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream
+import java.io.File
+import java.io.InputStreamReader
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+
+/**
+ * Replays a session recorded by [RInteropGrpcLogger.toJson] without R.
+ *
+ * [FakeRPIService] answers each method with its recorded responses in the recorded order,
+ * while a fresh [RInteropImpl] sends the recorded requests one by one and measures each call.
+ */
+class RInteropReplay(private val messages: List<RInteropGrpcLogger.Message>) {
+  data class CallTiming(val methodName: String, val latencyMs: Double)
+
+  class Report(val calls: List<CallTiming>, val skipped: Int, val wallTimeMs: Double) {
+    override fun toString(): String = buildString {
+      append("Replayed ${calls.size} calls in ${"%.1f".format(wallTimeMs)}ms, skipped $skipped\n")
+      for ((methodName, timings) in calls.groupBy { it.methodName }.entries.sortedByDescending { e -> e.value.sumOf { it.latencyMs } }) {
+        val total = timings.sumOf { it.latencyMs }
+        append("$methodName: count=${timings.size}, total=${"%.1f".format(total)}ms, max=${"%.1f".format(timings.maxOf { it.latencyMs })}ms\n")
+      }
+    }
+  }
+
+  private val methods = RPIServiceGrpc.getServiceDescriptor().methods.associateBy { it.bareMethodName }
+
+  fun run(project: Project, parentDisposable: Disposable): Report {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, parentDisposable)
+    script(service)
+    val calls = mutableListOf<CallTiming>()
+    var skipped = 0
+    val start = System.nanoTime()
+    for (message in messages) {
+      val method = methods[message.methodName]
+      if (method == null || message.methodName in NOT_REPLAYED) {
+        ++skipped
+        continue
+      }
+      val callStart = System.nanoTime()
+      send(rInterop, method, message)
+      calls.add(CallTiming(message.methodName, (System.nanoTime() - callStart) / 1_000_000.0))
+    }
+    return Report(calls, skipped, (System.nanoTime() - start) / 1_000_000.0)
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun script(service: FakeRPIService) {
+    val recorded = ConcurrentHashMap<String, ConcurrentLinkedQueue<RInteropGrpcLogger.Message>>()
+    for (message in messages) {
+      if (message.methodName !in NOT_REPLAYED) recorded.computeIfAbsent(message.methodName) { ConcurrentLinkedQueue() }.add(message)
+    }
+    for ((methodName, queue) in recorded) {
+      val method = methods[methodName] as? MethodDescriptor<Any, Any> ?: continue
+      if (method.type == MethodDescriptor.MethodType.SERVER_STREAMING) {
+        service.onServerStreaming(method) { outputs(method, queue.poll() as? RInteropGrpcLogger.CommandMessage) }
+      }
+      else {
+        service.onUnary(method) {
+          (queue.poll() as? RInteropGrpcLogger.StubMessage)?.response?.let { method.parseResponse(it.inputStream()) }
+          ?: FakeRPIService.defaultResponse(method)
+        }
+      }
+    }
+  }
+
+  private fun outputs(method: MethodDescriptor<*, *>, message: RInteropGrpcLogger.CommandMessage?): List<Any> {
+    if (message == null) return emptyList()
+    val outputs = listOf(CommandOutput.Type.STDOUT to message.stdout, CommandOutput.Type.STDERR to message.stderr)
+      .filter { it.second.isNotEmpty() }
+      .map { (type, text) -> CommandOutput.newBuilder().setType(type).setText(ByteString.copyFromUtf8(text.toString())).build() }
+    return if (method.bareMethodName == RPIServiceGrpc.getExecuteCodeMethod().bareMethodName) {
+      outputs.map { ExecuteCodeResponse.newBuilder().setOutput(it).build() }
+    }
+    else {
+      outputs
+    }
+  }
+
+  @Suppress("UNCHECKED_CAST")
+  private fun send(rInterop: RInteropImpl, method: MethodDescriptor<*, *>, message: RInteropGrpcLogger.Message) {
+    val request = method.parseRequest(message.request.inputStream()) as GeneratedMessageV3
+    when {
+      request is ExecuteCodeRequest -> rInterop.executeCode(request.code)
+      method.type == MethodDescriptor.MethodType.SERVER_STREAMING ->
+        rInterop.executeRequestAsync(method as MethodDescriptor<GeneratedMessageV3, CommandOutput>, request).blockingGet(CALL_TIMEOUT_MS)
+      else -> rInterop.executeAsync(method as MethodDescriptor<GeneratedMessageV3, GeneratedMessageV3>, request).blockingGet(CALL_TIMEOUT_MS)
+    }
+  }
+
+  companion object {
+    private const val CALL_TIMEOUT_MS = 20000
+
+    /**
+     * Handled by [FakeRPIService] itself, or sent by the fresh [RInteropImpl] on its own: the startup calls
+     * and the `isBusy` heartbeat would take recorded responses meant for the replayed calls and skew the report
+     */
+    private val NOT_REPLAYED = setOf("getAsyncEvents", "quit", "quitProceed", "isBusy", "getInfo", "getEqualityObject")
+
+    /** Loads a dump saved by [RInteropGrpcLogger.toJson], optionally compressed with xz */
+    fun load(file: File): RInteropReplay {
+      val text = if (file.extension == "xz") {
+        XZCompressorInputStream(file.inputStream()).use { InputStreamReader(it).readText() }
+      }
+      else {
+        file.readText()
+      }
+      return fromJson(text)
+    }
+
+    fun fromJson(json: String): RInteropReplay {
+      val root = JsonParser.parseString(json)
+      val messages = if (root.isJsonObject) root.asJsonObject["messages"] else root
+      val gson = GsonBuilder().registerTypeAdapter(RInteropGrpcLogger.Message::class.java, MessageDeserializer).create()
+      return RInteropReplay(gson.fromJson(messages, Array<RInteropGrpcLogger.Message>::class.java).toList())
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import com.intellij.r.psi.rinterop.CommandOutput
+import com.intellij.r.psi.rinterop.ExecuteCodeResponse
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.r.psi.rinterop.StringList
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+
+class RInteropReplayTest : RUsefulTestCase() {
+  fun testReplayRecordedSession() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addList("base").build() }
+    service.onServerStreaming(RPIServiceGrpc.getExecuteCodeMethod()) {
+      listOf(ExecuteCodeResponse.newBuilder().setOutput(
+        CommandOutput.newBuilder().setType(CommandOutput.Type.STDOUT).setText(ByteString.copyFromUtf8("[1] 2"))).build())
+    }
+    TestCase.assertEquals("[1] 2", rInterop.executeCode("1 + 1").stdout)
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    val dump = rInterop.rInteropGrpcLogger.toJson()
+
+    val report = RInteropReplay.fromJson(dump).run(project, testRootDisposable)
+    val methodNames = report.calls.map { it.methodName }
+    TestCase.assertTrue(methodNames.containsAll(listOf("executeCode", "loaderGetLoadedNamespaces")))
+    TestCase.assertFalse(methodNames.contains("getInfo"))
+    TestCase.assertFalse(methodNames.contains("isBusy"))
+    TestCase.assertTrue(report.skipped > 0)
+    TestCase.assertTrue(methodNames.indexOf("executeCode") < methodNames.indexOf("loaderGetLoadedNamespaces"))
+    TestCase.assertTrue(report.wallTimeMs >= report.calls.sumOf { it.latencyMs })
+    TestCase.assertTrue(report.toString().contains("loaderGetLoadedNamespaces"))
+  }
+}
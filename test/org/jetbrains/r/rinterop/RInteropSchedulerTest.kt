@@ -0,0 +1,125 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.r.psi.rinterop.RInteropPriority
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class RInteropSchedulerTest : RUsefulTestCase() {
+  private lateinit var scheduler: RInteropScheduler
+
+  override fun setUp() {
+    super.setUp()
+    scheduler = RInteropScheduler("RInteropSchedulerTest", agingMs = 60_000, maxDeferMs = 60_000)
+  }
+
+  override fun tearDown() {
+    try {
+      scheduler.shutdown()
+    }
+    finally {
+      super.tearDown()
+    }
+  }
+
+  fun testPriorityOrder() {
+    val order = Collections.synchronizedList(ArrayList<String>())
+    val done = CountDownLatch(4)
+    blockScheduler {
+      scheduler.submit(RInteropPriority.BACKGROUND) { order.add("background"); done.countDown() }
+      scheduler.submit(RInteropPriority.UI_REFRESH) { order.add("refresh"); done.countDown() }
+      scheduler.submit(RInteropPriority.INTERACTIVE) { order.add("interactive1"); done.countDown() }
+      scheduler.submit(RInteropPriority.INTERACTIVE) { order.add("interactive2"); done.countDown() }
+    }
+    TestCase.assertTrue(done.await(5, TimeUnit.SECONDS))
+    TestCase.assertEquals(listOf("interactive1", "interactive2", "refresh", "background"), order)
+  }
+
+  fun testAging() {
+    val agingScheduler = RInteropScheduler("RInteropSchedulerTest.aging", agingMs = 10, maxDeferMs = 60_000)
+    try {
+      val order = Collections.synchronizedList(ArrayList<String>())
+      val done = CountDownLatch(2)
+      val started = CountDownLatch(1)
+      val release = CountDownLatch(1)
+      agingScheduler.submit(RInteropPriority.INTERACTIVE) { started.countDown(); release.await() }
+      started.await()
+      agingScheduler.submit(RInteropPriority.BACKGROUND) { order.add("background"); done.countDown() }
+      Thread.sleep(50)
+      agingScheduler.submit(RInteropPriority.INTERACTIVE) { order.add("interactive"); done.countDown() }
+      release.countDown()
+      TestCase.assertTrue(done.await(5, TimeUnit.SECONDS))
+      TestCase.assertEquals(listOf("background", "interactive"), order)
+    }
+    finally {
+      agingScheduler.shutdown()
+    }
+  }
+
+  fun testSupersededAndObsoleteTasksAreDropped() {
+    val executed = Collections.synchronizedList(ArrayList<String>())
+    val dropped = Collections.synchronizedList(ArrayList<String>())
+    val done = CountDownLatch(1)
+    blockScheduler {
+      scheduler.submit(RInteropPriority.UI_REFRESH, key = "refresh", onDrop = { dropped.add("old") }) { executed.add("old") }
+      scheduler.submit(RInteropPriority.UI_REFRESH, key = "refresh", onDrop = { dropped.add("new") }) { executed.add("new") }
+      scheduler.submit(RInteropPriority.UI_REFRESH, isObsolete = { true }, onDrop = { dropped.add("obsolete") }) { executed.add("obsolete") }
+      scheduler.submit(RInteropPriority.BACKGROUND) { done.countDown() }
+    }
+    TestCase.assertTrue(done.await(5, TimeUnit.SECONDS))
+    TestCase.assertEquals(listOf("new"), executed)
+    TestCase.assertEquals(setOf("old", "obsolete"), dropped.toSet())
+    val stats = scheduler.getStats().getValue(RInteropPriority.UI_REFRESH)
+    TestCase.assertEquals(0, stats.queueDepth)
+    TestCase.assertEquals(1L, stats.executed)
+    TestCase.assertEquals(2L, stats.dropped)
+  }
+
+  fun testBackgroundWaitsForForegroundRequests() {
+    val done = CountDownLatch(1)
+    scheduler.requestStarted(RInteropPriority.INTERACTIVE)
+    scheduler.submit(RInteropPriority.BACKGROUND) { done.countDown() }
+    TestCase.assertFalse(done.await(200, TimeUnit.MILLISECONDS))
+    TestCase.assertEquals(1, scheduler.getStats().getValue(RInteropPriority.BACKGROUND).queueDepth)
+    scheduler.requestFinished(RInteropPriority.INTERACTIVE)
+    TestCase.assertTrue(done.await(5, TimeUnit.SECONDS))
+  }
+
+  fun testRunningTaskSendsQueuedRequests() {
+    val sent = CountDownLatch(1)
+    val taskDone = CountDownLatch(1)
+    val started = CountDownLatch(1)
+    val queued = CountDownLatch(1)
+    val otherTask = Collections.synchronizedList(ArrayList<String>())
+    scheduler.submit(RInteropPriority.INTERACTIVE) {
+      started.countDown()
+      queued.await()
+      scheduler.sendQueuedRequests()
+      // Without sendQueuedRequests the request would wait for this task, which waits for the request.
+      // Other tasks still wait
+      if (sent.await(5, TimeUnit.SECONDS) && otherTask.isEmpty()) taskDone.countDown()
+    }
+    started.await()
+    scheduler.submit(RInteropPriority.BACKGROUND, isRequest = true) { sent.countDown() }
+    scheduler.submit(RInteropPriority.UI_REFRESH) { otherTask.add("task") }
+    queued.countDown()
+    TestCase.assertTrue(taskDone.await(10, TimeUnit.SECONDS))
+    TestCase.assertEquals(1L, scheduler.getStats().getValue(RInteropPriority.BACKGROUND).executed)
+  }
+
+  /** Submits tasks while the scheduler thread is busy, so they are ordered by the scheduler rather than by submission */
+  private fun blockScheduler(submit: () -> Unit) {
+    val started = CountDownLatch(1)
+    val release = CountDownLatch(1)
+    scheduler.submit(RInteropPriority.INTERACTIVE) { started.countDown(); release.await() }
+    started.await()
+    submit()
+    release.countDown()
+  }
+}
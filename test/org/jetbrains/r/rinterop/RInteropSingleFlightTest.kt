@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.StringValue
+import com.intellij.r.psi.rinterop.RInteropPriority
+import junit.framework.TestCase
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.concurrency.isRejected
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropSingleFlightTest : RUsefulTestCase() {
+  fun testIdenticalCallsShareRequest() {
+    val shared = mutableListOf<String>()
+    val singleFlight = RInteropSingleFlight { shared.add(it) }
+    val sent = mutableListOf<AsyncPromise<String>>()
+    val send = { AsyncPromise<String>().also { sent.add(it) } }
+    val first = singleFlight.execute("loadObjectNames", StringValue.of("x"), null, send)
+    val second = singleFlight.execute("loadObjectNames", StringValue.of("x"), null, send)
+    val other = singleFlight.execute("loadObjectNames", StringValue.of("y"), null, send)
+    TestCase.assertEquals(2, sent.size)
+    sent[0].setResult("a")
+    TestCase.assertEquals("a", first.blockingGet(0))
+    TestCase.assertEquals("a", second.blockingGet(0))
+    TestCase.assertFalse(other.isDone)
+    TestCase.assertEquals(listOf("loadObjectNames"), shared)
+    TestCase.assertEquals(1.0 / 3, singleFlight.hitRatio, 1e-9)
+
+    singleFlight.execute("loadObjectNames", StringValue.of("x"), null, send)
+    TestCase.assertEquals(3, sent.size)
+  }
+
+  fun testDifferentContextsDoNotShareRequest() {
+    val singleFlight = RInteropSingleFlight()
+    val sent = mutableListOf<AsyncPromise<String>>()
+    val send = { AsyncPromise<String>().also { sent.add(it) } }
+    val background = singleFlight.execute("getFormalArguments", StringValue.of("f"), RInteropPriority.BACKGROUND to 1, send)
+    singleFlight.execute("getFormalArguments", StringValue.of("f"), RInteropPriority.INTERACTIVE to 1, send)
+    singleFlight.execute("getFormalArguments", StringValue.of("f"), RInteropPriority.BACKGROUND to 2, send)
+    TestCase.assertEquals(3, sent.size)
+    singleFlight.execute("getFormalArguments", StringValue.of("f"), RInteropPriority.BACKGROUND to 1, send).cancel()
+    TestCase.assertEquals(3, sent.size)
+    TestCase.assertFalse(background.isDone)
+  }
+
+  fun testCancellation() {
+    val singleFlight = RInteropSingleFlight()
+    val sent = mutableListOf<AsyncPromise<String>>()
+    val send = { AsyncPromise<String>().also { sent.add(it) } }
+    val first = singleFlight.execute("getDistinctStrings", StringValue.of("x"), null, send)
+    val second = singleFlight.execute("getDistinctStrings", StringValue.of("x"), null, send)
+    first.cancel()
+    TestCase.assertFalse(sent.single().isCancelled)
+    sent.single().setResult("a")
+    TestCase.assertEquals("a", second.blockingGet(0))
+
+    val third = singleFlight.execute("getDistinctStrings", StringValue.of("x"), null, send)
+    val fourth = singleFlight.execute("getDistinctStrings", StringValue.of("x"), null, send)
+    third.cancel()
+    fourth.cancel()
+    TestCase.assertTrue(sent.last().isCancelled)
+    singleFlight.execute("getDistinctStrings", StringValue.of("x"), null, send)
+    TestCase.assertEquals(3, sent.size)
+  }
+
+  fun testThrowingSendDoesNotBlockLaterCalls() {
+    val singleFlight = RInteropSingleFlight()
+    val failed = singleFlight.execute<String>("getDistinctStrings", StringValue.of("x"), null) { throw IllegalStateException("not sent") }
+    TestCase.assertTrue(failed.isRejected)
+    val sent = mutableListOf<AsyncPromise<String>>()
+    val next = singleFlight.execute("getDistinctStrings", StringValue.of("x"), null) { AsyncPromise<String>().also { sent.add(it) } }
+    TestCase.assertEquals(1, sent.size)
+    sent.single().setResult("a")
+    TestCase.assertEquals("a", next.blockingGet(0))
+  }
+}
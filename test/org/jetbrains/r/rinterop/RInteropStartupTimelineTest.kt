@@ -0,0 +1,40 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import junit.framework.TestCase
+import org.jetbrains.concurrency.AsyncPromise
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropStartupTimelineTest : RUsefulTestCase() {
+  fun testPhases() {
+    val timeline = RInteropStartupTimeline()
+    val pending = AsyncPromise<Unit>()
+    timeline.phaseAsync("state", pending)
+    TestCase.assertEquals(42, timeline.phase("init") { 42 })
+    TestCase.assertEquals(listOf("init"), timeline.snapshot().map { it.name })
+    pending.setResult(Unit)
+    TestCase.assertEquals(setOf("state", "init"), timeline.snapshot().map { it.name }.toSet())
+    TestCase.assertTrue(timeline.snapshot().all { it.durationMs!! >= 0 })
+
+    TestCase.assertNull(timeline.timeToFirstPromptMs)
+    timeline.firstPrompt()
+    val firstPrompt = timeline.timeToFirstPromptMs!!
+    timeline.firstPrompt()
+    TestCase.assertEquals(firstPrompt, timeline.timeToFirstPromptMs)
+    TestCase.assertEquals(1, timeline.snapshot().count { it.name == RInteropStartupTimeline.FIRST_PROMPT })
+  }
+
+  fun testFailedPhaseIsRecorded() {
+    val timeline = RInteropStartupTimeline()
+    try {
+      timeline.phase("connect") { throw IllegalStateException() }
+      TestCase.fail()
+    }
+    catch (e: IllegalStateException) {
+    }
+    TestCase.assertEquals(listOf("connect"), timeline.snapshot().map { it.name })
+  }
+}
@@ -8,6 +8,7 @@ import com.intellij.execution.process.ProcessOutputType
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.SystemInfo
 import com.intellij.r.psi.rinterop.ProtoUtil
+import com.intellij.r.psi.rinterop.RInteropCacheScope
 import com.intellij.r.psi.rinterop.RReference
 import com.intellij.r.psi.rinterop.RValue
 import com.intellij.r.psi.rinterop.RValueFunction
@@ -16,6 +17,7 @@ import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.concurrency.runAsync
 import org.jetbrains.r.run.RProcessHandlerBaseTestCase
 import org.jetbrains.r.run.visualize.RDataFrameViewer
+import java.util.EnumSet
 import java.util.concurrent.CompletableFuture
 import java.util.concurrent.TimeUnit
 
@@ -263,6 +265,20 @@ fun testExecuteMultilineWithFor() {
     TestCase.assertEquals("[1] 321", rInterop.executeCode("s2[2]").stdout.trim())
   }
 
+  fun testBatchedObjectSizes() {
+    rInterop.executeCode("small <- 1; big <- 1:100000 + 0")
+    val small = RReference.expressionRef("small", rInterop)
+    val big = RReference.expressionRef("big", rInterop)
+    val first = rInterop.getObjectSizesAsync(listOf(small, big))
+    val second = rInterop.getObjectSizesAsync(listOf(big))
+    val firstSizes = first.blockingGet(DEFAULT_TIMEOUT)!!
+    val secondSizes = second.blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertEquals(2, firstSizes.size)
+    TestCase.assertTrue(firstSizes[0] < firstSizes[1])
+    TestCase.assertEquals(listOf(firstSizes[1]), secondSizes)
+    TestCase.assertEquals(firstSizes, rInterop.getObjectSizes(listOf(small, big)))
+  }
+
   fun testLastValue() {
     rInterop.executeCodeAsync("10 * 20 * 30", setLastValue = true, withEcho = true).blockingGet(DEFAULT_TIMEOUT)
     rInterop.executeCodeAsync("'no'", setLastValue = false, withEcho = true).blockingGet(DEFAULT_TIMEOUT)
@@ -288,6 +304,18 @@ fun testExecuteMultilineWithFor() {
     TestCase.assertFalse("tools" in packages)
   }
 
+  fun testScopedInvalidation() {
+    var computations = 0
+    val value: Int by rInterop.cached(0, EnumSet.of(RInteropCacheScope.NAMESPACES)) { ++computations }
+    TestCase.assertEquals(1, value)
+    rInterop.invalidateCaches(EnumSet.of(RInteropCacheScope.ENVIRONMENTS, RInteropCacheScope.WORKING_DIR))
+    TestCase.assertEquals(1, value)
+    rInterop.invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES))
+    TestCase.assertEquals(2, value)
+    rInterop.invalidateCaches()
+    TestCase.assertEquals(3, value)
+  }
+
   fun testToplevelHandlers() {
     rInterop.replExecute("""
       addTaskCallback(function(...) {
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.AsyncEvent
+import com.intellij.r.psi.rinterop.CommandOutput
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropTextPipelineTest : RUsefulTestCase() {
+  fun testMergeKeepsInterleaving() {
+    val pipeline = RInteropTextPipeline(1024, 1024 * 1024, dropOnOverflow = false)
+    TestCase.assertTrue(pipeline.offer(text(CommandOutput.Type.STDOUT, "a")))
+    TestCase.assertFalse(pipeline.offer(text(CommandOutput.Type.STDOUT, "b")))
+    pipeline.offer(text(CommandOutput.Type.STDERR, "c"))
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "d"))
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "e"))
+    TestCase.assertEquals(listOf("STDOUT ab", "STDERR c", "STDOUT de"), pipeline.drain().map { describe(it) })
+    TestCase.assertTrue(pipeline.offer(text(CommandOutput.Type.STDOUT, "f")))
+  }
+
+  fun testOtherEventsKeepTheirPlace() {
+    val pipeline = RInteropTextPipeline(1024, 1024 * 1024, dropOnOverflow = false)
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "a"))
+    pipeline.offer(AsyncEvent.newBuilder().setPrompt(Empty.getDefaultInstance()).build())
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "b"))
+    pipeline.offer(AsyncEvent.newBuilder().setBusy(Empty.getDefaultInstance()).build())
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "c"))
+    TestCase.assertEquals(listOf("STDOUT a", "PROMPT", "STDOUT b", "BUSY", "STDOUT c"), pipeline.drain().map { describe(it) })
+  }
+
+  fun testBatchSizeLimit() {
+    val pipeline = RInteropTextPipeline(4, 1024 * 1024, dropOnOverflow = false)
+    repeat(5) { pipeline.offer(text(CommandOutput.Type.STDOUT, "xy")) }
+    TestCase.assertEquals(listOf("STDOUT xyxy", "STDOUT xyxy", "STDOUT xy"), pipeline.drain().map { describe(it) })
+  }
+
+  fun testOverflowPausesStream() {
+    var requests = 0
+    val pipeline = RInteropTextPipeline(1024, 4, dropOnOverflow = false) { requests++ }
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "12"))
+    TestCase.assertEquals(1, requests)
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "3456"))
+    TestCase.assertEquals(1, requests)
+    TestCase.assertEquals(listOf("STDOUT 123456"), pipeline.drain().map { describe(it) })
+    TestCase.assertEquals(2, requests)
+    pipeline.drain()
+    TestCase.assertEquals(2, requests)
+  }
+
+  fun testDropOnOverflow() {
+    var requests = 0
+    val pipeline = RInteropTextPipeline(1024, 4, dropOnOverflow = true) { requests++ }
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "1234"))
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "5678"))
+    pipeline.offer(text(CommandOutput.Type.STDERR, "90"))
+    TestCase.assertEquals(3, requests)
+    val events = pipeline.drain()
+    TestCase.assertEquals(2, events.size)
+    TestCase.assertEquals("STDOUT 1234", describe(events[0]))
+    TestCase.assertEquals(CommandOutput.Type.STDERR, events[1].text.type)
+    TestCase.assertTrue(events[1].text.text.toStringUtf8().contains("6 B"))
+    pipeline.offer(text(CommandOutput.Type.STDOUT, "ok"))
+    TestCase.assertEquals(listOf("STDOUT ok"), pipeline.drain().map { describe(it) })
+  }
+
+  private fun text(type: CommandOutput.Type, s: String): AsyncEvent {
+    return AsyncEvent.newBuilder().setText(CommandOutput.newBuilder().setType(type).setText(ByteString.copyFromUtf8(s))).build()
+  }
+
+  private fun describe(event: AsyncEvent): String {
+    return if (event.hasText()) "${event.text.type} ${event.text.text.toStringUtf8()}" else event.eventCase.name
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.google.protobuf.ByteString
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RInteropUtf8DecoderTest : RUsefulTestCase() {
+  fun testSplitAtEveryByte() {
+    val text = "aшb私c😀d"
+    val bytes = text.toByteArray(Charsets.UTF_8)
+    for (first in 0..bytes.size) {
+      for (second in first..bytes.size) {
+        val decoder = RInteropUtf8Decoder()
+        val decoded = decoder.decode(ByteString.copyFrom(bytes, 0, first)) +
+                      decoder.decode(ByteString.copyFrom(bytes, first, second - first)) +
+                      decoder.decode(ByteString.copyFrom(bytes, second, bytes.size - second)) +
+                      decoder.flush()
+        TestCase.assertEquals("split at $first, $second", text, decoded)
+      }
+    }
+  }
+
+  fun testByteByByte() {
+    val text = "😀∃x"
+    val decoder = RInteropUtf8Decoder()
+    val decoded = text.toByteArray(Charsets.UTF_8).joinToString("") { decoder.decode(ByteString.copyFrom(byteArrayOf(it))) }
+    TestCase.assertEquals(text, decoded)
+    TestCase.assertEquals("", decoder.flush())
+  }
+
+  fun testMalformedInputIsReplaced() {
+    val decoder = RInteropUtf8Decoder()
+    val broken = byteArrayOf(0xE2.toByte(), 0x88.toByte())
+    TestCase.assertEquals("a", decoder.decode(ByteString.copyFrom(byteArrayOf('a'.code.toByte()) + broken)))
+    TestCase.assertEquals(ByteString.copyFrom(broken).toStringUtf8() + "b", decoder.decode(ByteString.copyFromUtf8("b")))
+
+    TestCase.assertEquals("", decoder.decode(ByteString.copyFrom(broken)))
+    TestCase.assertEquals(ByteString.copyFrom(broken).toStringUtf8(), decoder.flush())
+    TestCase.assertEquals("", decoder.flush())
+  }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.openapi.util.Disposer
+import com.intellij.r.psi.rinterop.RPagedText
+import com.intellij.r.psi.rinterop.RReference
+import junit.framework.TestCase
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase
+
+class RPagedTextTest : RProcessHandlerBaseTestCase() {
+  fun testPages() {
+    rInterop.executeCode("x <- paste0('line', 1:1000)")
+    val expected = rInterop.executeCode("print(x)").stdout.trimEnd().lines()
+    val text = RPagedText.create(RReference.expressionRef("x", rInterop), 1024, testRootDisposable).blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertEquals(expected.size, text.lineCount)
+    TestCase.assertEquals(expected.sumOf { it.toByteArray().size + 1 }.toLong(), text.byteSize)
+    TestCase.assertFalse(text.isComplete)
+    TestCase.assertEquals(expected.take(text.firstPage.size), text.firstPage)
+    TestCase.assertEquals(expected.subList(10, 20), text.getLines(10, 10).blockingGet(DEFAULT_TIMEOUT))
+    TestCase.assertEquals(expected.takeLast(3), text.getLines(expected.size - 3, 10).blockingGet(DEFAULT_TIMEOUT))
+    TestCase.assertEquals(emptyList<String>(), text.getLines(expected.size, 10).blockingGet(DEFAULT_TIMEOUT))
+    Disposer.dispose(text)
+  }
+
+  fun testSmallValueIsComplete() {
+    val text = RPagedText.create(RReference.expressionRef("'a\\nb'", rInterop), 1024, testRootDisposable).blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertTrue(text.isComplete)
+    TestCase.assertEquals(listOf("[1] \"a\\nb\""), text.firstPage)
+  }
+}
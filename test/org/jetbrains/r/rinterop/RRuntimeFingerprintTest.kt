@@ -0,0 +1,54 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import com.intellij.r.psi.rinterop.RValueDataFrame
+import com.intellij.r.psi.rinterop.RValueFunction
+import com.intellij.r.psi.rinterop.RValueSimple
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RRuntimeFingerprintTest : RUsefulTestCase() {
+  private val dataFrame = listOf("data.frame")
+
+  fun testFirstCheckDropsPsiCaches() {
+    TestCase.assertTrue(fingerprint().isChangedFrom(null))
+  }
+
+  fun testValueChangeKeepsCaches() {
+    val before = fingerprint("x" to RRuntimeFingerprint.binding(RValueSimple(listOf("numeric"), "[1] 1")))
+    val after = fingerprint("x" to RRuntimeFingerprint.binding(RValueSimple(listOf("numeric"), "[1] 2")))
+    TestCase.assertFalse(after.isChangedFrom(before))
+  }
+
+  fun testRebindingWithOtherShape() {
+    val before = fingerprint("df" to RRuntimeFingerprint.binding(RValueDataFrame(dataFrame, 10, 2)))
+    TestCase.assertTrue(fingerprint("df" to RRuntimeFingerprint.binding(RValueDataFrame(dataFrame, 10, 3))).isChangedFrom(before))
+    TestCase.assertTrue(fingerprint("df" to RRuntimeFingerprint.binding(RValueDataFrame(listOf("tbl_df", "data.frame"), 10, 2)))
+      .isChangedFrom(before))
+    TestCase.assertFalse(fingerprint("df" to RRuntimeFingerprint.binding(RValueDataFrame(dataFrame, 10, 2))).isChangedFrom(before))
+  }
+
+  fun testFunctionHeader() {
+    val before = fingerprint("f" to RRuntimeFingerprint.binding(RValueFunction(listOf("function"), "function(x)")))
+    val after = fingerprint("f" to RRuntimeFingerprint.binding(RValueFunction(listOf("function"), "function(x, y)")))
+    TestCase.assertTrue(after.isChangedFrom(before))
+  }
+
+  fun testNamesAndWorkingDir() {
+    val before = fingerprint("x" to RRuntimeFingerprint.binding(RValueSimple(listOf("numeric"), "")))
+    TestCase.assertTrue(fingerprint().isChangedFrom(before))
+    TestCase.assertTrue(before.copy(workingDir = "/other").isChangedFrom(before))
+  }
+
+  fun testBindingsBeyondTheLimit() {
+    val before = fingerprint()
+    TestCase.assertTrue(before.copy(globalEnvSize = RRuntimeFingerprint.MAX_BINDINGS + 1).isChangedFrom(before))
+  }
+
+  private fun fingerprint(vararg bindings: Pair<String, RRuntimeFingerprint.Binding>): RRuntimeFingerprint {
+    return RRuntimeFingerprint(bindings.toMap(), RRuntimeFingerprint.MAX_BINDINGS, "/home")
+  }
+}
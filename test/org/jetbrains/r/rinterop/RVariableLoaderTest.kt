@@ -181,6 +181,28 @@ class RVariableLoaderTest : RProcessHandlerBaseTestCase() {
     TestCase.assertEquals(listOf("[1] 22", "[1] 33"), vars.map { it.ref.evaluateAsTextAsync().get().trim() })
   }
 
+  fun testPipelinedBlocks() {
+    rInterop.executeCode("lst <- as.list(1:1000)")
+    val loader = RReference.expressionRef("lst", rInterop).createVariableLoader()
+    val progress = mutableListOf<Int>()
+    val vars = loader.loadAllVariables(blockSize = 64, maxInFlight = 3) { synchronized(progress) { progress.add(it.size) } }
+      .blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertEquals((1..1000).map { "[1] $it" }, vars.map { (it.value as RValueSimple).text.trim() })
+    TestCase.assertEquals(progress.sorted(), progress)
+    TestCase.assertEquals(1000, progress.last())
+  }
+
+  fun testPipelinedRange() {
+    rInterop.executeCode("lst <- as.list(1:1000)")
+    val loader = RReference.expressionRef("lst", rInterop).createVariableLoader()
+    val progress = mutableListOf<Int>()
+    val (vars, total) = loader.loadVariablesPipelined(100, 300, blockSize = 64, maxInFlight = 2) { prefix, _ -> progress.add(prefix.size) }
+      .blockingGet(DEFAULT_TIMEOUT)!!
+    TestCase.assertEquals(1000, total)
+    TestCase.assertEquals((101..300).map { "[1] $it" }, vars.map { (it.value as RValueSimple).text.trim() })
+    TestCase.assertEquals(listOf(64, 128, 192, 200), progress)
+  }
+
   fun testVector() {
     rInterop.executeCode("a = c(10, 20, 30, 40)")
     val varsA = rInterop.globalEnvLoader.variables.find { it.name == "a" }!!.ref.createVariableLoader().variables
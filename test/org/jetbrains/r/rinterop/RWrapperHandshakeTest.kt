@@ -0,0 +1,48 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.rinterop
+
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RWrapperHandshakeTest : RUsefulTestCase() {
+  fun testPortOnly() {
+    val handshake = RWrapperHandshake(expectUnixSocket = false)
+    handshake.append("PORT 1234\n")
+    TestCase.assertEquals(1234, handshake.port.get())
+    TestCase.assertNull(handshake.unixSocketPath.get())
+  }
+
+  fun testWaitsForSecondLine() {
+    val handshake = RWrapperHandshake(expectUnixSocket = true)
+    handshake.append("PORT 12")
+    TestCase.assertFalse(handshake.port.isDone)
+    handshake.append("34\nUN")
+    TestCase.assertEquals(1234, handshake.port.get())
+    TestCase.assertFalse(handshake.unixSocketPath.isDone)
+    handshake.append("IX /tmp/rwrapper1/rwrapper.sock\r\n")
+    TestCase.assertEquals("/tmp/rwrapper1/rwrapper.sock", handshake.unixSocketPath.get())
+  }
+
+  fun testSocketNotAvailable() {
+    val handshake = RWrapperHandshake(expectUnixSocket = true)
+    handshake.append("PORT 1234\nUNIX -\n")
+    TestCase.assertEquals(1234, handshake.port.get())
+    TestCase.assertNull(handshake.unixSocketPath.get())
+  }
+
+  fun testOtherSecondLine() {
+    val handshake = RWrapperHandshake(expectUnixSocket = true)
+    handshake.append("PORT 1234\nREADY\n")
+    TestCase.assertNull(handshake.unixSocketPath.get())
+  }
+
+  fun testInvalidOutput() {
+    val handshake = RWrapperHandshake(expectUnixSocket = true)
+    handshake.append("error\nPORT 1234\n")
+    TestCase.assertNull(handshake.port.get())
+    TestCase.assertNull(handshake.unixSocketPath.get())
+  }
+}
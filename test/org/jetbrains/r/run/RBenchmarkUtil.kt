@@ -0,0 +1,26 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+/** Timing loop shared by the `@Ignore`d benchmarks of the interop */
+internal object RBenchmarkUtil {
+  /**
+   * Runs [f] with the iteration index [warmup] times (at most [iterations]), then [iterations] times measured,
+   * prints the total and the per-iteration time under [name] and returns the result of the last measured iteration.
+   */
+  fun <T> measure(name: String, iterations: Int, warmup: Int, f: (Int) -> T): Measurement<T> {
+    repeat(minOf(warmup, iterations)) { f(it) }
+    val start = System.nanoTime()
+    var last = f(0)
+    for (i in 1 until iterations) {
+      last = f(i)
+    }
+    val totalMs = (System.nanoTime() - start) / 1_000_000.0
+    System.err.println("$name: N=$iterations, ${totalMs}ms, ${totalMs * 1000 / iterations}us per iteration")
+    return Measurement(last, totalMs / iterations)
+  }
+
+  class Measurement<T>(val last: T, val iterationMs: Double)
+}
@@ -5,12 +5,16 @@
 package org.jetbrains.r.run
 
 import com.intellij.openapi.progress.runBlockingCancellable
+import com.intellij.openapi.util.registry.Registry
 import com.intellij.openapi.util.use
 import com.intellij.r.psi.rinterop.RReference
 import junit.framework.TestCase
 import kotlinx.coroutines.time.withTimeout
+import org.jetbrains.concurrency.AsyncPromise
 import org.jetbrains.r.run.visualize.RDataFrameException
+import org.jetbrains.r.run.visualize.RDataFrameLocalViewer
 import org.jetbrains.r.run.visualize.RDataFrameViewer
+import org.jetbrains.r.run.visualize.RDataFrameViewerImpl
 import org.jetbrains.r.run.visualize.RFilterParser
 import javax.swing.RowSorter
 import javax.swing.SortOrder
@@ -251,6 +255,113 @@ class RDataFrameViewerTest : RProcessHandlerBaseTestCase() {
   }
 
 
+  fun testChunkCacheIsBounded() {
+    Registry.get("r.dataframe.viewer.cache.mb").setValue(1, testRootDisposable)
+    createViewer("dplyr::tibble(x = 0L:99999L, y = as.character(x))").use { viewer ->
+      for (i in 0 until viewer.nRows step 256) {
+        TestCase.assertEquals(i, viewer.getValueAt(i, 1))
+      }
+      val stats = (viewer as RDataFrameViewerImpl).cacheStats
+      TestCase.assertTrue(stats.evictions > 0)
+      TestCase.assertTrue(stats.bytes <= 1024 * 1024 + 100 * 1024)
+      TestCase.assertEquals("99999", viewer.getValueAt(99999, 2))
+      TestCase.assertEquals("0", viewer.getValueAt(0, 2))
+    }
+  }
+
+  fun testLoadedValueDoesNotWait() {
+    createViewer("dplyr::tibble(x = 0L:9999L)").use { viewer ->
+      TestCase.assertSame(RDataFrameViewer.NOT_LOADED, viewer.getLoadedValueAt(5000, 1))
+      val loadedRows = AsyncPromise<IntRange>()
+      viewer.addRowsLoadedListener(testRootDisposable) { loadedRows.setResult(it) }
+      viewer.ensureLoaded(5000, 1)
+      val rows = loadedRows.blockingGet(DEFAULT_TIMEOUT)!!
+      TestCase.assertTrue(5000 in rows)
+      TestCase.assertEquals(rows.first, viewer.getLoadedValueAt(rows.first, 1))
+      TestCase.assertEquals(rows.last, viewer.getLoadedValueAt(rows.last, 1))
+    }
+  }
+
+  fun testViewportPrefetch() {
+    createViewer("dplyr::tibble(x = 0L:9999L)").use { viewer ->
+      val prefetched = AsyncPromise<Unit>()
+      viewer.addRowsLoadedListener(testRootDisposable) { if (600 in it) prefetched.setResult(Unit) }
+      viewer.setViewport(0, 10)
+      prefetched.blockingGet(DEFAULT_TIMEOUT)
+      TestCase.assertEquals(600, viewer.getLoadedValueAt(600, 1))
+      viewer.setViewport(5, 20)
+      // Hits and misses are counted per chunk which comes into view, not per cell
+      TestCase.assertEquals(1L, (viewer as RDataFrameViewerImpl).cacheStats.misses)
+      TestCase.assertEquals(0L, viewer.cacheStats.hits)
+    }
+  }
+
+  fun testLocalSortAndFilterMatchR() {
+    createViewer("""dplyr::tibble(
+      | x = c(3L, NA, 1L, 2L, 3L, -1L, 0L, NA),
+      | d = c(2.5, NaN, NA, -0, 0, 7, -3.5, 2.5),
+      | s = c("ab", "b", NA, "ab", "ca", "x.y", "", "B")
+      |)""".trimMargin()).use { viewer ->
+      List(viewer.nRows) { viewer.getValueAt(it, 1) }
+
+      fun rows(v: RDataFrameViewer) = List(v.nRows) { row -> List(v.nColumns) { v.getValueAt(row, it) } }
+      val parser2 = RFilterParser(2)
+      val parser3 = RFilterParser(3)
+      val sortKeys = listOf(
+        listOf(RowSorter.SortKey(1, SortOrder.ASCENDING)),
+        listOf(RowSorter.SortKey(2, SortOrder.DESCENDING), RowSorter.SortKey(1, SortOrder.ASCENDING)),
+      )
+      val filters = listOf(null, parser2.parseText(">= 0").proto, parser2.parseText("! 2.5").proto, parser2.parseText("_").proto,
+                           parser3.parseText("= ab").proto)
+      for (filter in filters) {
+        for (keys in sortKeys) {
+          val local = RDataFrameLocalViewer.tryCreate(viewer, filter, keys)
+          TestCase.assertNotNull(local)
+          val remote = filter?.let { viewer.filter(it).sortBy(keys) } ?: viewer.sortBy(keys)
+          TestCase.assertEquals("$filter $keys", rows(remote), rows(local!!))
+        }
+      }
+
+      // Results may differ from R, so these go to R
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, null, listOf(RowSorter.SortKey(3, SortOrder.ASCENDING))))
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, parser3.parseText("< b").proto, emptyList()))
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, parser3.parseText("~ ?b").proto, emptyList()))
+    }
+
+    createViewer("dplyr::tibble(x = 1:5, s = c('ab', 'x.y', '', 'B', 'cab'))").use { viewer ->
+      List(viewer.nRows) { viewer.getValueAt(it, 1) }
+      val parser = RFilterParser(2)
+      for (text in listOf("~ ?b", "!~ *a*", "x.y", "~~ [a-c]+", "! ab")) {
+        val filter = parser.parseText(text).proto
+        val local = RDataFrameLocalViewer.tryCreate(viewer, filter, emptyList())!!
+        val remote = viewer.filter(filter)
+        TestCase.assertEquals(text, List(remote.nRows) { remote.getValueAt(it, 1) }, List(local.nRows) { local.getValueAt(it, 1) })
+      }
+      // java.util.regex differs from TRE here
+      for (text in listOf("~~ \\<ab", "~~ .*(?=b)", "~~ a*+b", "~~ [[:alpha:]]+", "~~ \\w+")) {
+        TestCase.assertNull(text, RDataFrameLocalViewer.tryCreate(viewer, parser.parseText(text).proto, emptyList()))
+      }
+    }
+  }
+
+  fun testLocalSortNeedsLoadedRows() {
+    Registry.get("r.dataframe.viewer.local.max.rows").setValue(1000, testRootDisposable)
+    createViewer("dplyr::tibble(x = 2000:1)").use { viewer ->
+      val keys = listOf(RowSorter.SortKey(1, SortOrder.ASCENDING))
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, null, keys))
+      List(viewer.nRows) { viewer.getValueAt(it, 1) }
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, null, keys))
+    }
+    createViewer("dplyr::tibble(x = 1000:1)").use { viewer ->
+      val keys = listOf(RowSorter.SortKey(1, SortOrder.ASCENDING))
+      TestCase.assertNull(RDataFrameLocalViewer.tryCreate(viewer, null, keys))
+      List(viewer.nRows) { viewer.getValueAt(it, 1) }
+      val sorted = RDataFrameLocalViewer.tryCreate(viewer, null, keys)!!
+      TestCase.assertEquals((1..1000).toList(), List(sorted.nRows) { sorted.getValueAt(it, 1) })
+      TestCase.assertEquals(1000, sorted.getValueAt(0, 0))
+    }
+  }
+
   private fun createViewer(expr: String): RDataFrameViewer {
     return rInterop.dataFrameGetViewer(RReference.expressionRef(expr, rInterop)).blockingGet(DEFAULT_TIMEOUT)!!
       .also { it.registerDisposable(rInterop, null) }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.CodedOutputStream
+import com.google.protobuf.Empty
+import com.google.protobuf.WireFormat
+import com.intellij.r.psi.rinterop.DataFrameGetDataResponse
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.run.visualize.RDataFrameChunk
+import org.jetbrains.r.run.visualize.RDataFrameColumn
+import org.junit.Ignore
+import java.io.ByteArrayOutputStream
+import java.util.BitSet
+import kotlin.random.Random
+import kotlin.reflect.KClass
+
+/**
+ * Wire size and decode time of a [ROWS]×[COLUMNS] chunk of `dataFrameGetData`:
+ * the current per-cell format parsed into messages, the same bytes read by [RDataFrameChunk.decode],
+ * and a packed format with one blob per column and an NA bitmap, which would need a change of the R wrapper.
+ */
+@Ignore
+class RDataFrameWireFormatBenchmark : RUsefulTestCase() {
+  private val types: List<KClass<*>> = List(COLUMNS) { listOf(Double::class, Int::class, Boolean::class, String::class)[it % 4] }
+
+  private val response: DataFrameGetDataResponse by lazy {
+    val random = Random(42)
+    val builder = DataFrameGetDataResponse.newBuilder()
+    for (type in types) {
+      val column = DataFrameGetDataResponse.Column.newBuilder()
+      repeat(ROWS) {
+        val value = DataFrameGetDataResponse.Value.newBuilder()
+        when {
+          random.nextInt(20) == 0 -> value.setNa(Empty.getDefaultInstance())
+          type == Double::class -> value.setDoubleValue(random.nextDouble() * 1000)
+          type == Int::class -> value.setIntValue(random.nextInt(-100_000, 100_000))
+          type == Boolean::class -> value.setBooleanValue(random.nextBoolean())
+          else -> value.setStringValue(LEVELS[random.nextInt(LEVELS.size)])
+        }
+        column.addValues(value)
+      }
+      builder.addColumns(column)
+    }
+    builder.build()
+  }
+
+  fun testWireFormats() {
+    val current = response.toByteArray()
+    val packed = encodePacked(RDataFrameChunk.fromProto(types, response))
+    System.err.println("Wire size of ${ROWS}x${COLUMNS}: per-cell ${current.size} bytes, packed ${packed.size} bytes")
+
+    measure("per-cell, parseFrom") { RDataFrameChunk.fromProto(types, DataFrameGetDataResponse.parseFrom(current)).nRows }
+    measure("per-cell, RDataFrameChunk.decode") { RDataFrameChunk.decode(types, ROWS, CodedInputStream.newInstance(current)).nRows }
+    measure("packed") { decodePacked(packed) }
+  }
+
+  /** Each column is a message with its values packed into one blob (dictionary codes for strings), the dictionary and an NA bitmap */
+  private fun encodePacked(chunk: RDataFrameChunk): ByteArray {
+    val result = ByteArrayOutputStream()
+    val output = CodedOutputStream.newInstance(result)
+    for (column in chunk.columns) {
+      val columnBytes = ByteArrayOutputStream()
+      val columnOutput = CodedOutputStream.newInstance(columnBytes)
+      val packedBytes = ByteArrayOutputStream()
+      val packedOutput = CodedOutputStream.newInstance(packedBytes)
+      when (column) {
+        is RDataFrameColumn.Doubles -> column.values.forEach { packedOutput.writeDoubleNoTag(it) }
+        is RDataFrameColumn.Ints -> column.values.forEach { packedOutput.writeSInt32NoTag(it) }
+        is RDataFrameColumn.Booleans -> column.values.forEach { packedOutput.writeBoolNoTag(it) }
+        is RDataFrameColumn.Strings -> {
+          column.dictionary.forEach { columnOutput.writeString(DICTIONARY_FIELD, it) }
+          column.codes.forEach { packedOutput.writeUInt32NoTag(it) }
+        }
+      }
+      packedOutput.flush()
+      columnOutput.writeByteArray(VALUES_FIELD, packedBytes.toByteArray())
+      val na = BitSet(column.size)
+      for (i in 0 until column.size) if (column.isNa(i)) na.set(i)
+      columnOutput.writeByteArray(NA_FIELD, na.toByteArray())
+      columnOutput.flush()
+      output.writeByteArray(COLUMN_FIELD, columnBytes.toByteArray())
+    }
+    output.flush()
+    return result.toByteArray()
+  }
+
+  private fun decodePacked(bytes: ByteArray): Int {
+    val input = CodedInputStream.newInstance(bytes)
+    var rows = 0
+    var col = 0
+    while (true) {
+      val tag = input.readTag()
+      if (tag == 0) break
+      val limit = input.pushLimit(input.readRawVarint32())
+      val dictionary = ArrayList<String>()
+      while (true) {
+        val columnTag = input.readTag()
+        if (columnTag == 0) break
+        when (WireFormat.getTagFieldNumber(columnTag)) {
+          DICTIONARY_FIELD -> dictionary.add(input.readStringRequireUtf8())
+          VALUES_FIELD -> {
+            val valuesLimit = input.pushLimit(input.readRawVarint32())
+            rows = when (types[col]) {
+              Double::class -> DoubleArray(ROWS) { input.readDouble() }.size
+              Int::class -> IntArray(ROWS) { input.readSInt32() }.size
+              Boolean::class -> BooleanArray(ROWS) { input.readBool() }.size
+              else -> IntArray(ROWS) { input.readUInt32() }.size
+            }
+            input.popLimit(valuesLimit)
+          }
+          NA_FIELD -> BitSet.valueOf(input.readByteBuffer())
+          else -> input.skipField(columnTag)
+        }
+      }
+      input.popLimit(limit)
+      col++
+    }
+    return rows
+  }
+
+  private fun measure(name: String, f: () -> Int) {
+    TestCase.assertEquals(ROWS, RBenchmarkUtil.measure(name, ITERATIONS, WARMUP) { f() }.last)
+  }
+
+  companion object {
+    private const val ROWS = 256
+    private const val COLUMNS = 200
+    private const val WARMUP = 200
+    private const val ITERATIONS = 1000
+    private const val COLUMN_FIELD = 1
+    private const val VALUES_FIELD = 1
+    private const val NA_FIELD = 2
+    private const val DICTIONARY_FIELD = 3
+    private val LEVELS = listOf("setosa", "versicolor", "virginica", "unknown species", "hybrid")
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+import com.google.protobuf.ByteString
+import com.google.protobuf.Empty
+import com.intellij.openapi.application.ApplicationManager
+import com.intellij.r.psi.rinterop.CommandOutput
+import com.intellij.r.psi.rinterop.ExecuteCodeResponse
+import com.intellij.r.psi.rinterop.ProtoUtil
+import com.intellij.r.psi.rinterop.RInteropCacheScope
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import com.intellij.r.psi.rinterop.StringList
+import com.intellij.r.psi.rinterop.ValueInfo
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.rinterop.FakeRPIService
+import org.jetbrains.r.run.RProcessHandlerBaseTestCase.Companion.DEFAULT_TIMEOUT
+import org.junit.Ignore
+import java.util.EnumSet
+
+/**
+ * Measures the overhead of the Kotlin side of the interop against [FakeRPIService], so no R installation is needed.
+ */
+@Ignore
+class RInteropClientBenchmark : RUsefulTestCase() {
+  fun testRequests() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onServerStreaming(RPIServiceGrpc.getExecuteCodeMethod()) { request ->
+      List(STREAM_CHUNKS) { ExecuteCodeResponse.newBuilder().setOutput(output(request.code)).build() }
+    }
+    service.onServerStreaming(RPIServiceGrpc.getRepoCheckPackageInstalledMethod()) { request ->
+      List(STREAM_CHUNKS) { output(request.value) }
+    }
+    service.onUnary(RPIServiceGrpc.getLoaderGetLoadedNamespacesMethod()) { StringList.newBuilder().addAllList(listOf("base", "stats")).build() }
+
+    measure("execute", N) { rInterop.execute(rInterop.asyncStub::isBusy, Empty.getDefaultInstance()) }
+    measure("executeAsync x$IN_FLIGHT", N / IN_FLIGHT) {
+      List(IN_FLIGHT) { rInterop.executeAsync(rInterop.asyncStub::isBusy, Empty.getDefaultInstance()) }
+        .forEach { it.blockingGet(DEFAULT_TIMEOUT) }
+    }
+    measure("executeCode streaming", N) { TestCase.assertEquals("$it".repeat(STREAM_CHUNKS), rInterop.executeCode("$it").stdout) }
+    ApplicationManager.getApplication().executeOnPooledThread {
+      measure("executeRequestAsync streaming", N) { rInterop.repoCheckPackageInstalled("$it") }
+    }.get()
+    rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    measure("AsyncCached hit", N * 100) { rInterop.loadedPackages.value }
+    measure("AsyncCached miss", N) {
+      rInterop.invalidateCaches(EnumSet.of(RInteropCacheScope.NAMESPACES))
+      rInterop.loadedPackages.getAsync().blockingGet(DEFAULT_TIMEOUT)
+    }
+  }
+
+  fun testRValueFromProto() {
+    val values = listOf(
+      ValueInfo.newBuilder().addCls("numeric").setValue(ValueInfo.Value.newBuilder().setTextValue("[1] 1 2 3\n").setIsVector(true)).build(),
+      ValueInfo.newBuilder().addCls("list").setList(ValueInfo.List.newBuilder().setLength(10)).build(),
+      ValueInfo.newBuilder().addCls("data.frame").setDataFrame(ValueInfo.DataFrame.newBuilder().setRows(100).setCols(5)).build(),
+    )
+    measure("rValueFromProto", N * 1000) { ProtoUtil.rValueFromProto(values[it % values.size]) }
+  }
+
+  private fun output(text: String) = CommandOutput.newBuilder().setType(CommandOutput.Type.STDOUT).setText(ByteString.copyFromUtf8(text)).build()
+
+  private fun measure(name: String, iterations: Int, f: (Int) -> Unit) {
+    RBenchmarkUtil.measure(name, iterations, WARMUP, f)
+  }
+
+  companion object {
+    private const val N = 10000
+    private const val WARMUP = 1000
+    private const val IN_FLIGHT = 16
+    private const val STREAM_CHUNKS = 4
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+import com.google.protobuf.ByteString
+import com.intellij.r.psi.rinterop.CommandOutput
+import com.intellij.r.psi.rinterop.ExecuteCodeResponse
+import com.intellij.r.psi.rinterop.RPIServiceGrpc
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.rinterop.FakeRPIService
+import org.jetbrains.r.rinterop.RInteropUtf8Decoder
+import org.junit.Ignore
+
+/**
+ * Decodes [TOTAL_MB] of command output split into chunks at arbitrary byte offsets,
+ * with the former per-chunk double decoding, with [RInteropUtf8Decoder] and through `executeCode` against [FakeRPIService].
+ */
+@Ignore
+class RInteropOutputDecodingBenchmark : RUsefulTestCase() {
+  private val chunks: List<ByteString> by lazy {
+    val line = "value ш私 ∃ x = 1.2345\n".toByteArray(Charsets.UTF_8)
+    val total = ByteArray(TOTAL_MB * 1024 * 1024) { line[it % line.size] }
+    total.indices.step(CHUNK_BYTES).map { ByteString.copyFrom(total, it, minOf(CHUNK_BYTES, total.size - it)) }
+  }
+
+  fun testDecoding() {
+    measure("toStringUtf8 twice per chunk") { chunks.sumOf { it.toStringUtf8().length + it.toStringUtf8().length } }
+    measure("RInteropUtf8Decoder") {
+      val decoder = RInteropUtf8Decoder()
+      chunks.sumOf { decoder.decode(it).length } + decoder.flush().length
+    }
+  }
+
+  fun testExecuteCode() {
+    val (service, rInterop) = FakeRPIService.createWithRInterop(project, testRootDisposable)
+    service.onServerStreaming(RPIServiceGrpc.getExecuteCodeMethod()) {
+      chunks.map { ExecuteCodeResponse.newBuilder().setOutput(CommandOutput.newBuilder().setType(CommandOutput.Type.STDOUT).setText(it)).build() }
+    }
+    measure("executeCode") { rInterop.executeCode("x").stdout.length }
+  }
+
+  private fun measure(name: String, f: () -> Int) {
+    val result = RBenchmarkUtil.measure("$name, ${TOTAL_MB}MB in ${CHUNK_BYTES}B chunks", ITERATIONS, WARMUP) { f() }
+    TestCase.assertTrue(result.last > 0)
+    System.err.println("$name: ${TOTAL_MB * 1000 / result.iterationMs}MB/s")
+  }
+
+  companion object {
+    private const val TOTAL_MB = 100
+    private const val CHUNK_BYTES = 8191
+    private const val WARMUP = 2
+    private const val ITERATIONS = 5
+  }
+}
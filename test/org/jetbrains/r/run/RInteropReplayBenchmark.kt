@@ -0,0 +1,28 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+import org.jetbrains.r.RUsefulTestCase
+import org.jetbrains.r.rinterop.RInteropReplay
+import org.junit.Ignore
+import java.io.File
+
+/**
+ * Replays a gRPC log saved from a user session, pass its path with `-Dr.interop.replay.dump=<path>`.
+ */
+@Ignore
+class RInteropReplayBenchmark : RUsefulTestCase() {
+  fun test() {
+    val path = System.getProperty("r.interop.replay.dump") ?: return
+    val replay = RInteropReplay.load(File(path))
+    repeat(RUNS) {
+      System.err.println(replay.run(project, testRootDisposable))
+    }
+  }
+
+  companion object {
+    private const val RUNS = 3
+  }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run
+
+import com.google.protobuf.Empty
+import com.intellij.openapi.util.Disposer
+import com.intellij.openapi.util.registry.Registry
+import junit.framework.TestCase
+import org.jetbrains.r.rinterop.RInteropUtil
+import org.junit.Ignore
+
+/**
+ * Runs the [RXProcessHandlerBenchmark] workload and small round trips over TCP and over a Unix domain socket.
+ */
+@Ignore
+class RInteropTransportBenchmark : RProcessHandlerBaseTestCase() {
+  fun test() {
+    for (unixSocket in listOf(false, true)) {
+      Registry.get("r.interop.unix.socket").setValue(unixSocket, testRootDisposable)
+      val interop = RInteropUtil.runRWrapperAndInterop(interpreter).blockingGet(DEFAULT_TIMEOUT)!!
+      try {
+        val transport = if (interop.isUnixSocketTransport) "unix" else "tcp"
+        if (unixSocket && !interop.isUnixSocketTransport) System.err.println("Unix socket is not supported by RWrapper, using TCP")
+        measure("$transport executeCode") { i ->
+          TestCase.assertEquals("[1] $i", interop.executeCode("$i", true).stdout.trim())
+        }
+        measure("$transport isBusy") { interop.execute(interop.asyncStub::isBusy, Empty.getDefaultInstance()) }
+        measure("$transport getEqualityObject") { interop.globalEnvRef.getEqualityObject() }
+      }
+      finally {
+        Disposer.dispose(interop)
+      }
+    }
+  }
+
+  private fun measure(name: String, f: (Int) -> Unit) {
+    RBenchmarkUtil.measure(name, RXProcessHandlerBenchmark.N, WARMUP, f)
+  }
+
+  companion object {
+    private const val WARMUP = 100
+  }
+}
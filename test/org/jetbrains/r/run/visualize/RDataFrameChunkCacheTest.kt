@@ -0,0 +1,46 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.visualize
+
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RDataFrameChunkCacheTest : RUsefulTestCase() {
+  fun testEvictsLeastRecentlyUsed() {
+    val cache = RDataFrameChunkCache<String>(maxBytes = 300, keepRadius = 0)
+    for (i in 0 until 3) cache.put(i, "chunk$i", 100)
+    TestCase.assertEquals("chunk0", cache.get(0))
+    TestCase.assertEquals("chunk2", cache.get(2))
+    cache.put(3, "chunk3", 100)
+
+    // Chunk 1 is the least recently used one
+    TestCase.assertNull(cache.peek(1))
+    TestCase.assertEquals("chunk0", cache.peek(0))
+    TestCase.assertEquals(RDataFrameChunkCache.Stats(hits = 2, misses = 0, evictions = 1, chunks = 3, bytes = 300), cache.stats)
+  }
+
+  fun testKeepsChunksNearViewport() {
+    val cache = RDataFrameChunkCache<String>(maxBytes = 100, keepRadius = 1)
+    cache.setViewport(10, 11)
+    TestCase.assertNull(cache.get(10))
+    cache.put(10, "chunk10", 100)
+    cache.put(11, "chunk11", 100)
+    cache.put(12, "chunk12", 100)
+    cache.put(20, "chunk20", 100)
+    TestCase.assertEquals("chunk10", cache.peek(10))
+    TestCase.assertEquals("chunk11", cache.peek(11))
+    TestCase.assertEquals("chunk12", cache.peek(12))
+    TestCase.assertNull(cache.peek(20))
+    TestCase.assertEquals(1L, cache.stats.misses)
+    TestCase.assertEquals(1L, cache.stats.evictions)
+  }
+
+  fun testPeekDoesNotCount() {
+    val cache = RDataFrameChunkCache<String>(maxBytes = 100, keepRadius = 0)
+    cache.put(0, "chunk0", 10)
+    repeat(3) { cache.peek(0) }
+    TestCase.assertEquals(0L, cache.stats.hits + cache.stats.misses)
+  }
+}
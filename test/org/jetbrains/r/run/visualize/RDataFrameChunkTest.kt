@@ -0,0 +1,84 @@
+/*
+ * Copyright 2000-2026 JetBrains s.r.o. Use of this source code is governed by the Apache 2.0 license that can be found in the LICENSE file.
+ */
+
+package org.jetbrains.r.run.visualize
+
+import com.google.protobuf.CodedInputStream
+import com.google.protobuf.Empty
+import com.intellij.r.psi.rinterop.DataFrameGetDataResponse
+import junit.framework.TestCase
+import org.jetbrains.r.RUsefulTestCase
+
+class RDataFrameChunkTest : RUsefulTestCase() {
+  fun testValuesAndNa() {
+    val response = DataFrameGetDataResponse.newBuilder()
+      .addColumns(column(value { setIntValue(1) }, na(), value { setIntValue(-3) }))
+      .addColumns(column(value { setDoubleValue(1.5) }, value { setDoubleValue(Double.NaN) }, na()))
+      .addColumns(column(na(), value { setBooleanValue(true) }, value { setBooleanValue(false) }))
+      .addColumns(column(value { setStringValue("a") }, na(), value { setStringValue("") }))
+      .build()
+    val chunk = RDataFrameChunk.fromProto(listOf(Int::class, Double::class, Boolean::class, String::class), response)
+
+    TestCase.assertEquals(3, chunk.nRows)
+    TestCase.assertEquals(listOf(1, null, -3), (0 until 3).map { chunk.getValue(it, 0) })
+    TestCase.assertEquals(1.5, chunk.getValue(0, 1))
+    TestCase.assertTrue((chunk.getValue(1, 1) as Double).isNaN())
+    TestCase.assertNull(chunk.getValue(2, 1))
+    TestCase.assertEquals(listOf(null, true, false), (0 until 3).map { chunk.getValue(it, 2) })
+    TestCase.assertEquals(listOf("a", null, ""), (0 until 3).map { chunk.getValue(it, 3) })
+    TestCase.assertNull(chunk.getValue(3, 0))
+    TestCase.assertNull(chunk.getValue(0, 4))
+  }
+
+  fun testStringsAreDeduplicated() {
+    val levels = listOf("setosa", "versicolor", "virginica")
+    val response = DataFrameGetDataResponse.newBuilder()
+      .addColumns(column(*Array(300) { i -> value { setStringValue(levels[i % 3]) } }))
+      .build()
+    val chunk = RDataFrameChunk.fromProto(listOf(String::class), response)
+    val column = chunk.columns.single() as RDataFrameColumn.Strings
+
+    TestCase.assertEquals(levels, column.dictionary.toList())
+    TestCase.assertEquals("virginica", chunk.getValue(299, 0))
+  }
+
+  fun testSizeOfPrimitiveColumns() {
+    val response = DataFrameGetDataResponse.newBuilder()
+      .addColumns(column(*Array(256) { i -> value { setDoubleValue(i.toDouble()) } }))
+      .addColumns(column(*Array(256) { i -> value { setIntValue(i) } }))
+      .build()
+    val chunk = RDataFrameChunk.fromProto(listOf(Double::class, Int::class), response)
+
+    // 8 and 4 bytes per cell plus bitmaps, boxed cells would take 24 bytes each
+    TestCase.assertTrue(chunk.bytes.toString(), chunk.bytes < 256 * 12 + 200)
+  }
+
+  fun testDecodeFromWire() {
+    val types = listOf(Int::class, Double::class, Boolean::class, String::class)
+    val response = DataFrameGetDataResponse.newBuilder()
+      .addColumns(column(value { setIntValue(7) }, na(), value { setIntValue(0) }, value { setStringValue("x") }))
+      .addColumns(column(value { setDoubleValue(-0.5) }, value { setDoubleValue(0.0) }, na(), value { }))
+      .addColumns(column(value { setBooleanValue(false) }, value { setBooleanValue(true) }, na(), value { setBooleanValue(true) }))
+      .addColumns(column(value { setStringValue("b") }, na(), value { setStringValue("b") }, value { }))
+      .build()
+    val expected = RDataFrameChunk.fromProto(types, response)
+    val chunk = RDataFrameChunk.decode(types, 2, CodedInputStream.newInstance(response.toByteArray()))
+
+    TestCase.assertEquals(4, chunk.nRows)
+    for (col in types.indices) {
+      TestCase.assertEquals((0 until 4).map { expected.getValue(it, col) }, (0 until 4).map { chunk.getValue(it, col) })
+    }
+    TestCase.assertEquals(listOf("b", ""), (chunk.columns[3] as RDataFrameColumn.Strings).dictionary.toList())
+  }
+
+  private fun column(vararg values: DataFrameGetDataResponse.Value): DataFrameGetDataResponse.Column {
+    return DataFrameGetDataResponse.Column.newBuilder().addAllValues(values.toList()).build()
+  }
+
+  private fun value(init: DataFrameGetDataResponse.Value.Builder.() -> Unit): DataFrameGetDataResponse.Value {
+    return DataFrameGetDataResponse.Value.newBuilder().apply(init).build()
+  }
+
+  private fun na() = value { setNa(Empty.getDefaultInstance()) }
+}